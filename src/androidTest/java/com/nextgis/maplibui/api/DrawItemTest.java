@@ -0,0 +1,217 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2021 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.nextgis.maplibui.api;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.PointF;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+
+import java.util.Random;
+
+
+public class DrawItemTest
+        extends AndroidTestCase
+{
+    protected static final int POINT_COUNT = 10000;
+    protected static final int FRAME_COUNT = 100;
+
+
+    @Override
+    protected void setUp()
+            throws Exception
+    {
+        super.setUp();
+        // the styles of the edit overlay, so the gesture frames draw the vertices and the lines
+        DrawItem.setVertexStyle(new VertexStyle(getContext(), 255, Color.BLUE, 5, 2.6f, Color.RED,
+                5, 2.6f, Color.BLACK, 6, 3));
+        DrawItem.setEdgeStyle(new VertexStyle(getContext(), 255, Color.BLUE, 3, 1.6f, Color.RED, 3,
+                1.6f, Color.BLACK, 4, 1.8f));
+        DrawItem.setLineStyle(new EditStyle(getContext(), 255, Color.BLUE, 2, Color.RED, 2));
+        DrawItem.setPolygonStyle(
+                new EditStyle(getContext(), 0, Color.TRANSPARENT, 2, Color.TRANSPARENT, 2));
+    }
+
+
+    @Override
+    protected void tearDown()
+            throws Exception
+    {
+        DrawItem.setVertexStyle(null);
+        DrawItem.setEdgeStyle(null);
+        DrawItem.setLineStyle(null);
+        DrawItem.setPolygonStyle(null);
+        super.tearDown();
+    }
+
+
+    protected DrawItem createItem()
+    {
+        float[] ring = new float[POINT_COUNT * 2];
+        float[] edges = new float[POINT_COUNT * 2];
+        for (int i = 0; i < ring.length; i += 2) {
+            double angle = Math.PI * i / POINT_COUNT;
+            ring[i] = (float) (500 + 400 * Math.cos(angle));
+            ring[i + 1] = (float) (500 + 400 * Math.sin(angle));
+            edges[i] = ring[i] + 1;
+            edges[i + 1] = ring[i + 1] + 1;
+        }
+
+        DrawItem item = new DrawItem(DrawItem.TYPE_VERTEX, ring);
+        item.addEdges(edges);
+        item.setSelectedRing(0);
+        item.setSelectedPoint(4);
+        return item;
+    }
+
+
+    public void testTransformMatchesCopy()
+    {
+        DrawItem item = createItem();
+        PointF offset = new PointF(12.5f, -7);
+        PointF focus = new PointF(-300, -200);
+        DrawItem target = new DrawItem();
+
+        DrawItem panned = item.pan(offset);
+        item.panTo(target, offset);
+        assertRingsEqual(panned, target);
+        assertEquals(4, target.getSelectedPointId());
+
+        DrawItem zoomed = item.zoom(focus, 1.7f);
+        item.zoomTo(target, focus, 1.7f);
+        assertRingsEqual(zoomed, target);
+        int edges = zoomed.getRingCount();
+        assertEquals(zoomed.getEdgeRing(edges).get(10), target.getEdgeRing(edges).get(10), 1e-3f);
+    }
+
+
+    protected void assertRingsEqual(
+            DrawItem expected,
+            DrawItem actual)
+    {
+        assertEquals(expected.getRingCount(), actual.getRingCount());
+        for (int ring = 0; ring < expected.getRingCount(); ring++) {
+            float[] expectedPoints = expected.getRing(ring);
+            float[] actualPoints = actual.getRing(ring);
+            assertEquals(expectedPoints.length, actualPoints.length);
+            for (int i = 0; i < expectedPoints.length; i++) {
+                assertEquals(expectedPoints[i], actualPoints[i], 1e-3f);
+            }
+        }
+    }
+
+
+    public void testEdgesFollowRingChanges()
+    {
+        DrawItem item = new DrawItem();
+        item.addRing(new float[] {0, 0, 10, 0, 10, 10}, true);
+        item.setSelectedRing(0);
+
+        PointBuffer edges = item.getEdgeRing(0);
+        assertEquals(6, edges.size());
+        assertEquals(5, edges.get(0), 1e-3f);
+        assertEquals(5, edges.get(5), 1e-3f);
+
+        item.addNewPoint(0, 10);
+        edges = item.getEdgeRing(0);
+        assertEquals(8, edges.size());
+        assertEquals(10, edges.get(5), 1e-3f);
+        assertEquals(0, edges.get(6), 1e-3f);
+        assertEquals(5, edges.get(7), 1e-3f);
+    }
+
+
+    public void testAppendKeepsRingView()
+    {
+        DrawItem item = new DrawItem(DrawItem.TYPE_VERTEX, new float[] {0, 0});
+        item.setSelectedRing(0);
+        PointBuffer ring = item.getSelectedRingView();
+        for (int i = 1; i < POINT_COUNT; i++) {
+            item.addNewPoint(i, -i);
+        }
+
+        assertSame(ring, item.getSelectedRingView());
+        assertEquals(POINT_COUNT * 2, ring.size());
+        assertEquals(POINT_COUNT - 1, ring.get(ring.size() - 2), 1e-3f);
+        assertNotSame(item.getRing(0), item.getRing(0));
+    }
+
+
+    public void testGridLookupMatchesScan()
+    {
+        DrawItem item = createItem();
+        float[] points = item.getRing(0);
+        PointBuffer ring = item.getRingView(0);
+        Random random = new Random(1);
+
+        for (int i = 0; i < 1000; i++) {
+            float x = random.nextFloat() * 1000, y = random.nextFloat() * 1000;
+            float size = random.nextFloat() * 40;
+
+            int expected = -1;
+            for (int j = 0; j < points.length; j += 2) {
+                if (points[j] >= x - size && points[j] <= x + size &&
+                    points[j + 1] >= y - size && points[j + 1] <= y + size) {
+                    expected = j;
+                    break;
+                }
+            }
+
+            assertEquals(expected, ring.find(x - size, x + size, y - size, y + size));
+        }
+    }
+
+
+    @SuppressWarnings("deprecation")
+    public void testGestureFramesDoNotAllocate()
+    {
+        DrawItem item = createItem();
+        DrawItem target = new DrawItem();
+        PointF offset = new PointF();
+        PointF focus = new PointF(-500, -500);
+        Bitmap bitmap = Bitmap.createBitmap(256, 256, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+
+        // the first frame sizes the target and the paths
+        item.panTo(target, offset).drawLines(canvas, true, true, true, true);
+        item.zoomTo(target, focus, 1).drawLines(canvas, true, true, true, true);
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        for (int frame = 0; frame < FRAME_COUNT; frame++) {
+            offset.set(frame, -frame);
+            item.panTo(target, offset).drawLines(canvas, true, true, true, true);
+            item.zoomTo(target, focus, 1 + frame / (float) FRAME_COUNT)
+                    .drawLines(canvas, true, true, true, true);
+        }
+        Debug.stopAllocCounting();
+        int allocations = Debug.getThreadAllocCount();
+
+        bitmap.recycle();
+        assertEquals(0, allocations);
+    }
+}
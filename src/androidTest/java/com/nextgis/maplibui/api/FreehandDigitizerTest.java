@@ -0,0 +1,158 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2021 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package com.nextgis.maplibui.api;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+
+public class FreehandDigitizerTest
+        extends TestCase
+{
+    protected static final float TOLERANCE    = 2;
+    protected static final int   SAMPLE_COUNT = 100000;
+    protected static final int   MAX_VERTICES = 1000;
+
+
+    public void testStrokeIsSimplifiedWithinTolerance()
+    {
+        // the stroke goes between the two points of the ring
+        DrawItem item = new DrawItem();
+        item.addRing(new float[] {0, 0, 1000, 0}, false);
+        item.setSelectedRing(0);
+        item.setSelectedPoint(2);
+
+        FreehandDigitizer digitizer = new FreehandDigitizer(TOLERANCE);
+        assertTrue(digitizer.start(item));
+
+        // a long figure eight with touch noise, drawn over and over
+        Random random = new Random(3);
+        float[] samples = new float[SAMPLE_COUNT * 2];
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            double t = i * 0.001;
+            samples[2 * i] = (float) (500 + 300 * Math.cos(t) + random.nextGaussian() * 0.3);
+            samples[2 * i + 1] = (float) (500 + 200 * Math.sin(2 * t) + random.nextGaussian() * 0.3);
+            digitizer.addSample(samples[2 * i], samples[2 * i + 1]);
+            item.setSelectedPoint(digitizer.getPosition());
+        }
+        digitizer.finish();
+
+        float[] ring = item.getRing(0);
+        int points = ring.length / 2;
+        assertEquals(SAMPLE_COUNT, digitizer.getSampleCount());
+        assertEquals(points - 2, digitizer.getVertexCount());
+        assertTrue("vertices " + points, points < MAX_VERTICES);
+        assertEquals(0, ring[0], 0);
+        assertEquals(1000, ring[ring.length - 2], 0);
+
+        for (int i = 0; i < SAMPLE_COUNT; i += 7) {
+            double distance = getStrokeDistance(samples[2 * i], samples[2 * i + 1], ring);
+            assertTrue("sample " + i + " is " + distance + " away", distance <= TOLERANCE);
+        }
+    }
+
+
+    public void testOutAndBackStrokeKeepsTurn()
+    {
+        DrawItem item = new DrawItem();
+        item.addRing(new float[] {0, 0, 1000, 0}, false);
+        item.setSelectedRing(0);
+        item.setSelectedPoint(2);
+
+        FreehandDigitizer digitizer = new FreehandDigitizer(TOLERANCE);
+        assertTrue(digitizer.start(item));
+
+        // a straight stroke which turns back on itself, each sample stays in the first sleeve
+        int count = 600;
+        float[] samples = new float[count * 2];
+        for (int i = 0; i < count; i++) {
+            samples[2 * i] = 100 + (i < count / 2 ? i : count - i);
+            samples[2 * i + 1] = 100;
+            digitizer.addSample(samples[2 * i], samples[2 * i + 1]);
+            item.setSelectedPoint(digitizer.getPosition());
+        }
+        digitizer.finish();
+
+        float[] ring = item.getRing(0);
+        assertTrue("vertices " + ring.length / 2, ring.length / 2 >= 5);
+        for (int i = 0; i < count; i++) {
+            double distance = getStrokeDistance(samples[2 * i], samples[2 * i + 1], ring);
+            assertTrue("sample " + i + " is " + distance + " away", distance <= TOLERANCE);
+        }
+    }
+
+
+    public void testCloseSamplesAreDropped()
+    {
+        DrawItem item = new DrawItem(DrawItem.TYPE_VERTEX, new float[] {0, 0});
+        item.setSelectedRing(0);
+        item.setSelectedPoint(2);
+
+        FreehandDigitizer digitizer = new FreehandDigitizer(TOLERANCE);
+        assertTrue(digitizer.start(item));
+        assertTrue(digitizer.addSample(10, 10));
+        assertFalse(digitizer.addSample(11, 11));
+        assertTrue(digitizer.addSample(20, 10));
+        digitizer.finish();
+
+        assertEquals(3, digitizer.getSampleCount());
+        assertEquals(2, digitizer.getVertexCount());
+        assertEquals(3, item.getRing(0).length / 2);
+        assertFalse(digitizer.addSample(30, 10));
+    }
+
+
+    /**
+     * @return distance from the stroke, which is the ring without its first and last point
+     */
+    protected static double getStrokeDistance(
+            float x,
+            float y,
+            float[] ring)
+    {
+        double distance = Double.MAX_VALUE;
+        for (int k = 1; k < ring.length / 2 - 2; k++) {
+            distance = Math.min(distance, getDistance(x, y, ring, 2 * k));
+        }
+        return distance;
+    }
+
+
+    protected static double getDistance(
+            float x,
+            float y,
+            float[] points,
+            int start)
+    {
+        double ax = points[start], ay = points[start + 1];
+        double dx = points[start + 2] - ax, dy = points[start + 3] - ay;
+        double length = dx * dx + dy * dy;
+        double t = length == 0 ? 0 : ((x - ax) * dx + (y - ay) * dy) / length;
+        t = Math.max(0, Math.min(1, t));
+        return Math.hypot(ax + t * dx - x, ay + t * dy - y);
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2021 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package com.nextgis.maplibui.api;
+
+import android.graphics.PointF;
+
+import com.nextgis.maplib.datasource.GeoEnvelope;
+import com.nextgis.maplib.datasource.GeoPoint;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+
+public class SnapEngineTest
+        extends TestCase
+{
+    protected static final float TOLERANCE   = 10;
+    protected static final int   WIDTH       = 1000;
+    protected static final int   HEIGHT      = 800;
+    protected static final int   QUERY_COUNT = 5000;
+
+    protected List<float[]> mParts;
+    protected List<Boolean> mClosed;
+
+
+    protected SnapEngine.Index createIndex()
+    {
+        // the map units are pixels, the map y axis goes up
+        return new SnapEngine.Index(TOLERANCE, 0, 0, new GeoEnvelope(0, WIDTH, 0, HEIGHT),
+                new float[] {0, 0, WIDTH, HEIGHT});
+    }
+
+
+    protected void addPart(
+            SnapEngine.Index index,
+            float[] points,
+            boolean hasEdges,
+            boolean closed)
+    {
+        index.mFeatureIds.add((long) mParts.size());
+        index.addPart(points, index.mFeatureIds.size() - 1, hasEdges, closed);
+        mParts.add(hasEdges ? points : null);
+        mClosed.add(closed);
+    }
+
+
+    public void testSnapMatchesBruteForce()
+    {
+        mParts = new ArrayList<>();
+        mClosed = new ArrayList<>();
+        List<float[]> vertices = new ArrayList<>();
+        Random random = new Random(5);
+        SnapEngine.Index index = createIndex();
+
+        for (int i = 0; i < 300; i++) {
+            int count = i % 3 == 0 ? 1 : 2 + random.nextInt(20);
+            float[] points = new float[count * 2];
+            // some parts go beyond the screen
+            for (int j = 0; j < points.length; j += 2) {
+                points[j] = random.nextFloat() * (WIDTH + 200) - 100;
+                points[j + 1] = random.nextFloat() * (HEIGHT + 200) - 100;
+            }
+            addPart(index, points, count > 1, i % 3 == 2);
+            vertices.add(points);
+        }
+        index.buildGrid();
+
+        SnapEngine engine = new SnapEngine(TOLERANCE);
+        engine.mIndex = index;
+        PointF result = new PointF();
+
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            float x = random.nextFloat() * WIDTH, y = random.nextFloat() * HEIGHT;
+            float tolerance2 = TOLERANCE * TOLERANCE;
+
+            float bestVertex = tolerance2;
+            boolean hasVertex = false;
+            for (float[] points : vertices) {
+                for (int j = 0; j < points.length; j += 2) {
+                    float distance = getDistance2(x, y, points[j], points[j + 1]);
+                    if (distance <= bestVertex) {
+                        bestVertex = distance;
+                        hasVertex = true;
+                    }
+                }
+            }
+
+            float bestEdge = tolerance2;
+            boolean hasEdge = false;
+            for (int part = 0; part < mParts.size(); part++) {
+                float[] points = mParts.get(part);
+                if (null == points)
+                    continue;
+
+                int count = points.length / 2;
+                int edges = mClosed.get(part) ? count : count - 1;
+                for (int j = 0; j < edges; j++) {
+                    int k = (j + 1) % count;
+                    float distance = getEdgeDistance2(x, y, points[j * 2], points[j * 2 + 1],
+                            points[k * 2], points[k * 2 + 1]);
+                    if (distance <= bestEdge) {
+                        bestEdge = distance;
+                        hasEdge = true;
+                    }
+                }
+            }
+
+            result.set(-1, -1);
+            int snap = engine.snap(x, y, result);
+            if (hasVertex) {
+                assertEquals(SnapEngine.SNAP_VERTEX, snap);
+                assertEquals(bestVertex, getDistance2(x, y, result.x, result.y), 1e-2f);
+            } else if (hasEdge) {
+                assertEquals(SnapEngine.SNAP_EDGE, snap);
+                assertEquals(bestEdge, getDistance2(x, y, result.x, result.y), 1e-2f);
+            } else {
+                assertEquals(SnapEngine.SNAP_NONE, snap);
+                assertEquals(-1, result.x, 0);
+            }
+
+            if (snap != SnapEngine.SNAP_NONE)
+                assertTrue(engine.getSnappedFeatureId() >= 0);
+        }
+    }
+
+
+    public void testIndexProjectsToScreen()
+    {
+        mParts = new ArrayList<>();
+        mClosed = new ArrayList<>();
+        SnapEngine.Index index = createIndex();
+        index.mFeatureIds.add(7L);
+        index.addPart(new GeoPoint[] {new GeoPoint(100, 100), new GeoPoint(300, 100)}, 0, true,
+                false);
+        index.buildGrid();
+
+        SnapEngine engine = new SnapEngine(TOLERANCE);
+        PointF result = new PointF();
+        assertEquals(SnapEngine.SNAP_NONE, engine.snap(102, HEIGHT - 101, result));
+
+        engine.mIndex = index;
+        assertTrue(engine.isReady());
+        assertEquals(SnapEngine.SNAP_VERTEX, engine.snap(102, HEIGHT - 101, result));
+        assertEquals(100, result.x, 1e-3f);
+        assertEquals(HEIGHT - 100, result.y, 1e-3f);
+        assertEquals(7, engine.getSnappedFeatureId());
+
+        assertEquals(SnapEngine.SNAP_EDGE, engine.snap(200, HEIGHT - 105, result));
+        assertEquals(200, result.x, 1e-3f);
+        assertEquals(HEIGHT - 100, result.y, 1e-3f);
+
+        engine.setEnabled(false);
+        assertFalse(engine.isReady());
+        assertEquals(SnapEngine.SNAP_NONE, engine.snap(200, HEIGHT - 105, result));
+    }
+
+
+    protected static float getDistance2(
+            float x,
+            float y,
+            float px,
+            float py)
+    {
+        return (px - x) * (px - x) + (py - y) * (py - y);
+    }
+
+
+    protected static float getEdgeDistance2(
+            float x,
+            float y,
+            float ax,
+            float ay,
+            float bx,
+            float by)
+    {
+        float dx = bx - ax, dy = by - ay;
+        float length = dx * dx + dy * dy;
+        float t = length == 0 ? 0 : ((x - ax) * dx + (y - ay) * dy) / length;
+        t = Math.max(0, Math.min(1, t));
+        return getDistance2(x, y, ax + t * dx, ay + t * dy);
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2021 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextgis.maplibui.mapui;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.nextgis.maplibui.util.ConstantsUI.DRAW_STATE_drawing;
+import static com.nextgis.maplibui.util.ConstantsUI.DRAW_STATE_drawing_noclearbk;
+import static com.nextgis.maplibui.util.ConstantsUI.DRAW_STATE_none;
+import static com.nextgis.maplibui.util.ConstantsUI.DRAW_STATE_panning;
+import static com.nextgis.maplibui.util.ConstantsUI.DRAW_STATE_panning_fling;
+import static com.nextgis.maplibui.util.ConstantsUI.DRAW_STATE_zooming;
+
+
+public class DrawingStateMachineTest
+        extends TestCase
+{
+    protected static final int GESTURE_THREADS = 2;
+    protected static final int RENDER_THREADS  = 3;
+    protected static final int EVENT_COUNT     = 20000;
+
+    /**
+     * Interleavings of gesture events with render progress, replayed from the drawing state, with
+     * the final state and the pending progress. Events: p pan start, f fling, e fling finished,
+     * z zoom start, d map redraw, l locked map, 1 2 4 progress flags reported by a render thread
+     * unless a gesture runs, t progress taken by the UI thread.
+     */
+    protected static final Object[][] INTERLEAVINGS = {
+            // all interleavings of a pan with a fling and a partial and the finished progress
+            {"14pfd", DRAW_STATE_drawing, 5},
+            {"1p4fd", DRAW_STATE_drawing, 1},
+            {"1pf4d", DRAW_STATE_drawing, 1},
+            {"1pfd4", DRAW_STATE_drawing, 5},
+            {"p14fd", DRAW_STATE_drawing, 0},
+            {"p1f4d", DRAW_STATE_drawing, 0},
+            {"p1fd4", DRAW_STATE_drawing, 4},
+            {"pf14d", DRAW_STATE_drawing, 0},
+            {"pf1d4", DRAW_STATE_drawing, 4},
+            {"pfd14", DRAW_STATE_drawing, 5},
+            // gestures left unfinished and rejected transitions
+            {"1p2f4", DRAW_STATE_panning_fling, 1},
+            {"p1f4e", DRAW_STATE_panning, 0},
+            {"pfe2f1d", DRAW_STATE_drawing, 0},
+            {"zp1", DRAW_STATE_zooming, 0},
+            {"fz4", DRAW_STATE_zooming, 0},
+            {"pz1d4", DRAW_STATE_drawing, 4},
+            {"l2p4d1", DRAW_STATE_drawing, 3},
+            {"12t4", DRAW_STATE_drawing, 4},
+            {"4tp", DRAW_STATE_panning, 0},
+    };
+
+
+    public void testTransitions()
+    {
+        DrawingStateMachine machine = new DrawingStateMachine(DRAW_STATE_drawing);
+
+        assertTrue(machine.transition(DRAW_STATE_drawing, DRAW_STATE_panning));
+        assertFalse(machine.transition(DRAW_STATE_drawing, DRAW_STATE_zooming));
+        assertTrue(machine.transition(DRAW_STATE_panning, DRAW_STATE_panning_fling));
+        assertTrue(machine.transition(DRAW_STATE_panning_fling, DRAW_STATE_panning));
+        assertTrue(machine.moveTo(DRAW_STATE_zooming));
+        assertFalse(machine.moveTo(DRAW_STATE_panning));
+        assertFalse(machine.moveTo(DRAW_STATE_panning_fling));
+        assertTrue(machine.moveTo(DRAW_STATE_drawing));
+        assertFalse(machine.moveTo(DRAW_STATE_panning_fling));
+        assertEquals(DRAW_STATE_drawing, machine.get());
+
+        assertFalse(DrawingStateMachine.isAllowed(DRAW_STATE_zooming, DRAW_STATE_panning));
+        assertFalse(DrawingStateMachine.isAllowed(DRAW_STATE_none, DRAW_STATE_panning_fling));
+        assertFalse(DrawingStateMachine.isAllowed(-1, DRAW_STATE_drawing));
+        assertFalse(DrawingStateMachine.isAllowed(DRAW_STATE_drawing, 6));
+    }
+
+
+    public void testDrawProgress()
+    {
+        DrawingStateMachine machine = new DrawingStateMachine(DRAW_STATE_drawing);
+
+        assertTrue(machine.addDrawProgress(DrawingStateMachine.DRAW_PROGRESS_PARTIAL));
+        assertFalse(machine.addDrawProgress(DrawingStateMachine.DRAW_PROGRESS_FINISHED));
+        assertEquals(
+                DrawingStateMachine.DRAW_PROGRESS_PARTIAL |
+                DrawingStateMachine.DRAW_PROGRESS_FINISHED, machine.takeDrawProgress());
+        assertEquals(0, machine.takeDrawProgress());
+        assertTrue(machine.addDrawProgress(DrawingStateMachine.DRAW_PROGRESS_LAYER));
+    }
+
+
+    public void testInterleavedEvents()
+    {
+        for (Object[] interleaving : INTERLEAVINGS) {
+            String events = (String) interleaving[0];
+            DrawingStateMachine machine = new DrawingStateMachine(DRAW_STATE_drawing);
+            for (int i = 0; i < events.length(); i++) {
+                apply(machine, events.charAt(i));
+            }
+
+            assertEquals(events, ((Integer) interleaving[1]).intValue(), machine.get());
+            assertEquals(events, ((Integer) interleaving[2]).intValue(),
+                    machine.takeDrawProgress());
+        }
+    }
+
+
+    /**
+     * Gesture threads replay pan, fling, zoom and redraw events while render threads report draw
+     * progress. No transition may be lost and every scheduled progress must be taken exactly once.
+     */
+    public void testConcurrentEvents()
+            throws InterruptedException
+    {
+        final int initialState = DRAW_STATE_drawing_noclearbk;
+        final DrawingStateMachine machine = new DrawingStateMachine(initialState);
+        final int count = DrawingStateMachine.STATE_COUNT;
+        final AtomicLong[][] transitions = new AtomicLong[count][count];
+        for (int from = 0; from < count; from++) {
+            for (int to = 0; to < count; to++) {
+                transitions[from][to] = new AtomicLong(0);
+            }
+        }
+
+        final AtomicLong scheduled = new AtomicLong(0);
+        final AtomicLong taken = new AtomicLong(0);
+        final AtomicReference<String> error = new AtomicReference<>();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[GESTURE_THREADS + RENDER_THREADS];
+
+        for (int i = 0; i < GESTURE_THREADS; i++) {
+            final Random random = new Random(i);
+            threads[i] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    await(start);
+                    for (int event = 0; event < EVENT_COUNT; event++) {
+                        int state = machine.get();
+                        int next;
+                        switch (random.nextInt(7)) {
+                            case 0: // pan start
+                                if (DrawingStateMachine.isGesture(state)) {
+                                    continue;
+                                }
+                                next = DRAW_STATE_panning;
+                                break;
+                            case 1: // fling
+                                next = DRAW_STATE_panning_fling;
+                                break;
+                            case 2: // fling finished
+                                if (state != DRAW_STATE_panning_fling) {
+                                    continue;
+                                }
+                                next = DRAW_STATE_panning;
+                                break;
+                            case 3: // zoom start
+                                next = DRAW_STATE_zooming;
+                                break;
+                            case 4: // extent changed, map redraw
+                                next = DRAW_STATE_drawing;
+                                break;
+                            case 5: // locked map
+                                next = DRAW_STATE_drawing_noclearbk;
+                                break;
+                            default: // apply render progress
+                                if (0 != machine.takeDrawProgress()) {
+                                    taken.incrementAndGet();
+                                }
+                                continue;
+                        }
+
+                        if (machine.transition(state, next)) {
+                            transitions[state][next].incrementAndGet();
+                        }
+                    }
+                }
+            };
+        }
+
+        for (int i = 0; i < RENDER_THREADS; i++) {
+            final Random random = new Random(100 + i);
+            threads[GESTURE_THREADS + i] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    await(start);
+                    for (int event = 0; event < EVENT_COUNT; event++) {
+                        int state = machine.get();
+                        if (state < 0 || state >= count) {
+                            error.set("invalid state " + state);
+                        }
+
+                        if (machine.isGesture()) {
+                            continue;
+                        }
+
+                        int progress = DrawingStateMachine.DRAW_PROGRESS_PARTIAL;
+                        if (random.nextInt(10) == 0) {
+                            progress |= random.nextBoolean()
+                                        ? DrawingStateMachine.DRAW_PROGRESS_FINISHED
+                                        : DrawingStateMachine.DRAW_PROGRESS_LAYER;
+                        }
+
+                        if (machine.addDrawProgress(progress)) {
+                            scheduled.incrementAndGet();
+                        }
+                    }
+                }
+            };
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNull(error.get(), error.get());
+
+        if (0 != machine.takeDrawProgress()) {
+            taken.incrementAndGet();
+        }
+        assertEquals(scheduled.get(), taken.get());
+
+        // every state is entered as often as it is left, except the initial and the final one
+        long total = 0;
+        int finalState = machine.get();
+        for (int state = 0; state < count; state++) {
+            long in = 0;
+            long out = 0;
+            for (int other = 0; other < count; other++) {
+                total += transitions[state][other].get();
+                if (other != state) {
+                    in += transitions[other][state].get();
+                    out += transitions[state][other].get();
+                }
+            }
+
+            long expected = (state == finalState ? 1 : 0) - (state == initialState ? 1 : 0);
+            assertEquals("state " + state, expected, in - out);
+        }
+
+        assertEquals(total, machine.getTransitionCount());
+    }
+
+
+    protected static void apply(
+            DrawingStateMachine machine,
+            char event)
+    {
+        int state = machine.get();
+        switch (event) {
+            case 'p':
+                machine.transition(state, DRAW_STATE_panning);
+                break;
+            case 'f':
+                machine.transition(state, DRAW_STATE_panning_fling);
+                break;
+            case 'e':
+                if (state == DRAW_STATE_panning_fling) {
+                    machine.transition(state, DRAW_STATE_panning);
+                }
+                break;
+            case 'z':
+                machine.transition(state, DRAW_STATE_zooming);
+                break;
+            case 'd':
+                machine.transition(state, DRAW_STATE_drawing);
+                break;
+            case 'l':
+                machine.transition(state, DRAW_STATE_drawing_noclearbk);
+                break;
+            case 't':
+                machine.takeDrawProgress();
+                break;
+            default:
+                if (!machine.isGesture()) {
+                    machine.addDrawProgress(event - '0');
+                }
+                break;
+        }
+    }
+
+
+    protected static void await(CountDownLatch latch)
+    {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2021 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextgis.maplibui.mapui;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.PointF;
+import android.test.AndroidTestCase;
+
+import com.nextgis.maplib.datasource.GeoEnvelope;
+import com.nextgis.maplib.map.MapDrawable;
+import com.nextgis.maplibui.api.Overlay;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+
+public class MapSnapshotterTest
+        extends AndroidTestCase
+{
+    protected static final int SIZE = 64;
+
+    protected MapDrawable     mMap;
+    protected TestSnapshotter mSnapshotter;
+    protected ColorOverlay    mOverlay;
+    protected GeoEnvelope     mExtent;
+
+
+    @Override
+    protected void setUp()
+            throws Exception
+    {
+        super.setUp();
+        File path = new File(getContext().getCacheDir(), "snapshot_test.ngm");
+        Bitmap background = Bitmap.createBitmap(16, 16, Bitmap.Config.ARGB_8888);
+        mMap = new MapDrawable(background, getContext(), path, new LayerFactoryUI());
+        mSnapshotter = new TestSnapshotter(mMap);
+        mOverlay = new ColorOverlay();
+        mExtent = new GeoEnvelope(0, 1000, 0, 1000);
+    }
+
+
+    @Override
+    protected void tearDown()
+            throws Exception
+    {
+        mSnapshotter.clearCache();
+        super.tearDown();
+    }
+
+
+    public void testRenderIntoSoftwareCanvas()
+    {
+        Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        List<Overlay> overlays = Collections.<Overlay>singletonList(mOverlay);
+
+        assertTrue(mSnapshotter.render(new Canvas(bitmap), mExtent, SIZE, SIZE, overlays));
+        assertEquals(1, mSnapshotter.mDrawCount);
+        assertEquals(1, mSnapshotter.getRenderCount());
+        assertEquals(1, mOverlay.mDrawCount);
+        assertEquals(Color.RED, bitmap.getPixel(SIZE / 2, SIZE / 2));
+    }
+
+
+    public void testRenderWaitsForMapDraw()
+    {
+        // the layers are drawn by the map itself, the render waits for its finish event
+        MapSnapshotter snapshotter = new MapSnapshotter(mMap, null);
+        Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+
+        assertTrue(snapshotter.render(new Canvas(bitmap), mExtent, SIZE, SIZE,
+                Collections.<Overlay>singletonList(mOverlay)));
+        assertEquals(1, snapshotter.getRenderCount());
+        assertNull(snapshotter.mDrawLatch);
+        assertEquals(1, mOverlay.mDrawCount);
+        assertEquals(Color.RED, bitmap.getPixel(SIZE / 2, SIZE / 2));
+    }
+
+
+    public void testHiddenOverlayIsNotDrawn()
+    {
+        Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        mOverlay.setVisibility(false);
+
+        assertTrue(mSnapshotter.render(new Canvas(bitmap), mExtent, SIZE, SIZE,
+                Collections.<Overlay>singletonList(mOverlay)));
+        assertEquals(0, mOverlay.mDrawCount);
+    }
+
+
+    public void testFailedRenderSkipsOverlays()
+    {
+        Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        mSnapshotter.mResult = false;
+
+        assertFalse(mSnapshotter.render(new Canvas(bitmap), mExtent, SIZE, SIZE,
+                Collections.<Overlay>singletonList(mOverlay)));
+        assertEquals(0, mOverlay.mDrawCount);
+        assertEquals(0, mSnapshotter.getRenderCount());
+    }
+
+
+    public void testSnapshotsWithoutOverlaysAreCached()
+    {
+        Bitmap first = mSnapshotter.render(mExtent, SIZE, SIZE, null);
+        assertNotNull(first);
+        assertSame(first, mSnapshotter.render(mExtent, SIZE, SIZE, null));
+        assertSame(first, mSnapshotter.getCached(mExtent, SIZE, SIZE));
+        assertEquals(1, mSnapshotter.mDrawCount);
+        assertEquals(1, mSnapshotter.getHitCount());
+
+        Bitmap withOverlay = mSnapshotter.render(mExtent, SIZE, SIZE,
+                Collections.<Overlay>singletonList(mOverlay));
+        assertNotNull(withOverlay);
+        assertNotSame(first, withOverlay);
+        assertEquals(2, mSnapshotter.mDrawCount);
+    }
+
+
+    public void testLayerChangeInvalidatesCache()
+    {
+        Bitmap first = mSnapshotter.render(mExtent, SIZE, SIZE, null);
+        assertNotNull(first);
+        assertTrue(mSnapshotter.isCurrent());
+
+        // e.g. an edit saved in the displayed map
+        mSnapshotter.mSourceListener.onLayerChanged(1);
+        assertFalse(mSnapshotter.isCurrent());
+        assertNull(mSnapshotter.getCached(mExtent, SIZE, SIZE));
+
+        Bitmap second = mSnapshotter.render(mExtent, SIZE, SIZE, null);
+        assertNotNull(second);
+        assertNotSame(first, second);
+        assertTrue(mSnapshotter.isCurrent());
+        assertEquals(2, mSnapshotter.mDrawCount);
+        assertEquals(0, mSnapshotter.getHitCount());
+    }
+
+
+    /**
+     * Skips the draw of the map layers, the draw result is set by the test
+     */
+    protected static class TestSnapshotter
+            extends MapSnapshotter
+    {
+        protected int     mDrawCount;
+        protected boolean mResult = true;
+
+
+        protected TestSnapshotter(MapDrawable map)
+        {
+            super(map, null);
+        }
+
+
+        @Override
+        protected boolean drawLayers()
+        {
+            mDrawCount++;
+            return mResult;
+        }
+    }
+
+
+    protected static class ColorOverlay
+            extends Overlay
+    {
+        protected int mDrawCount;
+
+
+        protected ColorOverlay()
+        {
+            super(null, null);
+        }
+
+
+        @Override
+        public void draw(
+                Canvas canvas,
+                MapDrawable mapDrawable)
+        {
+            mDrawCount++;
+            canvas.drawColor(Color.RED);
+        }
+
+
+        @Override
+        public void drawOnPanning(
+                Canvas canvas,
+                PointF currentMouseOffset)
+        {
+
+        }
+
+
+        @Override
+        public void drawOnZooming(
+                Canvas canvas,
+                PointF currentFocusLocation,
+                float scale)
+        {
+
+        }
+    }
+}
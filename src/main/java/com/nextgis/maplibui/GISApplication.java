@@ -49,9 +49,12 @@ import com.nextgis.maplib.util.Constants;
 import com.nextgis.maplib.util.PermissionUtil;
 import com.nextgis.maplib.util.SettingsConstants;
 import com.nextgis.maplibui.mapui.LayerFactoryUI;
+import com.nextgis.maplibui.mapui.MapSnapshotter;
 import com.nextgis.maplibui.util.ConstantsUI;
 import com.nextgis.maplibui.util.ControlHelper;
+import com.nextgis.maplibui.util.MapInitializer;
 import com.nextgis.maplibui.util.SettingsConstantsUI;
+import com.nextgis.maplibui.util.StartupTracer;
 
 import java.io.File;
 import java.io.IOException;
@@ -80,16 +83,20 @@ public abstract class GISApplication extends Application
     protected GpsEventSource mGpsEventSource;
     protected SharedPreferences mSharedPreferences;
     protected AccountManager mAccountManager;
+    protected StartupTracer mStartupTracer;
+    protected MapInitializer mMapInitializer;
+    protected MapSnapshotter mMapSnapshotter;
 
     @Override
     public void onCreate()
     {
+        mStartupTracer = new StartupTracer();
         super.onCreate();
 
         mGpsEventSource = new GpsEventSource(this);
         mSharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
 
-        getMap();
+        initMap();
 
         boolean mIsDarkTheme = ControlHelper.isDarkTheme(this);
         setTheme(getThemeId(mIsDarkTheme));
@@ -101,6 +108,20 @@ public abstract class GISApplication extends Application
             edit.commit();
         }
 
+        // the sync setup talks to the system services, it runs after the map load in background
+        mMapInitializer.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = mStartupTracer.start();
+                setupPeriodicSync();
+                mStartupTracer.record(StartupTracer.PHASE_SYNC_SETUP, start);
+                mStartupTracer.finish();
+            }
+        });
+    }
+
+    protected void setupPeriodicSync()
+    {
         //turn on periodic sync. Can be set for each layer individually, but this is simpler
         if (mSharedPreferences.getBoolean(KEY_PREF_SYNC_PERIODICALLY, true)) {
             String value = mSharedPreferences.getString(KEY_PREF_SYNC_PERIOD, Constants.DEFAULT_SYNC_PERIOD + ""); //1 hour
@@ -122,30 +143,126 @@ public abstract class GISApplication extends Application
             return R.style.Theme_NextGIS_AppCompat_Light;
     }
 
+    /**
+     * Returns the loaded map. While the map is loaded in background the caller is blocked, use
+     * {@link #getMapAsync(MapInitializer.OnMapReadyListener)} to wait without blocking.
+     */
     @Override
     public MapBase getMap()
     {
-        if (null != mMap) {
-            return mMap;
+        initMap();
+        return mMapInitializer.await();
+    }
+
+    /**
+     * Create the map and start loading it in background, if it is not done yet
+     */
+    protected synchronized void initMap()
+    {
+        if (null != mMapInitializer) {
+            return;
         }
 
+        if (null == mStartupTracer) {
+            mStartupTracer = new StartupTracer();
+        }
+
+        long start = mStartupTracer.start();
+        createMap();
+        mStartupTracer.record(StartupTracer.PHASE_MAP_CREATE, start);
+
+        mMapInitializer = new MapInitializer(mMap, mStartupTracer);
+        mMapInitializer.start();
+    }
+
+    /**
+     * Create the map object, the layers are loaded later by the map initializer
+     */
+    protected void createMap()
+    {
         mSharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
+        final Bitmap bkBitmap = getMapBackground();
+        LayerFactory layerFactory = getLayerFactory();
+        if (layerFactory instanceof LayerFactoryUI) {
+            ((LayerFactoryUI) layerFactory).setStartupTracer(mStartupTracer);
+        }
+        mMap = new MapDrawable(bkBitmap, this, getMapFullPath(), layerFactory);
+        mMap.setName(getMapName());
+    }
+
+    protected String getMapName()
+    {
+        return mSharedPreferences.getString(SettingsConstantsUI.KEY_PREF_MAP_NAME, "default");
+    }
+
+    protected File getMapFullPath()
+    {
         File defaultPath = getExternalFilesDir(KEY_PREF_MAP);
         if (defaultPath == null) {
             defaultPath = new File(getFilesDir(), KEY_PREF_MAP);
         }
 
         String mapPath = mSharedPreferences.getString(SettingsConstants.KEY_PREF_MAP_PATH, defaultPath.getPath());
-        String mapName = mSharedPreferences.getString(SettingsConstantsUI.KEY_PREF_MAP_NAME, "default");
+        return new File(mapPath, getMapName() + MAP_EXT);
+    }
 
-        File mapFullPath = new File(mapPath, mapName + MAP_EXT);
+    /**
+     * @return the renderer of map images without a map view. It has its own map instance loaded
+     * from the same file, so it does not disturb the displayed map.
+     */
+    public synchronized MapSnapshotter getMapSnapshotter()
+    {
+        if (null == mMapSnapshotter) {
+            initMap();
+            MapDrawable map = new MapDrawable(getMapBackground(), this, getMapFullPath(), getLayerFactory());
+            map.setName(getMapName());
+            mMapSnapshotter = new MapSnapshotter(map, mMap);
+            // the layer set is taken on the main thread, the later changes are listened to
+            getMapAsync(new MapInitializer.OnMapReadyListener()
+            {
+                @Override
+                public void onMapReady(MapDrawable source)
+                {
+                    mMapSnapshotter.updateLayerSet();
+                }
+            });
+        }
+        return mMapSnapshotter;
+    }
 
-        final Bitmap bkBitmap = getMapBackground();
-        mMap = new MapDrawable(bkBitmap, this, mapFullPath, getLayerFactory());
-        mMap.setName(mapName);
-        mMap.load();
+    /**
+     * The listener is called on the main thread when the map is loaded, at once if it is loaded
+     * already
+     */
+    public void getMapAsync(MapInitializer.OnMapReadyListener listener)
+    {
+        if (null == mMapInitializer) {
+            // the map is loaded synchronously by an overridden getMap()
+            listener.onMapReady((MapDrawable) getMap());
+            return;
+        }
+
+        mMapInitializer.addOnMapReadyListener(listener);
+    }
 
-        return mMap;
+    public boolean isMapReady()
+    {
+        return null == mMapInitializer || mMapInitializer.isReady();
+    }
+
+    /**
+     * @return the initializer of the map or null if the map is not loaded in background. The not
+     * yet loaded map can be taken from it to create a map view without waiting, its layer list is
+     * changed on the loader thread until the map is ready.
+     */
+    public MapInitializer getMapInitializer()
+    {
+        return mMapInitializer;
+    }
+
+    public StartupTracer getStartupTracer()
+    {
+        return mStartupTracer;
     }
 
     public Bitmap getMapBackground() {
@@ -175,6 +292,7 @@ public abstract class GISApplication extends Application
         if (!isAccountManagerValid()) {
             return null;
         }
+        long start = mStartupTracer.start();
         try {
             for (Account account : mAccountManager.getAccountsByType(getAccountsType())) {
                 if (account == null) {
@@ -190,6 +308,9 @@ public abstract class GISApplication extends Application
         catch (SecurityException e){
             e.printStackTrace();
         }
+        finally {
+            mStartupTracer.record(StartupTracer.PHASE_ACCOUNT_LOOKUP, start);
+        }
         return null;
     }
 
@@ -38,7 +38,6 @@ import android.widget.Toast;
 
 import com.inqbarna.tablefixheaders.TableFixHeaders;
 import com.inqbarna.tablefixheaders.adapters.BaseTableAdapter;
-import com.nextgis.maplib.api.IGISApplication;
 import com.nextgis.maplib.api.ILayer;
 import com.nextgis.maplib.datasource.Feature;
 import com.nextgis.maplib.datasource.Field;
@@ -52,6 +51,7 @@ import com.nextgis.maplibui.R;
 import com.nextgis.maplibui.api.IVectorLayerUI;
 import com.nextgis.maplibui.fragment.BottomToolbar;
 import com.nextgis.maplibui.util.ConstantsUI;
+import com.nextgis.maplibui.util.MapInitializer;
 import com.nextgis.maplibui.util.MatrixTableAdapter;
 import com.nextgis.maplibui.util.SettingsConstantsUI;
 
@@ -82,23 +82,26 @@ public class AttributesActivity extends NGActivity {
             public boolean onMenuItemClick(MenuItem item) {
                 int i = item.getItemId();
                 if (i == R.id.menu_zoom) {
-                    IGISApplication application = (IGISApplication) getApplication();
-                    MapDrawable map = (MapDrawable) application.getMap();
-                    if (null != map) {
-                        if (mLayer.getGeometryType() == GeoConstants.GTPoint || mLayer.getGeometryType() == GeoConstants.GTMultiPoint)
-                            map.zoomToExtent(mLayer.getFeature(mId).getGeometry().getEnvelope(), 18);
-                        else
-                            map.zoomToExtent(mLayer.getFeature(mId).getGeometry().getEnvelope());
-
-                        SharedPreferences.Editor edit = PreferenceManager.getDefaultSharedPreferences(AttributesActivity.this).edit();
-                        edit.putFloat(SettingsConstantsUI.KEY_PREF_ZOOM_LEVEL, map.getZoomLevel());
-                        GeoPoint point = map.getMapCenter();
-                        edit.putLong(SettingsConstantsUI.KEY_PREF_SCROLL_X, Double.doubleToRawLongBits(point.getX()));
-                        edit.putLong(SettingsConstantsUI.KEY_PREF_SCROLL_Y, Double.doubleToRawLongBits(point.getY()));
-                        edit.commit();
-                    }
+                    waitForMap(new MapInitializer.OnMapReadyListener() {
+                        @Override
+                        public void onMapReady(MapDrawable map) {
+                            if (null != map) {
+                                if (mLayer.getGeometryType() == GeoConstants.GTPoint || mLayer.getGeometryType() == GeoConstants.GTMultiPoint)
+                                    map.zoomToExtent(mLayer.getFeature(mId).getGeometry().getEnvelope(), 18);
+                                else
+                                    map.zoomToExtent(mLayer.getFeature(mId).getGeometry().getEnvelope());
+
+                                SharedPreferences.Editor edit = PreferenceManager.getDefaultSharedPreferences(AttributesActivity.this).edit();
+                                edit.putFloat(SettingsConstantsUI.KEY_PREF_ZOOM_LEVEL, map.getZoomLevel());
+                                GeoPoint point = map.getMapCenter();
+                                edit.putLong(SettingsConstantsUI.KEY_PREF_SCROLL_X, Double.doubleToRawLongBits(point.getX()));
+                                edit.putLong(SettingsConstantsUI.KEY_PREF_SCROLL_Y, Double.doubleToRawLongBits(point.getY()));
+                                edit.commit();
+                            }
 
-                    finish();
+                            finish();
+                        }
+                    });
                     return true;
                 } else if (i == R.id.menu_delete) {
                     Snackbar snackbar = Snackbar.make(findViewById(R.id.container), getString(R.string.delete_item_done), Snackbar.LENGTH_LONG)
@@ -178,9 +181,15 @@ public class AttributesActivity extends NGActivity {
         intentFilter.addAction(Constants.NOTIFY_DELETE_ALL);
         registerReceiver(mReceiver, intentFilter);
 
-        IGISApplication application = (IGISApplication) getApplication();
-        MapBase map = application.getMap();
+        waitForMap(new MapInitializer.OnMapReadyListener() {
+            @Override
+            public void onMapReady(MapDrawable map) {
+                onMapLoaded(map);
+            }
+        });
+    }
 
+    protected void onMapLoaded(MapBase map) {
         if (null != map) {
             ILayer layer = map.getLayerById(mLayerId);
             if (null != layer && layer instanceof VectorLayer) {
@@ -196,7 +205,8 @@ public class AttributesActivity extends NGActivity {
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
-        outState.putInt(ConstantsUI.KEY_LAYER_ID, mLayer.getId());
+        // the layer may be not found yet while the map is loaded
+        outState.putInt(ConstantsUI.KEY_LAYER_ID, mLayerId);
     }
 
     public BaseTableAdapter getAdapter() {
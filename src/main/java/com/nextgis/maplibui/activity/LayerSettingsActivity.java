@@ -28,12 +28,13 @@ import android.support.v4.app.FragmentManager;
 import android.support.v4.app.FragmentPagerAdapter;
 import android.support.v4.view.ViewPager;
 
-import com.nextgis.maplib.api.IGISApplication;
 import com.nextgis.maplib.api.ILayer;
 import com.nextgis.maplib.map.MapBase;
+import com.nextgis.maplib.map.MapDrawable;
 import com.nextgis.maplib.util.Constants;
 import com.nextgis.maplibui.R;
 import com.nextgis.maplibui.util.ConstantsUI;
+import com.nextgis.maplibui.util.MapInitializer;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -44,6 +45,7 @@ public abstract class LayerSettingsActivity extends NGActivity {
     protected ViewPager mViewPager;
     protected LayerTabsAdapter mAdapter;
     protected MapBase mMap;
+    protected int mLayerId;
 
     public String mLayerName;
     public float mLayerMinZoom;
@@ -62,8 +64,20 @@ public abstract class LayerSettingsActivity extends NGActivity {
             layerId = getIntent().getIntExtra(ConstantsUI.KEY_LAYER_ID, layerId);
         }
 
-        IGISApplication application = (IGISApplication) getApplication();
-        mMap = application.getMap();
+        mLayerId = layerId;
+        waitForMap(new MapInitializer.OnMapReadyListener() {
+            @Override
+            public void onMapReady(MapDrawable map) {
+                onMapLoaded(map, mLayerId);
+            }
+        });
+    }
+
+    /**
+     * Find the layer and create the tabs, called when the map of the application is loaded
+     */
+    protected void onMapLoaded(MapBase map, int layerId) {
+        mMap = map;
 
         if (null != mMap) {
             ILayer layer = mMap.getLayerById(layerId);
@@ -74,6 +88,8 @@ public abstract class LayerSettingsActivity extends NGActivity {
             }
         }
 
+        onLayerLoaded();
+
         mViewPager = (ViewPager) findViewById(R.id.viewPager);
         mAdapter = new LayerTabsAdapter(getSupportFragmentManager());
         addFragments();
@@ -93,14 +109,21 @@ public abstract class LayerSettingsActivity extends NGActivity {
     protected void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
 
-        if (mLayer != null)
-            outState.putInt(ConstantsUI.KEY_LAYER_ID, mLayer.getId());
+        // the layer may be not found yet while the map is loaded
+        outState.putInt(ConstantsUI.KEY_LAYER_ID, mLayerId);
     }
 
     public void onFeaturesCountChanged() {
 
     }
 
+    /**
+     * Called when the layer is found, before the tabs are created
+     */
+    protected void onLayerLoaded() {
+
+    }
+
     abstract void addFragments();
     abstract void saveSettings();
 
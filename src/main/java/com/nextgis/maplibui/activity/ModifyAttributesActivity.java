@@ -67,6 +67,7 @@ import com.nextgis.maplib.datasource.GeoPoint;
 import com.nextgis.maplib.location.AccurateLocationTaker;
 import com.nextgis.maplib.location.GpsEventSource;
 import com.nextgis.maplib.map.MapBase;
+import com.nextgis.maplib.map.MapDrawable;
 import com.nextgis.maplib.map.VectorLayer;
 import com.nextgis.maplib.util.Constants;
 import com.nextgis.maplib.util.FileUtil;
@@ -86,6 +87,7 @@ import com.nextgis.maplibui.formcontrol.AutoTextEdit;
 import com.nextgis.maplibui.formcontrol.Sign;
 import com.nextgis.maplibui.util.ConstantsUI;
 import com.nextgis.maplibui.util.ControlHelper;
+import com.nextgis.maplibui.util.MapInitializer;
 import com.nextgis.maplibui.util.NotificationHelper;
 import com.nextgis.maplibui.util.SettingsConstantsUI;
 
@@ -143,6 +145,8 @@ public class ModifyAttributesActivity
     protected int mMaxTakeCount;
     protected boolean mIsGeometryChanged;
     protected boolean mIsViewOnly;
+    protected boolean mIsViewCreated;
+    protected boolean mIsResumed;
     protected SoundPool mSoundPool;
     private int mBeepId;
 
@@ -155,9 +159,23 @@ public class ModifyAttributesActivity
         setToolbar(R.id.main_toolbar);
 
         final IGISApplication app = (IGISApplication) getApplication();
-        createView(app, savedInstanceState);
-        createLocationPanelView(app);
+        final Bundle savedState = savedInstanceState;
         createSoundPool();
+        waitForMap(new MapInitializer.OnMapReadyListener()
+        {
+            @Override
+            public void onMapReady(MapDrawable map)
+            {
+                createView(app, savedState);
+                createLocationPanelView(app);
+                mIsViewCreated = true;
+                // the menu depends on the view only flag of the extras
+                supportInvalidateOptionsMenu();
+                if (mIsResumed) {
+                    startLocationUpdates();
+                }
+            }
+        });
     }
 
     protected void createLocationPanelView(final IGISApplication app)
@@ -307,6 +325,7 @@ public class ModifyAttributesActivity
 
         if (extras != null) {
             int layerId = extras.getInt(KEY_LAYER_ID);
+            // the map is loaded, the view is created from waitForMap()
             MapBase map = app.getMap();
             mLayer = (VectorLayer) map.getLayerById(layerId);
 
@@ -426,6 +445,7 @@ public class ModifyAttributesActivity
     @Override
     protected void onPause()
     {
+        mIsResumed = false;
         if (null != findViewById(R.id.location_panel)) {
             IGISApplication app = (IGISApplication) getApplication();
             if (null != app) {
@@ -440,7 +460,19 @@ public class ModifyAttributesActivity
     @Override
     protected void onResume()
     {
-        if (null != findViewById(R.id.location_panel)) {
+        mIsResumed = true;
+        startLocationUpdates();
+        super.onResume();
+    }
+
+
+    /**
+     * Listen to the location if the location panel is shown, the views are created when the map
+     * is loaded
+     */
+    protected void startLocationUpdates()
+    {
+        if (mIsViewCreated && null != findViewById(R.id.location_panel)) {
             IGISApplication app = (IGISApplication) getApplication();
             if (null != app) {
                 GpsEventSource gpsEventSource = app.getGpsEventSource();
@@ -455,7 +487,6 @@ public class ModifyAttributesActivity
             String preferred = prefs.getString(SettingsConstants.KEY_PREF_LOCATION_ACCURATE_COUNT, def);
             mMaxTakeCount = Integer.parseInt(preferred != null ? preferred : def);
         }
-        super.onResume();
     }
 
 
@@ -24,6 +24,7 @@
 package com.nextgis.maplibui.activity;
 
 import android.app.Activity;
+import android.app.Application;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
@@ -37,9 +38,13 @@ import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
 import android.view.MenuItem;
 
+import com.nextgis.maplib.api.IGISApplication;
+import com.nextgis.maplib.map.MapDrawable;
 import com.nextgis.maplib.util.AccountUtil;
+import com.nextgis.maplibui.GISApplication;
 import com.nextgis.maplibui.R;
 import com.nextgis.maplibui.util.ControlHelper;
+import com.nextgis.maplibui.util.MapInitializer;
 import com.nextgis.maplibui.util.SettingsConstantsUI;
 
 
@@ -176,6 +181,44 @@ public class NGActivity
         supportInvalidateOptionsMenu();
     }
 
+
+    /**
+     * Call the listener on the main thread when the application map is loaded, without blocking.
+     * The call is dropped if the activity is destroyed meanwhile.
+     */
+    public void waitForMap(final MapInitializer.OnMapReadyListener listener)
+    {
+        waitForMap(this, listener);
+    }
+
+
+    /**
+     * Call the listener on the main thread when the application map is loaded, without blocking,
+     * e.g. from a fragment, dialog or adapter of the activity. The call is dropped if the activity
+     * is finishing meanwhile.
+     */
+    public static void waitForMap(
+            final Activity activity,
+            final MapInitializer.OnMapReadyListener listener)
+    {
+        Application application = activity.getApplication();
+        if (!(application instanceof GISApplication)) {
+            listener.onMapReady((MapDrawable) ((IGISApplication) application).getMap());
+            return;
+        }
+
+        ((GISApplication) application).getMapAsync(new MapInitializer.OnMapReadyListener()
+        {
+            @Override
+            public void onMapReady(MapDrawable map)
+            {
+                if (!activity.isFinishing()) {
+                    listener.onMapReady(map);
+                }
+            }
+        });
+    }
+
     protected boolean isPermissionGranted(String permission) {
         return ContextCompat.checkSelfPermission(this, permission) == PackageManager.PERMISSION_GRANTED;
     }
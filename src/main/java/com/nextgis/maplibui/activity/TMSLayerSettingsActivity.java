@@ -56,9 +56,7 @@ public class TMSLayerSettingsActivity
     protected static boolean mClearCache;
 
     @Override
-    protected void onCreate(Bundle savedInstanceState) {
-        super.onCreate(savedInstanceState);
-
+    protected void onLayerLoaded() {
         if (mLayer == null)
             return;
 
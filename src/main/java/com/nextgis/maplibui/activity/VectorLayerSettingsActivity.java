@@ -101,9 +101,7 @@ public class VectorLayerSettingsActivity
     private Toolbar mToolbar;
 
     @Override
-    protected void onCreate(Bundle savedInstanceState) {
-        super.onCreate(savedInstanceState);
-
+    protected void onLayerLoaded() {
         if (mLayer == null)
             return;
 
@@ -29,7 +29,6 @@ import android.graphics.Path;
 import android.graphics.PointF;
 
 import com.nextgis.maplib.datasource.GeoEnvelope;
-import com.nextgis.maplib.datasource.GeoPoint;
 import com.nextgis.maplib.map.VectorLayer;
 import com.nextgis.maplib.util.Constants;
 import com.nextgis.maplib.util.GeoConstants;
@@ -55,13 +54,21 @@ public class DrawItem {
     private static VertexStyle mEdgeStyle, mVertexStyle;
     private static EditStyle mLineStyle, mPolygonStyle;
 
-    protected List<float[]> mDrawItemsVertex;
-    protected List<float[]> mDrawItemsEdge;
+    // rings of vertices, the edges of a ring are its midpoints computed on demand
+    protected List<PointBuffer> mDrawItemsVertex;
+    // edges added explicitly by addEdges()
+    protected List<PointBuffer> mDrawItemsEdge;
     protected int mSelectedRing = 0, mSelectedPoint = 0;
 
+    // reused by drawLines() so a gesture frame does not allocate
+    protected List<Path> mPaths;
+    protected Path mPathFill;
+
     public DrawItem() {
         mDrawItemsVertex = new ArrayList<>();
         mDrawItemsEdge = new ArrayList<>();
+        mPaths = new ArrayList<>();
+        mPathFill = new Path();
 
         if (mPaint == null) {
             mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
@@ -106,115 +113,138 @@ public class DrawItem {
     }
 
     public DrawItem zoom(PointF location, float scale) {
-        DrawItem drawItem = new DrawItem();
-        drawItem.setSelectedRing(mSelectedRing);
-        drawItem.setSelectedPoint(mSelectedPoint);
-
-        for (float[] items : mDrawItemsVertex) {
-            float[] newItems = new float[items.length];
-            for (int i = 0; i < items.length - 1; i += 2) {
-                newItems[i] = items[i] - (1 - scale) * (items[i] + location.x);
-                newItems[i + 1] = items[i + 1] - (1 - scale) * (items[i + 1] + location.y);
-            }
-            drawItem.addVertices(newItems);
-        }
-
-        for (float[] items : mDrawItemsEdge) {
-            float[] newItems = new float[items.length];
-            for (int i = 0; i < items.length - 1; i += 2) {
-                newItems[i] = items[i] - (1 - scale) * (items[i] + location.x);
-                newItems[i + 1] = items[i + 1] - (1 - scale) * (items[i + 1] + location.y);
-            }
-            drawItem.addEdges(newItems);
-        }
-
-        return drawItem;
+        return zoomTo(new DrawItem(), location, scale);
     }
 
     public DrawItem pan(PointF offset) {
-        DrawItem drawItem = new DrawItem();
-        drawItem.setSelectedRing(mSelectedRing);
-        drawItem.setSelectedPoint(mSelectedPoint);
-
-        for (float[] items : mDrawItemsVertex) {
-            float[] newItems = new float[items.length];
-            for (int i = 0; i < items.length - 1; i += 2) {
-                newItems[i] = items[i] - offset.x;
-                newItems[i + 1] = items[i + 1] - offset.y;
-            }
-            drawItem.addVertices(newItems);
+        return panTo(new DrawItem(), offset);
+    }
+
+    /**
+     * Write this item scaled around the focus location into the target. The target buffers are
+     * reused, so once the target has the size of this item nothing is allocated.
+     *
+     * @return the target
+     */
+    public DrawItem zoomTo(DrawItem target, PointF location, float scale) {
+        // x - (1 - scale) * (x + location.x)
+        float dx = -(1 - scale) * location.x;
+        float dy = -(1 - scale) * location.y;
+        transform(mDrawItemsVertex, target.mDrawItemsVertex, scale, dx, dy);
+        transform(mDrawItemsEdge, target.mDrawItemsEdge, scale, dx, dy);
+        target.mSelectedRing = mSelectedRing;
+        target.mSelectedPoint = mSelectedPoint;
+        return target;
+    }
+
+    /**
+     * Write this item moved by the offset into the target, see {@link #zoomTo(DrawItem, PointF, float)}
+     *
+     * @return the target
+     */
+    public DrawItem panTo(DrawItem target, PointF offset) {
+        transform(mDrawItemsVertex, target.mDrawItemsVertex, 1, -offset.x, -offset.y);
+        transform(mDrawItemsEdge, target.mDrawItemsEdge, 1, -offset.x, -offset.y);
+        target.mSelectedRing = mSelectedRing;
+        target.mSelectedPoint = mSelectedPoint;
+        return target;
+    }
+
+    protected static void transform(List<PointBuffer> source, List<PointBuffer> target, float scale, float dx, float dy) {
+        while (target.size() > source.size())
+            target.remove(target.size() - 1);
+
+        for (int ring = 0; ring < source.size(); ring++) {
+            PointBuffer items = source.get(ring);
+            if (ring == target.size())
+                target.add(new PointBuffer(items.size()));
+
+            target.get(ring).setTransformed(items, scale, dx, dy);
         }
-
-        for (float[] items : mDrawItemsEdge) {
-            float[] newItems = new float[items.length];
-            for (int i = 0; i < items.length - 1; i += 2) {
-                newItems[i] = items[i] - offset.x;
-                newItems[i + 1] = items[i + 1] - offset.y;
-            }
-            drawItem.addEdges(newItems);
-        }
-
-        return drawItem;
     }
 
+    /**
+     * Add a ring without edges, the points are copied
+     */
     public void addVertices(float[] points) {
         if (points != null)
-            mDrawItemsVertex.add(points);
+            mDrawItemsVertex.add(new PointBuffer(points, PointBuffer.EDGES_NONE));
+    }
+
+    /**
+     * Add a ring with the edge midpoints computed from the points, the points are copied
+     *
+     * @param closed true if the last point is connected to the first one
+     */
+    public void addRing(float[] points, boolean closed) {
+        if (points != null)
+            mDrawItemsVertex.add(new PointBuffer(points, closed ? PointBuffer.EDGES_CLOSED : PointBuffer.EDGES_OPEN));
     }
 
     public void addEdges(float[] points) {
-        mDrawItemsEdge.add(points);
+        if (points != null)
+            mDrawItemsEdge.add(new PointBuffer(points, PointBuffer.EDGES_NONE));
     }
 
-    public List<float[]> getEdges() {
-        return mDrawItemsEdge;
+    /**
+     * @return number of edge rings: the rings with computed edges, then the added ones
+     */
+    public int getEdgeRingCount() {
+        return mDrawItemsVertex.size() + mDrawItemsEdge.size();
     }
 
-    public void addNewPoint(float x, float y) {
-        float[] points = getSelectedRing();
-        if (null == points) {
-            return;
-        }
-        float[] newPoints = new float[points.length + 2];
-        System.arraycopy(points, 0, newPoints, 0, points.length);
-        newPoints[points.length] = x;
-        newPoints[points.length + 1] = y;
+    /**
+     * @return a read-only view of the edge midpoints or null if the ring has no edges
+     */
+    public PointBuffer getEdgeRing(int ring) {
+        if (ring < 0)
+            return null;
+        if (ring < mDrawItemsVertex.size())
+            return mDrawItemsVertex.get(ring).getEdges();
 
-        setRing(mSelectedRing, newPoints);
+        ring -= mDrawItemsVertex.size();
+        return ring < mDrawItemsEdge.size() ? mDrawItemsEdge.get(ring) : null;
     }
 
-    public void insertNewPoint(int insertPosition, float x, float y) {
-        float[] points = getSelectedRing();
-        if (null == points) {
-            return;
-        }
-        float[] newPoints = new float[points.length + 2];
-        int count = 0;
-        for (int i = 0; i < newPoints.length - 1; i += 2) {
-            if (i == insertPosition) {
-                newPoints[i] = x;
-                newPoints[i + 1] = y;
-            } else {
-                newPoints[i] = points[count++];
-                newPoints[i + 1] = points[count++];
-            }
+    /**
+     * @return copies of the edge rings in the {@link #getEdgeRing(int)} order
+     * @deprecated allocates on every call, use {@link #getEdgeRingCount()} and
+     * {@link #getEdgeRing(int)} instead
+     */
+    @Deprecated
+    public List<float[]> getEdges() {
+        List<float[]> edges = new ArrayList<>(getEdgeRingCount());
+        for (int ring = 0; ring < getEdgeRingCount(); ring++) {
+            PointBuffer points = getEdgeRing(ring);
+            if (null != points)
+                edges.add(points.toArray());
         }
 
-        setRing(mSelectedRing, newPoints);
+        return edges;
+    }
+
+    public void addNewPoint(float x, float y) {
+        PointBuffer points = getSelectedRingView();
+        if (null != points)
+            points.add(x, y);
+    }
+
+    public void insertNewPoint(int insertPosition, float x, float y) {
+        PointBuffer points = getSelectedRingView();
+        if (null != points && insertPosition >= 0 && insertPosition <= points.size())
+            points.insert(insertPosition, x, y);
     }
 
     public void setSelectedPointCoordinates(float x, float y) {
-        float[] points = mDrawItemsVertex.get(mSelectedRing);
-        if (null != points && mSelectedPoint >= 0 && mSelectedPoint < points.length - 1) {
-            points[mSelectedPoint] = x;
-            points[mSelectedPoint + 1] = y;
-        }
+        PointBuffer points = getSelectedRingView();
+        if (null != points && mSelectedPoint >= 0 && mSelectedPoint < points.size() - 1)
+            points.set(mSelectedPoint, x, y);
     }
 
     public PointF getSelectedPoint() {
-        float[] points = getSelectedRing();
-        if (null != points && mSelectedPoint >= 0 && mSelectedPoint < points.length - 1)
-            return new PointF(points[mSelectedPoint], points[mSelectedPoint + 1]);
+        PointBuffer points = getSelectedRingView();
+        if (null != points && mSelectedPoint >= 0 && mSelectedPoint < points.size() - 1)
+            return new PointF(points.get(mSelectedPoint), points.get(mSelectedPoint + 1));
         else
             return null;
     }
@@ -224,44 +254,36 @@ public class DrawItem {
     }
 
     public void deleteSelectedPoint(VectorLayer layer) {
-        float[] points = getSelectedRing();
+        PointBuffer points = getSelectedRingView();
         if (null == points || mSelectedPoint < 0)
             return;
 
-        if (points.length <= getMinPointCount(layer.getGeometryType()) * 2) {
+        if (points.size() <= getMinPointCount(layer.getGeometryType()) * 2) {
             mDrawItemsVertex.remove(mSelectedRing);
             mSelectedRing = mDrawItemsVertex.size() > 0 ? 0 : Constants.NOT_FOUND;
             mSelectedPoint = Constants.NOT_FOUND;
             return;
         }
 
-        float[] newPoints = new float[points.length - 2];
-        int counter = 0;
-        for (int i = 0; i < points.length; i++) {
-            if (i == mSelectedPoint || i == mSelectedPoint + 1)
-                continue;
-
-            newPoints[counter++] = points[i];
-        }
+        if (mSelectedPoint < points.size() - 1)
+            points.remove(mSelectedPoint);
 
-        if (mSelectedPoint >= newPoints.length)
+        if (mSelectedPoint >= points.size())
             mSelectedPoint = 0;
-
-        setRing(mSelectedRing, newPoints);
     }
 
     public void setSelectedPoint(int selectedPoint) {
-        float[] ring = getSelectedRing();
+        PointBuffer ring = getSelectedRingView();
         if (ring != null)
-            if (selectedPoint >= 0 && selectedPoint < ring.length - 1) {
+            if (selectedPoint >= 0 && selectedPoint < ring.size() - 1) {
                 mSelectedPoint = selectedPoint;
             } else
-                mSelectedRing = ring.length - 2;
+                mSelectedRing = ring.size() - 2;
     }
 
     public void setRing(int ring, float[] points) {
-        if (ring >= 0 && ring < mDrawItemsVertex.size())
-            mDrawItemsVertex.set(ring, points);
+        if (ring >= 0 && ring < mDrawItemsVertex.size() && points != null)
+            mDrawItemsVertex.get(ring).setAll(points);
     }
 
     public void setSelectedRing(int selectedRing) {
@@ -271,16 +293,36 @@ public class DrawItem {
             mSelectedRing = 0;
     }
 
+    /**
+     * @return a copy of the selected ring coordinates, use {@link #getSelectedRingView()} to read
+     * them without copying
+     */
     public float[] getSelectedRing() {
         return getRing(mSelectedRing);
     }
 
+    public PointBuffer getSelectedRingView() {
+        return getRingView(mSelectedRing);
+    }
+
     public int getSelectedRingId() {
         return mSelectedRing;
     }
 
+    /**
+     * @return a copy of the ring coordinates, use {@link #getRingView(int)} to read them without
+     * copying
+     */
     public float[] getRing(int ring) {
-        return ring < 0 || ring >= mDrawItemsVertex.size() ? null : mDrawItemsVertex.get(ring).clone();
+        PointBuffer points = getRingView(ring);
+        return null == points ? null : points.toArray();
+    }
+
+    /**
+     * @return a read-only view of the ring coordinates or null
+     */
+    public PointBuffer getRingView(int ring) {
+        return ring < 0 || ring >= mDrawItemsVertex.size() ? null : mDrawItemsVertex.get(ring);
     }
 
     public int getRingCount() {
@@ -292,28 +334,27 @@ public class DrawItem {
         mSelectedRing = mSelectedPoint = mDrawItemsVertex.size() > 0 ? 0 : Constants.NOT_FOUND;
     }
 
+    protected static boolean contains(GeoEnvelope screenEnv, float x, float y) {
+        return x >= screenEnv.getMinX() && x <= screenEnv.getMaxX() && y >= screenEnv.getMinY() && y <= screenEnv.getMaxY();
+    }
+
+    protected static int find(PointBuffer items, GeoEnvelope screenEnv) {
+        return items.find(screenEnv.getMinX(), screenEnv.getMaxX(), screenEnv.getMinY(), screenEnv.getMaxY());
+    }
+
     public boolean isTapNearSelectedPoint(GeoEnvelope screenEnv) {
-        float[] points = getSelectedRing();
-        if (null != points && mSelectedPoint >= 0 && points.length > mSelectedPoint + 1) {
-            if (screenEnv.contains(new GeoPoint(points[mSelectedPoint], points[mSelectedPoint + 1]))) {
-                return true;
-            }
-        }
-        return false;
+        PointBuffer points = getSelectedRingView();
+        return null != points && mSelectedPoint >= 0 && points.size() > mSelectedPoint + 1 &&
+                contains(screenEnv, points.get(mSelectedPoint), points.get(mSelectedPoint + 1));
     }
 
     public boolean intersectsVertices(GeoEnvelope screenEnv) {
-        int point;
         for (int ring = 0; ring < mDrawItemsVertex.size(); ring++) {
-            point = 0;
-            float[] items = mDrawItemsVertex.get(ring);
-            for (int i = 0; i < items.length - 1; i += 2) {
-                if (screenEnv.contains(new GeoPoint(items[i], items[i + 1]))) {
-                    mSelectedRing = ring;
-                    mSelectedPoint = point;
-                    return true;
-                }
-                point += 2;
+            int point = find(mDrawItemsVertex.get(ring), screenEnv);
+            if (point != Constants.NOT_FOUND) {
+                mSelectedRing = ring;
+                mSelectedPoint = point;
+                return true;
             }
         }
 
@@ -321,16 +362,19 @@ public class DrawItem {
     }
 
     public boolean intersectsEdges(GeoEnvelope screenEnv) {
-        for (int ring = 0; ring < mDrawItemsEdge.size(); ring++) {
-            float[] items = mDrawItemsEdge.get(ring);
-            for (int i = 0; i < items.length - 1; i += 2) {
-                if (screenEnv.contains(new GeoPoint(items[i], items[i + 1]))) {
-                    mSelectedPoint = i + 2;
-                    mSelectedRing = ring;
-                    insertNewPoint(mSelectedPoint, items[i], items[i + 1]);
-
-                    return true;
-                }
+        for (int ring = 0; ring < getEdgeRingCount(); ring++) {
+            PointBuffer items = getEdgeRing(ring);
+            if (null == items)
+                continue;
+
+            int point = find(items, screenEnv);
+            if (point != Constants.NOT_FOUND) {
+                // added edges belong to the rings in the same order
+                mSelectedPoint = point + 2;
+                mSelectedRing = ring < mDrawItemsVertex.size() ? ring : ring - mDrawItemsVertex.size();
+                insertNewPoint(mSelectedPoint, items.get(point), items.get(point + 1));
+
+                return true;
             }
         }
 
@@ -359,10 +403,8 @@ public class DrawItem {
 
         mPaint.setStyle(Paint.Style.STROKE);
         mPaint.setAlpha(mVertexStyle.getAlpha());
-        for (int i = 0; i < getRingCount(); i++) {
-            float[] items = getRing(i);
-            if (items == null)
-                continue;
+        for (int i = 0; i < mDrawItemsVertex.size(); i++) {
+            PointBuffer items = mDrawItemsVertex.get(i);
 
             mPaint.setColor(mVertexStyle.getOutColor());
             mPaint.setStrokeWidth(mVertexStyle.getOutWidth());
@@ -375,37 +417,37 @@ public class DrawItem {
 
         //draw selected point
         if (isSelected && getSelectedRingId() != Constants.NOT_FOUND && getSelectedPointId() != Constants.NOT_FOUND) {
-            float[] items = getSelectedRing();
-            if (null != items && items.length > 0) {
+            PointBuffer items = getSelectedRingView();
+            if (null != items && items.size() > getSelectedPointId() + 1) {
                 mPaint.setColor(mVertexStyle.getSelectedColor());
                 mPaint.setStrokeWidth(mVertexStyle.getSelectedWidth());
-                float[] point = new float[]{items[getSelectedPointId()], items[getSelectedPointId() + 1]};
-                drawPoints(canvas, point, mVertexStyle.getSelectedRadius());
+                canvas.drawCircle(items.get(getSelectedPointId()), items.get(getSelectedPointId() + 1), mVertexStyle.getSelectedRadius(), mPaint);
                 drawAnchor(canvas, items);
             }
         }
     }
 
     public void drawLines(Canvas canvas, boolean isSelected, boolean drawPoints, boolean drawEdges, boolean closed) {
-        Path[] paths = new Path[getRingCount()];
-        Path pathFill = new Path();
+        int ringCount = mDrawItemsVertex.size();
+        while (mPaths.size() < ringCount)
+            mPaths.add(new Path());
+        Path pathFill = mPathFill;
+        pathFill.reset();
 
         // fill paths
-        for (int j = 0; j < getRingCount(); j++) {
-            float[] itemsVertex = getRing(j);
-            if (itemsVertex == null)
-                continue;
+        for (int j = 0; j < ringCount; j++) {
+            Path path = mPaths.get(j);
+            path.reset();
+            PointBuffer itemsVertex = mDrawItemsVertex.get(j);
 
-            if (itemsVertex.length >= 2) {
-                Path path = new Path();
-                path.moveTo(itemsVertex[0], itemsVertex[1]);
-                for (int i = 2; i < itemsVertex.length - 1; i += 2)
-                    path.lineTo(itemsVertex[i], itemsVertex[i + 1]);
+            if (itemsVertex.size() >= 2) {
+                path.moveTo(itemsVertex.get(0), itemsVertex.get(1));
+                for (int i = 2; i < itemsVertex.size() - 1; i += 2)
+                    path.lineTo(itemsVertex.get(i), itemsVertex.get(i + 1));
 
                 if (closed)
-                    path.lineTo(itemsVertex[0], itemsVertex[1]);
+                    path.lineTo(itemsVertex.get(0), itemsVertex.get(1));
 
-                paths[j] = path;
                 pathFill.addPath(path);
             }
         }
@@ -422,9 +464,9 @@ public class DrawItem {
         if (mLineStyle != null) {
             mPaint.setStyle(Paint.Style.STROKE);
             mPaint.setAlpha(mLineStyle.getAlpha());
-            for (int i = 0; i < paths.length; i++) {
-                Path path = paths[i];
-                if (path == null)
+            for (int i = 0; i < ringCount; i++) {
+                Path path = mPaths.get(i);
+                if (path.isEmpty())
                     continue;
 
                 if (isSelected && getSelectedRingId() == i) {
@@ -442,7 +484,11 @@ public class DrawItem {
         if (drawEdges && mEdgeStyle != null) {
             mPaint.setStyle(Paint.Style.STROKE);
             mPaint.setAlpha(mEdgeStyle.getAlpha());
-            for (float[] items : getEdges()) {
+            for (int i = 0; i < getEdgeRingCount(); i++) {
+                PointBuffer items = getEdgeRing(i);
+                if (null == items)
+                    continue;
+
                 mPaint.setColor(mEdgeStyle.getOutColor());
                 mPaint.setStrokeWidth(mEdgeStyle.getOutWidth());
                 drawPoints(canvas, items, mEdgeStyle.getOutRadius());
@@ -457,16 +503,16 @@ public class DrawItem {
             drawPoints(canvas, isSelected);
     }
 
-    protected void drawAnchor(Canvas canvas, float[] items) {
+    protected void drawAnchor(Canvas canvas, PointBuffer items) {
         if (mAnchor != null) {
-            float anchorX = items[getSelectedPointId()] + mAnchorRectOffsetX;
-            float anchorY = items[getSelectedPointId() + 1] + mAnchorRectOffsetY;
+            float anchorX = items.get(getSelectedPointId()) + mAnchorRectOffsetX;
+            float anchorY = items.get(getSelectedPointId() + 1) + mAnchorRectOffsetY;
             canvas.drawBitmap(mAnchor, anchorX, anchorY, null);
         }
     }
 
-    protected void drawPoints(Canvas canvas, float[] items, float radius) {
-        for (int i = 0; i < items.length - 1; i += 2)
-            canvas.drawCircle(items[i], items[i + 1], radius, mPaint);
+    protected void drawPoints(Canvas canvas, PointBuffer items, float radius) {
+        for (int i = 0; i < items.size() - 1; i += 2)
+            canvas.drawCircle(items.get(i), items.get(i + 1), radius, mPaint);
     }
 }
@@ -0,0 +1,192 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2021 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.nextgis.maplibui.api;
+
+/**
+ * Adds a freehand stroke to the selected ring of a {@link DrawItem}, simplifying it while the
+ * samples arrive. The samples are fitted into a sleeve: a sample starts a new vertex only if the
+ * line from the last vertex can not pass within the tolerance of all samples since it, or if the
+ * stroke turns back by more than the tolerance. The farthest sample is kept as a floating vertex
+ * which follows the touch, so the stroke is drawn
+ * without lag. The vertex count depends on the stroke shape, not on its duration.
+ * <p>
+ * Vertices are inserted at a fixed position of the ring, each before the previous one, so the
+ * stroke leads from the selected point as the touch editing did. A sample which only moves the
+ * floating vertex is handled in constant time. A new vertex is inserted into the ring, which moves
+ * the points after it, the stroke drawn so far and the rest of the ring. The stroke is kept in the
+ * ring so it is drawn with the item while the touch goes on.
+ */
+public class FreehandDigitizer {
+    protected final float mTolerance;
+
+    protected PointBuffer mRing;
+    protected int mPosition;
+    protected boolean mIsStarted, mHasAnchor, mHasTail, mHasSleeve;
+    // the last fixed vertex and the directions from it passing all samples since
+    protected float mAnchorX, mAnchorY;
+    protected double mMinAngle, mMaxAngle;
+    // distance of the floating vertex from the last fixed one
+    protected double mTailDistance;
+
+    protected long mSampleCount, mVertexCount;
+
+    /**
+     * @param tolerance largest distance of a sample from the simplified stroke in pixels
+     */
+    public FreehandDigitizer(float tolerance) {
+        mTolerance = tolerance;
+    }
+
+    /**
+     * Start a stroke in the selected ring of the item at the selected point
+     *
+     * @return false if the item has no selected ring
+     */
+    public boolean start(DrawItem item) {
+        mRing = item.getSelectedRingView();
+        if (null == mRing)
+            return false;
+
+        int selected = item.getSelectedPointId();
+        mPosition = selected < 0 || selected > mRing.size() ? mRing.size() : selected;
+        mIsStarted = true;
+        mHasAnchor = mHasTail = mHasSleeve = false;
+        return true;
+    }
+
+    public boolean isStarted() {
+        return mIsStarted;
+    }
+
+    /**
+     * @return false if the sample is dropped and the ring is unchanged
+     */
+    public boolean addSample(float x, float y) {
+        if (!mIsStarted)
+            return false;
+
+        mSampleCount++;
+        if (!mHasAnchor) {
+            mRing.insert(mPosition, x, y);
+            mVertexCount++;
+            mAnchorX = x;
+            mAnchorY = y;
+            mHasAnchor = true;
+            return true;
+        }
+
+        double distance = Math.hypot(x - mAnchorX, y - mAnchorY);
+        if (distance <= mTolerance)
+            return false;
+
+        double angle = Math.atan2(y - mAnchorY, x - mAnchorX);
+        if (mHasSleeve) {
+            // compare near the sleeve middle, the angles wrap at pi
+            double middle = (mMinAngle + mMaxAngle) / 2;
+            angle = middle + normalize(angle - middle);
+            // a sample far behind the floating vertex turns the stroke back, e.g. out and back
+            if (angle >= mMinAngle && angle <= mMaxAngle &&
+                    distance >= mTailDistance - mTolerance) {
+                double spread = Math.asin(mTolerance / distance);
+                mMinAngle = Math.max(mMinAngle, angle - spread);
+                mMaxAngle = Math.min(mMaxAngle, angle + spread);
+                if (distance <= mTailDistance) {
+                    // a step back within the tolerance, the farthest sample stays the vertex
+                    return false;
+                }
+
+                mTailDistance = distance;
+                setTail(x, y);
+                return true;
+            }
+
+            // the sample leaves the sleeve or turns back, the floating vertex is fixed
+            mAnchorX = mRing.get(mPosition);
+            mAnchorY = mRing.get(mPosition + 1);
+            mHasTail = mHasSleeve = false;
+
+            distance = Math.hypot(x - mAnchorX, y - mAnchorY);
+            if (distance <= mTolerance)
+                return false;
+            angle = Math.atan2(y - mAnchorY, x - mAnchorX);
+        }
+
+        double spread = Math.asin(mTolerance / distance);
+        mMinAngle = angle - spread;
+        mMaxAngle = angle + spread;
+        mHasSleeve = true;
+        mTailDistance = distance;
+        setTail(x, y);
+        return true;
+    }
+
+    protected void setTail(float x, float y) {
+        if (mHasTail) {
+            mRing.set(mPosition, x, y);
+        } else {
+            mRing.insert(mPosition, x, y);
+            mVertexCount++;
+            mHasTail = true;
+        }
+    }
+
+    protected static double normalize(double angle) {
+        while (angle > Math.PI)
+            angle -= 2 * Math.PI;
+        while (angle < -Math.PI)
+            angle += 2 * Math.PI;
+        return angle;
+    }
+
+    /**
+     * Keep the floating vertex and end the stroke
+     */
+    public void finish() {
+        mIsStarted = false;
+        mHasAnchor = mHasTail = mHasSleeve = false;
+        mRing = null;
+    }
+
+    /**
+     * @return index of the newest vertex of the stroke in the ring
+     */
+    public int getPosition() {
+        return mPosition;
+    }
+
+    /**
+     * @return number of touch samples of all strokes
+     */
+    public long getSampleCount() {
+        return mSampleCount;
+    }
+
+    /**
+     * @return number of vertices kept of all strokes
+     */
+    public long getVertexCount() {
+        return mVertexCount;
+    }
+}
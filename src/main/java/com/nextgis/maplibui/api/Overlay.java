@@ -129,6 +129,66 @@ public abstract class Overlay
     }
 
 
+    /**
+     * Opt in to the gesture cache of {@link MapViewOverlays}. A cacheable overlay is drawn into a
+     * bitmap with {@link #drawToCache(Canvas, MapDrawable)} at rest, then only the bitmap is moved
+     * and scaled during gestures. The bitmap is kept until the map extent changes or the overlay
+     * calls {@link #invalidateCache()}. Overlays whose content changes during a gesture should
+     * return false.
+     *
+     * @return true if the overlay content stays the same while the map is moved
+     */
+    public boolean isCacheable()
+    {
+        return false;
+    }
+
+
+    /**
+     * Draw the overlay content bound to the map into the gesture cache, the map is at rest
+     */
+    public void drawToCache(
+            Canvas canvas,
+            MapDrawable mapDrawable)
+    {
+        draw(canvas, mapDrawable);
+    }
+
+
+    /**
+     * Report a change of the content drawn with {@link #drawToCache(Canvas, MapDrawable)}, the
+     * cached bitmap is redrawn before the next gesture
+     */
+    public void invalidateCache()
+    {
+        if (null != mMapViewOverlays) {
+            mMapViewOverlays.invalidateOverlayCache(this);
+        }
+    }
+
+
+    /**
+     * Draw the overlay content bound to the screen, e.g. a center cross, over the cached bitmap
+     * during a gesture
+     */
+    public void drawOverCache(Canvas canvas)
+    {
+
+    }
+
+
+    /**
+     * Renders of the map file, e.g. the strips exposed by a pan, show the stored layers. An overlay
+     * which changes the displayed layers, e.g. hides a feature while it is edited, turns them off.
+     *
+     * @return true if the displayed layers differ from the map file because of the overlay
+     */
+    public boolean isChangingMap()
+    {
+        return false;
+    }
+
+
     public GeoPoint getScaledOffset(
             PointF currentFocusLocation,
             OverlayItem overlayItem,
@@ -165,6 +225,7 @@ public abstract class Overlay
     public void setVisibility(boolean isVisible)
     {
         mIsVisible = isVisible;
+        invalidateCache();
     }
 
 
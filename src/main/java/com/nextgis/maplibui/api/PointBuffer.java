@@ -0,0 +1,224 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2021 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.nextgis.maplibui.api;
+
+import com.nextgis.maplib.util.Constants;
+
+/**
+ * Screen coordinates of a ring packed as x, y pairs into a growable float array. Points are
+ * appended in amortized constant time and read in place, the array is copied only by
+ * {@link #toArray()}. Point indexes are float indexes as in {@link DrawItem}, i.e. 2 * point.
+ * The midpoints of the edges are computed on demand and kept until the ring changes. Changed
+ * by {@link DrawItem} only, other code gets a read-only view.
+ */
+public class PointBuffer {
+    public static final int EDGES_NONE   = 0;
+    public static final int EDGES_OPEN   = 1;
+    public static final int EDGES_CLOSED = 2;
+
+    protected static final int MIN_CAPACITY = 16;
+    // smaller rings are scanned, building the grid would take longer
+    protected static final int MIN_INDEXED_POINTS = 64;
+
+    protected float[] mData;
+    protected int mSize;
+    protected int mEdgeMode;
+    protected PointBuffer mEdges;
+    protected boolean mIsEdgesValid;
+    protected PointGrid mGrid;
+    protected boolean mIsGridValid;
+
+    PointBuffer(int capacity) {
+        mData = new float[Math.max(capacity, MIN_CAPACITY)];
+    }
+
+    PointBuffer(float[] points, int edgeMode) {
+        this(points.length);
+        System.arraycopy(points, 0, mData, 0, points.length);
+        mSize = points.length;
+        mEdgeMode = edgeMode;
+    }
+
+    /**
+     * @return number of floats, twice the point count
+     */
+    public int size() {
+        return mSize;
+    }
+
+    public int getPointCount() {
+        return mSize / 2;
+    }
+
+    public float get(int index) {
+        if (index >= mSize)
+            throw new ArrayIndexOutOfBoundsException(index);
+        return mData[index];
+    }
+
+    public int getEdgeMode() {
+        return mEdgeMode;
+    }
+
+    /**
+     * @return a copy of the coordinates
+     */
+    public float[] toArray() {
+        float[] points = new float[mSize];
+        System.arraycopy(mData, 0, points, 0, mSize);
+        return points;
+    }
+
+    /**
+     * @return the edge midpoints or null if the ring has no edges
+     */
+    public PointBuffer getEdges() {
+        if (mEdgeMode == EDGES_NONE)
+            return null;
+
+        if (null == mEdges)
+            mEdges = new PointBuffer(mSize);
+
+        if (!mIsEdgesValid) {
+            mEdges.clear();
+            for (int i = 0; i < mSize - 2; i += 2)
+                mEdges.add((mData[i] + mData[i + 2]) * .5f, (mData[i + 1] + mData[i + 3]) * .5f);
+
+            if (mEdgeMode == EDGES_CLOSED && mSize >= 2)
+                mEdges.add((mData[0] + mData[mSize - 2]) * .5f, (mData[1] + mData[mSize - 1]) * .5f);
+
+            mIsEdgesValid = true;
+        }
+
+        return mEdges;
+    }
+
+    /**
+     * Find a point inside the bounds. Large rings are indexed by a screen grid built on the first
+     * lookup after a change, so repeated lookups do not scan the ring.
+     *
+     * @return float index of the first point inside the bounds or {@link Constants#NOT_FOUND}
+     */
+    public int find(double minX, double maxX, double minY, double maxY) {
+        if (getPointCount() < MIN_INDEXED_POINTS) {
+            for (int i = 0; i < mSize - 1; i += 2)
+                if (mData[i] >= minX && mData[i] <= maxX && mData[i + 1] >= minY && mData[i + 1] <= maxY)
+                    return i;
+
+            return Constants.NOT_FOUND;
+        }
+
+        if (null == mGrid)
+            mGrid = new PointGrid();
+
+        if (!mIsGridValid) {
+            mGrid.build(mData, mSize);
+            mIsGridValid = true;
+        }
+
+        return mGrid.find(mData, minX, maxX, minY, maxY);
+    }
+
+    void add(float x, float y) {
+        ensureCapacity(mSize + 2);
+        mData[mSize++] = x;
+        mData[mSize++] = y;
+        onChanged();
+    }
+
+    void insert(int index, float x, float y) {
+        if (index < 0 || index > mSize)
+            throw new ArrayIndexOutOfBoundsException(index);
+
+        ensureCapacity(mSize + 2);
+        System.arraycopy(mData, index, mData, index + 2, mSize - index);
+        mData[index] = x;
+        mData[index + 1] = y;
+        mSize += 2;
+        onChanged();
+    }
+
+    void remove(int index) {
+        if (index < 0 || index + 1 >= mSize)
+            throw new ArrayIndexOutOfBoundsException(index);
+
+        System.arraycopy(mData, index + 2, mData, index, mSize - index - 2);
+        mSize -= 2;
+        onChanged();
+    }
+
+    void set(int index, float x, float y) {
+        if (index < 0 || index + 1 >= mSize)
+            throw new ArrayIndexOutOfBoundsException(index);
+
+        mData[index] = x;
+        mData[index + 1] = y;
+        onChanged();
+    }
+
+    void setAll(float[] points) {
+        mSize = 0;
+        ensureCapacity(points.length);
+        System.arraycopy(points, 0, mData, 0, points.length);
+        mSize = points.length;
+        onChanged();
+    }
+
+    /**
+     * Copy the points of the source multiplied by the scale and moved by the offset. Nothing is
+     * allocated if the capacity is enough.
+     */
+    void setTransformed(PointBuffer source, float scale, float dx, float dy) {
+        mSize = 0;
+        ensureCapacity(source.mSize);
+        float[] data = source.mData;
+        for (int i = 0; i < source.mSize - 1; i += 2) {
+            mData[i] = data[i] * scale + dx;
+            mData[i + 1] = data[i + 1] * scale + dy;
+        }
+        mSize = source.mSize;
+        mEdgeMode = source.mEdgeMode;
+        onChanged();
+    }
+
+    void clear() {
+        mSize = 0;
+        onChanged();
+    }
+
+    protected void onChanged() {
+        mIsEdgesValid = false;
+        mIsGridValid = false;
+    }
+
+    protected void ensureCapacity(int capacity) {
+        if (capacity <= mData.length)
+            return;
+
+        float[] data = new float[Math.max(capacity, mData.length * 2)];
+        System.arraycopy(mData, 0, data, 0, mSize);
+        mData = data;
+    }
+}
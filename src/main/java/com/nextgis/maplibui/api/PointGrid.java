@@ -0,0 +1,129 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2021 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.nextgis.maplibui.api;
+
+import com.nextgis.maplib.util.Constants;
+
+/**
+ * Uniform screen grid over the points of a {@link PointBuffer}. The points of each cell are
+ * stored in one array ordered by cell, so a lookup visits only the cells covered by the search
+ * bounds and allocates nothing. The cell size follows the point spacing, so there are a few
+ * points per cell for both dense lines and scattered points.
+ */
+class PointGrid {
+    protected float mMinX, mMinY, mMaxX, mMaxY;
+    protected float mCellSize;
+    protected int mColumns, mRows;
+    // points of cell i are mPoints[mCellStart[i]] .. mPoints[mCellStart[i + 1] - 1]
+    protected int[] mCellStart;
+    protected int[] mPoints;
+
+    void build(float[] data, int size) {
+        int count = size / 2;
+        if (count == 0) {
+            mColumns = mRows = 0;
+            return;
+        }
+
+        mMinX = mMaxX = data[0];
+        mMinY = mMaxY = data[1];
+        double length = 0;
+        for (int i = 2; i < count * 2; i += 2) {
+            float x = data[i], y = data[i + 1];
+            mMinX = Math.min(mMinX, x);
+            mMaxX = Math.max(mMaxX, x);
+            mMinY = Math.min(mMinY, y);
+            mMaxY = Math.max(mMaxY, y);
+            length += Math.hypot(x - data[i - 2], y - data[i - 1]);
+        }
+
+        // the segment length for lines, the mean spacing for scattered points, at most 8 cells per point
+        double width = mMaxX - mMinX, height = mMaxY - mMinY;
+        double cellSize = Math.min(length / count, Math.sqrt(width * height / count));
+        cellSize = Math.max(cellSize, Math.sqrt(width * height / (4 * count)));
+        cellSize = Math.max(cellSize, Math.max(width, height) / (2 * count));
+        mCellSize = (float) Math.max(cellSize, 1);
+        mColumns = (int) (width / mCellSize) + 1;
+        mRows = (int) (height / mCellSize) + 1;
+
+        int cells = mColumns * mRows;
+        if (null == mCellStart || mCellStart.length < cells + 1)
+            mCellStart = new int[cells + 1];
+        else
+            for (int i = 0; i <= cells; i++)
+                mCellStart[i] = 0;
+
+        if (null == mPoints || mPoints.length < count)
+            mPoints = new int[count];
+
+        // counting sort of the points by cell
+        for (int i = 0; i < count; i++)
+            mCellStart[getCell(data[i * 2], data[i * 2 + 1]) + 1]++;
+        for (int i = 0; i < cells; i++)
+            mCellStart[i + 1] += mCellStart[i];
+        for (int i = 0; i < count; i++) {
+            int cell = getCell(data[i * 2], data[i * 2 + 1]);
+            mPoints[mCellStart[cell]++] = i;
+        }
+        // the starts were moved to the ends of the cells
+        for (int i = cells; i > 0; i--)
+            mCellStart[i] = mCellStart[i - 1];
+        mCellStart[0] = 0;
+    }
+
+    protected int getCell(float x, float y) {
+        int column = Math.min((int) ((x - mMinX) / mCellSize), mColumns - 1);
+        int row = Math.min((int) ((y - mMinY) / mCellSize), mRows - 1);
+        return row * mColumns + column;
+    }
+
+    /**
+     * @return float index of the first point inside the bounds or {@link Constants#NOT_FOUND}
+     */
+    int find(float[] data, double minX, double maxX, double minY, double maxY) {
+        if (mColumns == 0 || maxX < mMinX || minX > mMaxX || maxY < mMinY || minY > mMaxY)
+            return Constants.NOT_FOUND;
+
+        int column0 = Math.max((int) ((minX - mMinX) / mCellSize), 0);
+        int column1 = Math.min((int) ((maxX - mMinX) / mCellSize), mColumns - 1);
+        int row0 = Math.max((int) ((minY - mMinY) / mCellSize), 0);
+        int row1 = Math.min((int) ((maxY - mMinY) / mCellSize), mRows - 1);
+
+        int found = Integer.MAX_VALUE;
+        for (int row = row0; row <= row1; row++) {
+            for (int column = column0; column <= column1; column++) {
+                int cell = row * mColumns + column;
+                for (int i = mCellStart[cell]; i < mCellStart[cell + 1]; i++) {
+                    int point = mPoints[i];
+                    float x = data[point * 2], y = data[point * 2 + 1];
+                    if (point < found && x >= minX && x <= maxX && y >= minY && y <= maxY)
+                        found = point;
+                }
+            }
+        }
+
+        return found == Integer.MAX_VALUE ? Constants.NOT_FOUND : found * 2;
+    }
+}
@@ -0,0 +1,607 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2021 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.nextgis.maplibui.api;
+
+import android.database.Cursor;
+import android.graphics.PointF;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import com.nextgis.maplib.datasource.GeoEnvelope;
+import com.nextgis.maplib.datasource.GeoGeometry;
+import com.nextgis.maplib.datasource.GeoGeometryCollection;
+import com.nextgis.maplib.datasource.GeoLineString;
+import com.nextgis.maplib.datasource.GeoLinearRing;
+import com.nextgis.maplib.datasource.GeoPoint;
+import com.nextgis.maplib.datasource.GeoPolygon;
+import com.nextgis.maplib.map.MapDrawable;
+import com.nextgis.maplib.map.VectorLayer;
+import com.nextgis.maplib.util.Constants;
+import com.nextgis.maplib.util.GeoConstants;
+import com.nextgis.maplibui.util.FeatureSelector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import static com.nextgis.maplib.util.Constants.FIELD_GEOM;
+import static com.nextgis.maplib.util.Constants.FIELD_ID;
+import static com.nextgis.maplib.util.Constants.KEEP_ALIVE_TIME;
+import static com.nextgis.maplib.util.Constants.KEEP_ALIVE_TIME_UNIT;
+
+/**
+ * Snaps edited points to the vertices and edges of the features shown by the chosen layers. The
+ * visible features are projected to the screen once per map extent and binned into a grid with
+ * cells of the snap tolerance, so a lookup visits a few cells and allocates nothing. Vertices
+ * are preferred to edges.
+ * <p>
+ * The index is built on a background thread and handed to the UI thread when it is complete,
+ * nothing is snapped until then. At most {@link #MAX_POINTS} points are indexed, the features
+ * beyond are not snapped to.
+ */
+public class SnapEngine {
+    public static final int SNAP_NONE   = 0;
+    public static final int SNAP_VERTEX = 1;
+    public static final int SNAP_EDGE   = 2;
+
+    public static final int MAX_POINTS = 50000;
+
+    protected final float mTolerance;
+    protected final List<VectorLayer> mLayers = new ArrayList<>();
+    protected final Handler mHandler = new Handler(Looper.getMainLooper());
+    protected long mExcludedFeatureId = Constants.NOT_FOUND;
+    protected int mExcludedLayerId = Constants.NOT_FOUND;
+    protected boolean mIsEnabled = true;
+
+    // the index of the current extent, the one being built and the settings version
+    protected Index mIndex;
+    protected volatile Index mPending;
+    protected int mVersion;
+    protected ThreadPoolExecutor mThreadPool;
+    protected long mSnappedFeatureId = Constants.NOT_FOUND;
+
+    /**
+     * @param tolerance snap distance in pixels
+     */
+    public SnapEngine(float tolerance) {
+        mTolerance = tolerance;
+    }
+
+    public void setLayers(List<VectorLayer> layers) {
+        mLayers.clear();
+        mLayers.addAll(layers);
+        invalidate();
+    }
+
+    public void addLayer(VectorLayer layer) {
+        if (!mLayers.contains(layer)) {
+            mLayers.add(layer);
+            invalidate();
+        }
+    }
+
+    public void removeLayer(VectorLayer layer) {
+        if (mLayers.remove(layer))
+            invalidate();
+    }
+
+    public List<VectorLayer> getLayers() {
+        return mLayers;
+    }
+
+    /**
+     * Do not snap to the feature, e.g. to the edited one
+     */
+    public void setExcludedFeature(VectorLayer layer, long featureId) {
+        int layerId = null == layer ? Constants.NOT_FOUND : layer.getId();
+        if (layerId != mExcludedLayerId || featureId != mExcludedFeatureId) {
+            mExcludedLayerId = layerId;
+            mExcludedFeatureId = featureId;
+            invalidate();
+        }
+    }
+
+    public boolean isEnabled() {
+        return mIsEnabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        if (mIsEnabled != enabled) {
+            mIsEnabled = enabled;
+            invalidate();
+        }
+    }
+
+    /**
+     * The features changed, the index is built again on the next {@link #prepare(MapDrawable)}
+     */
+    public void invalidate() {
+        mVersion++;
+        mIndex = mPending = null;
+    }
+
+    /**
+     * Start building the index in the background if the map extent changed since the last build.
+     * Call it on the UI thread when the extent settles rather than on every move.
+     */
+    public void prepare(MapDrawable map) {
+        GeoEnvelope bounds = map.getCurrentBounds();
+        if (null == bounds || !bounds.isInit() || bounds.width() == 0 || bounds.height() == 0)
+            return;
+
+        float zoom = map.getZoomLevel();
+        if (null != mIndex && mIndex.isFor(mVersion, zoom, bounds) || null != mPending && mPending.isFor(mVersion, zoom, bounds))
+            return;
+
+        // the screen position of the extent and the layers are taken here, the map moves on
+        float[] corners = map.mapToScreen(new GeoPoint[]{
+                new GeoPoint(bounds.getMinX(), bounds.getMaxY()),
+                new GeoPoint(bounds.getMaxX(), bounds.getMinY())});
+        final Index index = new Index(mTolerance, mVersion, zoom, bounds, corners);
+        final List<VectorLayer> layers = new ArrayList<>();
+        if (mIsEnabled) {
+            for (VectorLayer layer : mLayers)
+                if (layer.isVisible())
+                    layers.add(layer);
+        }
+        final int excludedLayerId = mExcludedLayerId;
+        final long excludedFeatureId = mExcludedFeatureId;
+
+        mIndex = null;
+        mPending = index;
+        if (null == mThreadPool) {
+            mThreadPool = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_TIME, KEEP_ALIVE_TIME_UNIT,
+                    new LinkedBlockingQueue<Runnable>());
+            mThreadPool.allowCoreThreadTimeOut(true);
+        }
+        // only the latest extent is of interest
+        mThreadPool.getQueue().clear();
+        mThreadPool.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (index != mPending)
+                    return;
+
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                if (!build(index, layers, excludedLayerId, excludedFeatureId))
+                    return;
+
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (index == mPending) {
+                            mIndex = index;
+                            mPending = null;
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * @return true if the index is complete, false if it is replaced while built
+     */
+    protected boolean build(Index index, List<VectorLayer> layers, int excludedLayerId, long excludedFeatureId) {
+        long start = System.currentTimeMillis();
+        for (VectorLayer layer : layers) {
+            if (index != mPending)
+                return false;
+            if (!addLayer(index, layer, excludedLayerId, excludedFeatureId))
+                break;
+        }
+
+        index.buildGrid();
+        index.mBuildTime = System.currentTimeMillis() - start;
+        if (Constants.DEBUG_MODE)
+            Log.d(Constants.TAG, "SnapEngine: " + index.mPointCount + " points, " + index.mEdgeCount + " edges in " + index.mBuildTime + " ms" +
+                    (index.mIsTruncated ? ", truncated" : ""));
+        return index == mPending;
+    }
+
+    /**
+     * @return false if the point limit is reached
+     */
+    protected boolean addLayer(Index index, VectorLayer layer, int excludedLayerId, long excludedFeatureId) {
+        List<Long> ids = layer.query(index.mBounds);
+        for (int i = 0; i < ids.size(); i += FeatureSelector.BATCH_SIZE) {
+            if (index != mPending)
+                return false;
+
+            List<Long> batch = ids.subList(i, Math.min(i + FeatureSelector.BATCH_SIZE, ids.size()));
+            Cursor cursor = FeatureSelector.queryGeometries(layer, batch);
+            if (null == cursor)
+                continue;
+
+            try {
+                int idColumn = cursor.getColumnIndex(FIELD_ID);
+                int geomColumn = cursor.getColumnIndex(FIELD_GEOM);
+                while (cursor.moveToNext()) {
+                    long id = cursor.getLong(idColumn);
+                    if (layer.getId() == excludedLayerId && id == excludedFeatureId)
+                        continue;
+
+                    if (index.mPointCount >= MAX_POINTS) {
+                        index.mIsTruncated = true;
+                        return false;
+                    }
+
+                    GeoGeometry geometry = FeatureSelector.toGeometry(cursor.getBlob(geomColumn));
+                    if (null != geometry) {
+                        index.mFeatureIds.add(id);
+                        index.addGeometry(geometry, index.mFeatureIds.size() - 1);
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Snap the point to the nearest vertex within the tolerance, or to the nearest edge if there
+     * is no vertex. Nothing is snapped until the index of the current extent is built.
+     *
+     * @param result the snapped point, unchanged if nothing is near
+     * @return {@link #SNAP_VERTEX}, {@link #SNAP_EDGE} or {@link #SNAP_NONE}
+     */
+    public int snap(float x, float y, PointF result) {
+        mSnappedFeatureId = Constants.NOT_FOUND;
+        Index index = mIndex;
+        if (!mIsEnabled || null == index)
+            return SNAP_NONE;
+
+        int snap = index.snap(x, y, result);
+        if (snap != SNAP_NONE)
+            mSnappedFeatureId = index.mSnappedFeatureId;
+        return snap;
+    }
+
+    /**
+     * @return true if snapping works for the current extent
+     */
+    public boolean isReady() {
+        return null != mIndex;
+    }
+
+    /**
+     * @return id of the feature the last {@link #snap(float, float, PointF)} snapped to
+     */
+    public long getSnappedFeatureId() {
+        return mSnappedFeatureId;
+    }
+
+    /**
+     * @return time of the last index build in ms
+     */
+    public long getBuildTime() {
+        return null == mIndex ? 0 : mIndex.mBuildTime;
+    }
+
+    public int getPointCount() {
+        return null == mIndex ? 0 : mIndex.mPointCount;
+    }
+
+    public int getEdgeCount() {
+        return null == mIndex ? 0 : mIndex.mEdgeCount;
+    }
+
+    /**
+     * Screen points of the features of an extent and the grid over them. Filled by one thread,
+     * then only read.
+     */
+    protected static class Index {
+        protected final float mTolerance;
+
+        // extent the index is built for and its screen projection
+        protected final int mVersion;
+        protected final float mZoom;
+        protected final GeoEnvelope mBounds;
+        protected final double mScaleX, mOffsetX, mScaleY, mOffsetY;
+        protected final float mLeft, mTop, mWidth, mHeight;
+
+        // screen points, the feature of each point and the points of each edge
+        protected float[] mPoints = new float[256];
+        protected int[] mPointFeatures = new int[128];
+        protected int mPointCount;
+        protected int[] mEdgeStarts = new int[128], mEdgeEnds = new int[128];
+        protected int mEdgeCount;
+        protected List<Long> mFeatureIds = new ArrayList<>();
+        protected long mSnappedFeatureId = Constants.NOT_FOUND;
+        protected boolean mIsTruncated;
+
+        // the items of cell i are mCellPoints[mPointStart[i]] .. mCellPoints[mPointStart[i + 1] - 1],
+        // the same for edges
+        protected float mMinX, mMinY, mMaxX, mMaxY, mCellSize;
+        protected int mColumns, mRows;
+        protected int[] mPointStart, mCellPoints;
+        protected int[] mEdgeStart, mCellEdges;
+
+        protected long mBuildTime;
+
+        /**
+         * @param corners screen coordinates of the top left and the bottom right of the bounds
+         */
+        protected Index(float tolerance, int version, float zoom, GeoEnvelope bounds, float[] corners) {
+            mTolerance = tolerance;
+            mVersion = version;
+            mZoom = zoom;
+            mBounds = new GeoEnvelope(bounds.getMinX(), bounds.getMaxX(), bounds.getMinY(), bounds.getMaxY());
+            mScaleX = (corners[2] - corners[0]) / bounds.width();
+            mOffsetX = corners[0] - bounds.getMinX() * mScaleX;
+            mScaleY = (corners[3] - corners[1]) / -bounds.height();
+            mOffsetY = corners[1] - bounds.getMaxY() * mScaleY;
+            mLeft = Math.min(corners[0], corners[2]);
+            mTop = Math.min(corners[1], corners[3]);
+            mWidth = Math.abs(corners[2] - corners[0]);
+            mHeight = Math.abs(corners[3] - corners[1]);
+        }
+
+        protected boolean isFor(int version, float zoom, GeoEnvelope bounds) {
+            return mVersion == version && mZoom == zoom && mBounds.getMinX() == bounds.getMinX() && mBounds.getMaxY() == bounds.getMaxY();
+        }
+
+        protected void addGeometry(GeoGeometry geometry, int feature) {
+            switch (geometry.getType()) {
+                case GeoConstants.GTPoint:
+                    addPart(new GeoPoint[]{(GeoPoint) geometry}, feature, false, false);
+                    break;
+                case GeoConstants.GTLineString:
+                    List<GeoPoint> line = ((GeoLineString) geometry).getPoints();
+                    addPart(line.toArray(new GeoPoint[line.size()]), feature, true, false);
+                    break;
+                case GeoConstants.GTPolygon:
+                    GeoPolygon polygon = (GeoPolygon) geometry;
+                    addRing(polygon.getOuterRing(), feature);
+                    for (int i = 0; i < polygon.getInnerRingCount(); i++)
+                        addRing(polygon.getInnerRing(i), feature);
+                    break;
+                case GeoConstants.GTMultiPoint:
+                case GeoConstants.GTMultiLineString:
+                case GeoConstants.GTMultiPolygon:
+                case GeoConstants.GTGeometryCollection:
+                    GeoGeometryCollection collection = (GeoGeometryCollection) geometry;
+                    for (int i = 0; i < collection.size(); i++)
+                        addGeometry(collection.get(i), feature);
+                    break;
+            }
+        }
+
+        protected void addRing(GeoLinearRing ring, int feature) {
+            List<GeoPoint> points = ring.getPoints();
+            addPart(points.toArray(new GeoPoint[points.size()]), feature, true, true);
+        }
+
+        protected void addPart(GeoPoint[] geoPoints, int feature, boolean hasEdges, boolean closed) {
+            float[] points = new float[geoPoints.length * 2];
+            for (int i = 0; i < geoPoints.length; i++) {
+                points[i * 2] = (float) (geoPoints[i].getX() * mScaleX + mOffsetX);
+                points[i * 2 + 1] = (float) (geoPoints[i].getY() * mScaleY + mOffsetY);
+            }
+            addPart(points, feature, hasEdges, closed);
+        }
+
+        /**
+         * @param points screen coordinates of the part
+         */
+        protected void addPart(float[] points, int feature, boolean hasEdges, boolean closed) {
+            if (points.length == 0)
+                return;
+
+            int first = mPointCount;
+            int count = points.length / 2;
+            if (mPoints.length < (mPointCount + count) * 2)
+                mPoints = Arrays.copyOf(mPoints, Math.max(mPoints.length * 2, (mPointCount + count) * 2));
+            if (mPointFeatures.length < mPointCount + count)
+                mPointFeatures = Arrays.copyOf(mPointFeatures, Math.max(mPointFeatures.length * 2, mPointCount + count));
+
+            System.arraycopy(points, 0, mPoints, first * 2, count * 2);
+            for (int i = 0; i < count; i++)
+                mPointFeatures[first + i] = feature;
+            mPointCount += count;
+
+            if (!hasEdges || count < 2)
+                return;
+
+            // the edge from the last point to the first one, unless the ring repeats the first point
+            boolean isRepeated = points[0] == points[points.length - 2] && points[1] == points[points.length - 1];
+            int edges = closed && !isRepeated ? count : count - 1;
+            if (mEdgeStarts.length < mEdgeCount + edges) {
+                int capacity = Math.max(mEdgeStarts.length * 2, mEdgeCount + edges);
+                mEdgeStarts = Arrays.copyOf(mEdgeStarts, capacity);
+                mEdgeEnds = Arrays.copyOf(mEdgeEnds, capacity);
+            }
+
+            for (int i = 0; i < edges; i++) {
+                mEdgeStarts[mEdgeCount] = first + i;
+                mEdgeEnds[mEdgeCount] = first + (i + 1) % count;
+                mEdgeCount++;
+            }
+        }
+
+        protected int snap(float x, float y, PointF result) {
+            if (mColumns == 0 ||
+                    x + mTolerance < mMinX || x - mTolerance > mMaxX || y + mTolerance < mMinY || y - mTolerance > mMaxY)
+                return SNAP_NONE;
+
+            int column0 = getColumn(x - mTolerance), column1 = getColumn(x + mTolerance);
+            int row0 = getRow(y - mTolerance), row1 = getRow(y + mTolerance);
+            float tolerance2 = mTolerance * mTolerance;
+
+            float best = tolerance2;
+            int bestPoint = Constants.NOT_FOUND;
+            for (int row = row0; row <= row1; row++) {
+                for (int column = column0; column <= column1; column++) {
+                    int cell = row * mColumns + column;
+                    for (int i = mPointStart[cell]; i < mPointStart[cell + 1]; i++) {
+                        int point = mCellPoints[i];
+                        float dx = mPoints[point * 2] - x, dy = mPoints[point * 2 + 1] - y;
+                        float distance = dx * dx + dy * dy;
+                        if (distance <= best) {
+                            best = distance;
+                            bestPoint = point;
+                        }
+                    }
+                }
+            }
+
+            if (bestPoint != Constants.NOT_FOUND) {
+                result.set(mPoints[bestPoint * 2], mPoints[bestPoint * 2 + 1]);
+                mSnappedFeatureId = mFeatureIds.get(mPointFeatures[bestPoint]);
+                return SNAP_VERTEX;
+            }
+
+            best = tolerance2;
+            int bestEdge = Constants.NOT_FOUND;
+            float bestX = 0, bestY = 0;
+            for (int row = row0; row <= row1; row++) {
+                for (int column = column0; column <= column1; column++) {
+                    int cell = row * mColumns + column;
+                    for (int i = mEdgeStart[cell]; i < mEdgeStart[cell + 1]; i++) {
+                        int edge = mCellEdges[i];
+                        float ax = mPoints[mEdgeStarts[edge] * 2], ay = mPoints[mEdgeStarts[edge] * 2 + 1];
+                        float dx = mPoints[mEdgeEnds[edge] * 2] - ax, dy = mPoints[mEdgeEnds[edge] * 2 + 1] - ay;
+                        float length = dx * dx + dy * dy;
+                        float t = length == 0 ? 0 : ((x - ax) * dx + (y - ay) * dy) / length;
+                        t = Math.max(0, Math.min(1, t));
+                        float px = ax + t * dx, py = ay + t * dy;
+                        float distance = (px - x) * (px - x) + (py - y) * (py - y);
+                        if (distance <= best) {
+                            best = distance;
+                            bestEdge = edge;
+                            bestX = px;
+                            bestY = py;
+                        }
+                    }
+                }
+            }
+
+            if (bestEdge != Constants.NOT_FOUND) {
+                result.set(bestX, bestY);
+                mSnappedFeatureId = mFeatureIds.get(mPointFeatures[mEdgeStarts[bestEdge]]);
+                return SNAP_EDGE;
+            }
+
+            return SNAP_NONE;
+        }
+
+        protected int getColumn(float x) {
+            return Math.max(0, Math.min(mColumns - 1, (int) ((x - mMinX) / mCellSize)));
+        }
+
+        protected int getRow(float y) {
+            return Math.max(0, Math.min(mRows - 1, (int) ((y - mMinY) / mCellSize)));
+        }
+
+        /**
+         * Bin the points and edges near the screen into cells twice the tolerance wide, so a
+         * lookup visits four cells at most
+         */
+        protected void buildGrid() {
+            mMinX = mLeft - mTolerance;
+            mMinY = mTop - mTolerance;
+            mMaxX = mLeft + mWidth + mTolerance;
+            mMaxY = mTop + mHeight + mTolerance;
+            mCellSize = Math.max(mTolerance * 2, 1);
+            mColumns = (int) ((mMaxX - mMinX) / mCellSize) + 1;
+            mRows = (int) ((mMaxY - mMinY) / mCellSize) + 1;
+
+            int cells = mColumns * mRows;
+            mPointStart = new int[cells + 1];
+            mEdgeStart = new int[cells + 1];
+
+            // counting sort by cell, the first pass counts and the second one places the items
+            for (int i = 0; i < mPointCount; i++)
+                if (isInGrid(mPoints[i * 2], mPoints[i * 2 + 1]))
+                    mPointStart[getRow(mPoints[i * 2 + 1]) * mColumns + getColumn(mPoints[i * 2]) + 1]++;
+            for (int i = 0; i < mEdgeCount; i++)
+                binEdge(i, false);
+
+            for (int i = 0; i < cells; i++) {
+                mPointStart[i + 1] += mPointStart[i];
+                mEdgeStart[i + 1] += mEdgeStart[i];
+            }
+
+            mCellPoints = new int[mPointStart[cells]];
+            mCellEdges = new int[mEdgeStart[cells]];
+            for (int i = 0; i < mPointCount; i++)
+                if (isInGrid(mPoints[i * 2], mPoints[i * 2 + 1]))
+                    mCellPoints[mPointStart[getRow(mPoints[i * 2 + 1]) * mColumns + getColumn(mPoints[i * 2])]++] = i;
+            for (int i = 0; i < mEdgeCount; i++)
+                binEdge(i, true);
+
+            // the starts were moved to the ends of the cells
+            for (int i = cells; i > 0; i--) {
+                mPointStart[i] = mPointStart[i - 1];
+                mEdgeStart[i] = mEdgeStart[i - 1];
+            }
+            mPointStart[0] = mEdgeStart[0] = 0;
+        }
+
+        protected boolean isInGrid(float x, float y) {
+            return x >= mMinX && x <= mMaxX && y >= mMinY && y <= mMaxY;
+        }
+
+        /**
+         * Count or place the edge in the cells it crosses, row by row
+         */
+        protected void binEdge(int edge, boolean place) {
+            float ax = mPoints[mEdgeStarts[edge] * 2], ay = mPoints[mEdgeStarts[edge] * 2 + 1];
+            float bx = mPoints[mEdgeEnds[edge] * 2], by = mPoints[mEdgeEnds[edge] * 2 + 1];
+            if (Math.max(ax, bx) < mMinX || Math.min(ax, bx) > mMaxX || Math.max(ay, by) < mMinY || Math.min(ay, by) > mMaxY)
+                return;
+
+            int row0 = getRow(Math.min(ay, by)), row1 = getRow(Math.max(ay, by));
+            for (int row = row0; row <= row1; row++) {
+                // the part of the edge inside the row
+                float top = Math.max(Math.min(ay, by), mMinY + row * mCellSize);
+                float bottom = Math.min(Math.max(ay, by), mMinY + (row + 1) * mCellSize);
+                float x0, x1;
+                if (ay == by) {
+                    x0 = ax;
+                    x1 = bx;
+                } else {
+                    x0 = ax + (top - ay) * (bx - ax) / (by - ay);
+                    x1 = ax + (bottom - ay) * (bx - ax) / (by - ay);
+                }
+
+                int column0 = getColumn(Math.min(x0, x1)), column1 = getColumn(Math.max(x0, x1));
+                for (int column = column0; column <= column1; column++) {
+                    int cell = row * mColumns + column;
+                    if (place)
+                        mCellEdges[mEdgeStart[cell]++] = edge;
+                    else
+                        mEdgeStart[cell + 1]++;
+                }
+            }
+        }
+    }
+}
@@ -31,12 +31,13 @@ import android.support.v7.app.AlertDialog;
 import android.view.View;
 import android.widget.ListView;
 
-import com.nextgis.maplib.api.IGISApplication;
 import com.nextgis.maplib.api.ILayer;
-import com.nextgis.maplib.map.MapBase;
+import com.nextgis.maplib.map.MapDrawable;
 import com.nextgis.maplibui.R;
+import com.nextgis.maplibui.activity.NGActivity;
 import com.nextgis.maplibui.api.IChooseLayerResult;
 import com.nextgis.maplibui.api.ILayerSelector;
+import com.nextgis.maplibui.util.MapInitializer;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -79,14 +80,21 @@ public class ChooseLayerDialog
         mListAdapter = new ChooseLayerListAdapter(this);
 
         if (null != savedInstanceState) {
-            List<Integer> ids = savedInstanceState.getIntegerArrayList(KEY_LAYERS_IDS);
-            IGISApplication app = (IGISApplication) mActivity.getApplication();
-            MapBase map = app.getMap();
+            final List<Integer> ids = savedInstanceState.getIntegerArrayList(KEY_LAYERS_IDS);
             mLayers = new ArrayList<>();
-            for (Integer id : ids) {
-                ILayer layer = map.getLayerById(id);
-                mLayers.add(layer);
-            }
+            // the map may be still loaded after a restart, the list is filled when it is ready
+            NGActivity.waitForMap(mActivity, new MapInitializer.OnMapReadyListener()
+            {
+                @Override
+                public void onMapReady(MapDrawable map)
+                {
+                    for (Integer id : ids) {
+                        ILayer layer = map.getLayerById(id);
+                        mLayers.add(layer);
+                    }
+                    mListAdapter.notifyDataSetChanged();
+                }
+            });
             mCode = savedInstanceState.getInt(KEY_CODE);
         }
 
@@ -37,7 +37,6 @@ import android.view.View;
 import android.widget.TextView;
 
 import com.appyvet.materialrangebar.RangeBar;
-import com.nextgis.maplib.api.IGISApplication;
 import com.nextgis.maplib.api.ILayer;
 import com.nextgis.maplib.datasource.GeoEnvelope;
 import com.nextgis.maplib.map.MapBase;
@@ -46,9 +45,12 @@ import com.nextgis.maplib.map.TMSLayer;
 import com.nextgis.maplib.util.GeoConstants;
 import com.nextgis.maplib.util.MapUtil;
 import com.nextgis.maplibui.R;
+import com.nextgis.maplibui.activity.NGActivity;
+import com.nextgis.maplibui.mapui.MapViewBase;
 import com.nextgis.maplibui.service.TileDownloadService;
 import com.nextgis.maplibui.util.ConstantsUI;
 import com.nextgis.maplibui.util.ControlHelper;
+import com.nextgis.maplibui.util.MapInitializer;
 
 import java.util.Locale;
 
@@ -62,6 +64,7 @@ public class SelectZoomLevelsDialog extends DialogFragment {
     private GeoEnvelope mEnvelope;
     private int mLayerId;
     private CountTilesTask mCountTask;
+    private boolean mIsMapReady;
 
     public GeoEnvelope getEnvelope() {
         return mEnvelope;
@@ -95,13 +98,9 @@ public class SelectZoomLevelsDialog extends DialogFragment {
 
         final Context context = getActivity();
         View view = View.inflate(context, R.layout.dialog_select_zoom_levels, null);
-        IGISApplication app = (IGISApplication) getActivity().getApplication();
-        final MapDrawable map = (MapDrawable) app.getMap();
-        int left = (int) map.getZoomLevel() - 1;
-        int right = (int) map.getZoomLevel() + 1;
+        // the map may be still loaded after a restart, the tiles are counted when it is ready
+        final MapDrawable map = MapViewBase.getApplicationMap(context);
         final int maxZoom = GeoConstants.DEFAULT_MAX_ZOOM;
-        left = left < 0 ? 0 : left;
-        right = right > maxZoom ? maxZoom : right;
 
         // Get the index value TextViews
         mTilesCount = view.findViewById(R.id.tilesCount);
@@ -139,7 +138,6 @@ public class SelectZoomLevelsDialog extends DialogFragment {
 
             }
         });
-        rangebar.setRangePinsByIndices(left, right);
 
         AlertDialog.Builder builder = new AlertDialog.Builder(context);
         builder.setTitle(String.format(getString(R.string.current_zoom), map.getZoomLevel())).setView(view).setPositiveButton(
@@ -147,6 +145,9 @@ public class SelectZoomLevelsDialog extends DialogFragment {
                     public void onClick(
                             DialogInterface dialog,
                             int id) {
+                        if (!mIsMapReady)
+                            return;
+
                         final int zoomFrom = rangebar.getLeftIndex();
                         final int zoomTo = rangebar.getRightIndex();
                         final int layerId = getLayerId();
@@ -180,8 +181,26 @@ public class SelectZoomLevelsDialog extends DialogFragment {
                     }
                 });
         // Create the AlertDialog object and return it
-        AlertDialog dialog = builder.create();
+        final AlertDialog dialog = builder.create();
         dialog.setCanceledOnTouchOutside(false);
+
+        NGActivity.waitForMap(getActivity(), new MapInitializer.OnMapReadyListener() {
+            @Override
+            public void onMapReady(MapDrawable map) {
+                if (!isAdded())
+                    return;
+
+                mIsMapReady = true;
+                int left = (int) map.getZoomLevel() - 1;
+                int right = (int) map.getZoomLevel() + 1;
+                left = left < 0 ? 0 : left;
+                right = right > maxZoom ? maxZoom : right;
+
+                dialog.setTitle(String.format(getString(R.string.current_zoom), map.getZoomLevel()));
+                rangebar.setRangePinsByIndices(left, right);
+            }
+        });
+
         return dialog;
     }
 
@@ -42,10 +42,13 @@ import android.text.TextUtils;
 import android.widget.Toast;
 
 import com.nextgis.maplib.api.IGISApplication;
+import com.nextgis.maplib.map.MapDrawable;
 import com.nextgis.maplib.map.NGWVectorLayer;
 import com.nextgis.maplib.util.Constants;
 import com.nextgis.maplibui.R;
+import com.nextgis.maplibui.activity.NGActivity;
 import com.nextgis.maplibui.service.LayerFillService;
+import com.nextgis.maplibui.util.MapInitializer;
 
 // http://www.androiddesignpatterns.com/2013/04/retaining-objects-across-config-changes.html
 public class LayerFillProgressDialogFragment extends Fragment {
@@ -193,32 +196,37 @@ public class LayerFillProgressDialogFragment extends Fragment {
 
                     boolean isNgwSync = intent.getBooleanExtra(LayerFillService.KEY_SYNC, false);
                     if (success && !canceled && isNgwSync) {
-                        int id = intent.getIntExtra(LayerFillService.KEY_REMOTE_ID, -1);
+                        final int id = intent.getIntExtra(LayerFillService.KEY_REMOTE_ID, -1);
                         final IGISApplication app = (IGISApplication) mActivity.getApplication();
-                        final NGWVectorLayer ngwLayer = (NGWVectorLayer) app.getMap().getLayerById(id);
-                        final Account account = app.getAccount(ngwLayer.getAccountName());
-
-                        AlertDialog.Builder builder = new AlertDialog.Builder(mActivity);
-                        builder.setTitle(R.string.sync_dialog_title).setMessage(R.string.sync_dialog_message)
-                                .setPositiveButton(R.string.auto, new DialogInterface.OnClickListener() {
-                                    @Override
-                                    public void onClick(DialogInterface dialogInterface, int i) {
-                                        NGWSettingsFragment.setAccountSyncEnabled(account, app.getAuthority(), true);
-                                        ngwLayer.setSyncType(Constants.SYNC_ALL);
-                                        ngwLayer.save();
-                                    }
-                                })
-                                .setNeutralButton(R.string.skip, null)
-                                .setNegativeButton(R.string.manual, new DialogInterface.OnClickListener() {
-                                    @Override
-                                    public void onClick(DialogInterface dialogInterface, int i) {
-                                        ngwLayer.setSyncType(Constants.SYNC_ALL);
-                                        ngwLayer.save();
-                                    }
-                                });
-
-                        AlertDialog dialog = builder.show();
-                        dialog.setCanceledOnTouchOutside(false);
+                        NGActivity.waitForMap(mActivity, new MapInitializer.OnMapReadyListener() {
+                            @Override
+                            public void onMapReady(MapDrawable map) {
+                                final NGWVectorLayer ngwLayer = (NGWVectorLayer) map.getLayerById(id);
+                                final Account account = app.getAccount(ngwLayer.getAccountName());
+
+                                AlertDialog.Builder builder = new AlertDialog.Builder(mActivity);
+                                builder.setTitle(R.string.sync_dialog_title).setMessage(R.string.sync_dialog_message)
+                                        .setPositiveButton(R.string.auto, new DialogInterface.OnClickListener() {
+                                            @Override
+                                            public void onClick(DialogInterface dialogInterface, int i) {
+                                                NGWSettingsFragment.setAccountSyncEnabled(account, app.getAuthority(), true);
+                                                ngwLayer.setSyncType(Constants.SYNC_ALL);
+                                                ngwLayer.save();
+                                            }
+                                        })
+                                        .setNeutralButton(R.string.skip, null)
+                                        .setNegativeButton(R.string.manual, new DialogInterface.OnClickListener() {
+                                            @Override
+                                            public void onClick(DialogInterface dialogInterface, int i) {
+                                                ngwLayer.setSyncType(Constants.SYNC_ALL);
+                                                ngwLayer.save();
+                                            }
+                                        });
+
+                                AlertDialog dialog = builder.show();
+                                dialog.setCanceledOnTouchOutside(false);
+                            }
+                        });
                     }
                     break;
                 case LayerFillService.STATUS_SHOW:
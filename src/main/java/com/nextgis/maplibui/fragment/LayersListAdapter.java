@@ -55,10 +55,12 @@ import com.nextgis.maplib.map.Table;
 import com.nextgis.maplib.map.TrackLayer;
 import com.nextgis.maplib.map.VectorLayer;
 import com.nextgis.maplib.util.AccountUtil;
+import com.nextgis.maplib.util.Constants;
 import com.nextgis.maplibui.R;
 import com.nextgis.maplibui.activity.NGActivity;
 import com.nextgis.maplibui.api.ILayerUI;
 import com.nextgis.maplibui.api.IVectorLayerUI;
+import com.nextgis.maplibui.mapui.LayerRenderProfiler;
 import com.nextgis.maplibui.mapui.MapView;
 import com.nextgis.maplibui.mapui.NGWRasterLayerUI;
 import com.nextgis.maplibui.mapui.NGWWebMapLayerUI;
@@ -66,8 +68,12 @@ import com.nextgis.maplibui.mapui.RemoteTMSLayerUI;
 import com.nextgis.maplibui.mapui.VectorLayerUI;
 import com.nextgis.maplibui.util.ControlHelper;
 import com.nextgis.maplibui.util.LayerUtil;
+import com.nextgis.maplibui.util.MapInitializer;
 import com.nextgis.maplibui.util.UiUtil;
 
+import java.util.Locale;
+
+import static com.nextgis.maplib.util.Constants.DRAW_FINISH_ID;
 import static com.nextgis.maplib.util.Constants.NOT_FOUND;
 
 
@@ -94,6 +100,16 @@ public class LayersListAdapter extends BaseAdapter implements MapEventListener {
 
         if (null != mMap)
             mMap.addListener(this);
+
+        if (!mMapView.isMapReady()) {
+            // the layers are listed when the map is loaded
+            NGActivity.waitForMap(activity, new MapInitializer.OnMapReadyListener() {
+                @Override
+                public void onMapReady(MapDrawable map) {
+                    notifyDataSetChanged();
+                }
+            });
+        }
     }
 
 
@@ -123,7 +139,7 @@ public class LayersListAdapter extends BaseAdapter implements MapEventListener {
 
     @Override
     public int getCount() {
-        if (null != mMap)
+        if (null != mMap && mMapView.isMapReady())
             return mMap.getLayerCount();
         return 0;
     }
@@ -140,7 +156,7 @@ public class LayersListAdapter extends BaseAdapter implements MapEventListener {
 
     @Override
     public long getItemId(int i) {
-        if (i < 0 || i >= mMap.getLayerCount())
+        if (i < 0 || i >= getCount())
             return NOT_FOUND;
         Table layer = (Table) getItem(i);
         if (null != layer)
@@ -179,6 +195,11 @@ public class LayersListAdapter extends BaseAdapter implements MapEventListener {
 
         TextView tvPaneName = v.findViewById(R.id.tvLayerName);
         tvPaneName.setText(layer.getName());
+        if (Constants.DEBUG_MODE) {
+            LayerRenderProfiler.Stats stats = getRenderStats(layer);
+            if (null != stats)
+                tvPaneName.append(" " + getRenderSummary(stats));
+        }
         //final int id = layer.getId();
 
         final ImageButton btMore = v.findViewById(R.id.btMore);
@@ -395,7 +416,29 @@ public class LayersListAdapter extends BaseAdapter implements MapEventListener {
 
     @Override
     public void onLayerDrawFinished(int id, float percent) {
+        // the render times shown in debug mode
+        if (Constants.DEBUG_MODE && id == DRAW_FINISH_ID)
+            notifyDataChanged();
+    }
+
+
+    /**
+     * @return render statistics of the layer or null if it was not rendered yet
+     */
+    public LayerRenderProfiler.Stats getRenderStats(ILayer layer) {
+        if (null == mMapView || null == layer)
+            return null;
+        return mMapView.getLayerProfiler().getStats(layer.getId());
+    }
+
 
+    protected String getRenderSummary(LayerRenderProfiler.Stats stats) {
+        String summary = String.format(Locale.US, "(%d ms", stats.getCost());
+        if (stats.getFeatureCount() >= 0)
+            summary += String.format(Locale.US, ", %d features", stats.getFeatureCount());
+        if (stats.getCancelCount() > 0)
+            summary += String.format(Locale.US, ", %d cancelled", stats.getCancelCount());
+        return summary + ")";
     }
 
 
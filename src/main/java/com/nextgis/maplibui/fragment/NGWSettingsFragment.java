@@ -50,16 +50,21 @@ import com.nextgis.maplib.api.IGISApplication;
 import com.nextgis.maplib.api.INGWLayer;
 import com.nextgis.maplib.datasource.ngw.SyncAdapter;
 import com.nextgis.maplib.map.Layer;
+import com.nextgis.maplib.map.MapBase;
 import com.nextgis.maplib.map.MapContentProviderHelper;
+import com.nextgis.maplib.map.MapDrawable;
 import com.nextgis.maplib.map.NGWVectorLayer;
 import com.nextgis.maplib.util.AccountUtil;
 import com.nextgis.maplib.util.Constants;
+import com.nextgis.maplibui.GISApplication;
 import com.nextgis.maplibui.R;
+import com.nextgis.maplibui.activity.NGActivity;
 import com.nextgis.maplibui.activity.NGPreferenceActivity;
 import com.nextgis.maplibui.activity.NGWLoginActivity;
 import com.nextgis.maplibui.activity.NGWSettingsActivity;
 import com.nextgis.maplibui.api.ILayerUI;
 import com.nextgis.maplibui.util.ControlHelper;
+import com.nextgis.maplibui.util.MapInitializer;
 import com.nextgis.maplibui.util.SettingsConstantsUI;
 
 import java.util.ArrayList;
@@ -111,8 +116,19 @@ public class NGWSettingsFragment
     protected void fillPreferences(PreferenceGroup screen)
     {
         if (mAction != null && mAction.equals(SettingsConstantsUI.ACTION_ACCOUNT)) {
-            Account account = getArguments().getParcelable(NGWSettingsActivity.KEY_ACCOUNT);
-            fillAccountPreferences(screen, account);
+            final PreferenceGroup group = screen;
+            final Account account = getArguments().getParcelable(NGWSettingsActivity.KEY_ACCOUNT);
+            // the account layers are listed from the map
+            NGActivity.waitForMap(getActivity(), new MapInitializer.OnMapReadyListener()
+            {
+                @Override
+                public void onMapReady(MapDrawable map)
+                {
+                    if (isAdded()) {
+                        fillAccountPreferences(group, account);
+                    }
+                }
+            });
         }
     }
 
@@ -529,30 +545,59 @@ public class NGWSettingsFragment
 
     public static void updateAccountLayersCacheData(
             final IGISApplication application,
-            Account account)
+            final Account account)
     {
-        List<INGWLayer> layers = getLayersForAccount(application, account);
+        waitForMap(application, new MapInitializer.OnMapReadyListener()
+        {
+            @Override
+            public void onMapReady(MapDrawable map)
+            {
+                List<INGWLayer> layers = getLayersForAccount(map, account);
 
-        for (INGWLayer layer : layers) {
-            layer.setAccountCacheData();
-        }
+                for (INGWLayer layer : layers) {
+                    layer.setAccountCacheData();
+                }
+            }
+        });
     }
 
 
     protected void deleteAccountLayers(
             final IGISApplication application,
-            Account account)
+            final Account account)
     {
-        List<INGWLayer> layers = getLayersForAccount(application, account);
+        waitForMap(application, new MapInitializer.OnMapReadyListener()
+        {
+            @Override
+            public void onMapReady(MapDrawable map)
+            {
+                List<INGWLayer> layers = getLayersForAccount(map, account);
 
-        for (INGWLayer layer : layers) {
-            ((Layer) layer).delete();
-        }
+                for (INGWLayer layer : layers) {
+                    ((Layer) layer).delete();
+                }
+
+                map.save();
+
+                if (null != mOnDeleteAccountListener) {
+                    mOnDeleteAccountListener.onDeleteAccount(account);
+                }
+            }
+        });
+    }
 
-        application.getMap().save();
 
-        if (null != mOnDeleteAccountListener) {
-            mOnDeleteAccountListener.onDeleteAccount(account);
+    /**
+     * Call the listener on the main thread when the application map is loaded, without blocking
+     */
+    protected static void waitForMap(
+            final IGISApplication application,
+            MapInitializer.OnMapReadyListener listener)
+    {
+        if (application instanceof GISApplication) {
+            ((GISApplication) application).getMapAsync(listener);
+        } else {
+            listener.onMapReady((MapDrawable) application.getMap());
         }
     }
 
@@ -560,13 +605,25 @@ public class NGWSettingsFragment
     protected static List<INGWLayer> getLayersForAccount(
             final IGISApplication application,
             Account account)
+    {
+        if (application == null) {
+            return new ArrayList<>();
+        }
+
+        return getLayersForAccount(application.getMap(), account);
+    }
+
+
+    protected static List<INGWLayer> getLayersForAccount(
+            MapBase map,
+            Account account)
     {
         List<INGWLayer> out = new ArrayList<>();
-        if (application == null || account == null) {
+        if (map == null || account == null) {
             return out;
         }
 
-        MapContentProviderHelper.getLayersByAccount(application.getMap(), account.name, out);
+        MapContentProviderHelper.getLayersByAccount(map, account.name, out);
         return out;
     }
 
@@ -0,0 +1,436 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2021 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextgis.maplibui.mapui;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.graphics.Region;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.nextgis.maplib.datasource.GeoEnvelope;
+import com.nextgis.maplib.datasource.GeoPoint;
+import com.nextgis.maplib.map.MapDrawable;
+
+import java.util.concurrent.Future;
+
+
+/**
+ * A low resolution level under the map buffer. It covers a larger extent than the view and is
+ * rendered in background by the {@link MapSnapshotter} after the map settled, so the content
+ * around the view is available before it is seen, e.g. while zooming out the level fills the
+ * margins around the scaled buffer instead of the empty background. The level bitmaps are reserved
+ * in the shared {@link MemoryBudget}. As the snapshotter map is loaded from the map file, the view
+ * neither updates nor draws the level while it changes the displayed layers, e.g. during an edit.
+ */
+public class BufferPyramid
+{
+    //level extent to view extent ratio
+    public static final float EXTENT_FACTOR   = 3;
+    //level resolution to view resolution ratio
+    public static final float LEVEL_SCALE     = 0.25f;
+    //the level is not kept if the memory limit allows only a lower resolution
+    public static final float MIN_LEVEL_SCALE = 0.0625f;
+
+    protected final Paint        mPaint;
+    protected final RectF        mScreenRect;
+    protected final RectF        mViewRect;
+    protected final MemoryBudget mBudget;
+    protected final Handler      mHandler;
+    protected       long         mMemoryLimit;
+    protected       Level        mLevel;
+    protected       boolean      mIsScreenRectValid;
+    protected       Future<?>    mBuild;
+    protected       GeoEnvelope  mBuildExtent;
+    protected       int          mGeneration;
+
+    protected long mBuildCount;
+    protected long mSkipCount;
+
+
+    /**
+     * @param budget      the memory the bitmaps are reserved in
+     * @param memoryLimit the most of the budget the level may use in bytes
+     */
+    public BufferPyramid(
+            MemoryBudget budget,
+            long memoryLimit)
+    {
+        mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        mScreenRect = new RectF();
+        mViewRect = new RectF();
+        mBudget = budget;
+        mHandler = new Handler(Looper.getMainLooper());
+        mMemoryLimit = memoryLimit;
+    }
+
+
+    /**
+     * Render the level around the current map extent in background. Called on the UI thread after
+     * the map is rendered, a build for the previous extent is cancelled.
+     *
+     * @param snapshotter renders the level, its map has to be loaded from the map file of the view
+     * @return false if the level is not rendered
+     */
+    public boolean update(
+            MapSnapshotter snapshotter,
+            MapDrawable map,
+            int width,
+            int height)
+    {
+        float scale = getLevelScale(width, height);
+        if (null == snapshotter || null == map || scale <= 0) {
+            clear();
+            return false;
+        }
+
+        GeoEnvelope bounds = map.getCurrentBounds();
+        double dx = bounds.width() * (EXTENT_FACTOR - 1) / 2;
+        double dy = bounds.height() * (EXTENT_FACTOR - 1) / 2;
+        final GeoEnvelope levelExtent = new GeoEnvelope(
+                bounds.getMinX() - dx, bounds.getMaxX() + dx,
+                bounds.getMinY() - dy, bounds.getMaxY() + dy);
+        if (null != mBuild && isSameExtent(mBuildExtent, levelExtent) ||
+            null == mBuild && null != mLevel && isSameExtent(mLevel.mExtent, levelExtent)) {
+            // e.g. a redraw of the same extent, a layer change clears the level
+            mSkipCount++;
+            return false;
+        }
+
+        final int levelWidth = (int) Math.ceil(width * scale * EXTENT_FACTOR);
+        final int levelHeight = (int) Math.ceil(height * scale * EXTENT_FACTOR);
+        final MapSnapshotter renderer = snapshotter;
+        cancel();
+        final int generation = ++mGeneration;
+        mBuildExtent = levelExtent;
+        mBuild = snapshotter.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                final Level level = build(renderer, levelExtent, levelWidth, levelHeight);
+                mHandler.post(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        onBuilt(level, generation);
+                    }
+                });
+            }
+        });
+
+        return true;
+    }
+
+
+    /**
+     * Render the level on the worker thread of the snapshotter
+     *
+     * @return the level or null if it does not fit the memory or the render was interrupted
+     */
+    protected Level build(
+            MapSnapshotter snapshotter,
+            GeoEnvelope levelExtent,
+            int levelWidth,
+            int levelHeight)
+    {
+        if (Thread.currentThread().isInterrupted()) {
+            return null;
+        }
+
+        Bitmap bitmap = createBitmap(levelWidth, levelHeight);
+        if (null == bitmap) {
+            return null;
+        }
+
+        if (!snapshotter.render(new Canvas(bitmap), levelExtent, levelWidth, levelHeight, null)) {
+            recycle(bitmap);
+            return null;
+        }
+
+        return new Level(bitmap, levelExtent);
+    }
+
+
+    /**
+     * Replace the level by the rendered one, called on the UI thread
+     */
+    protected void onBuilt(
+            Level level,
+            int generation)
+    {
+        if (generation != mGeneration) {
+            // the extent or the layers changed meanwhile
+            if (null != level) {
+                recycle(level.mBitmap);
+            }
+            return;
+        }
+
+        mBuild = null;
+        if (null == level) {
+            return;
+        }
+
+        if (null != mLevel) {
+            recycle(mLevel.mBitmap);
+        }
+        mLevel = level;
+        mIsScreenRectValid = false;
+        mBuildCount++;
+    }
+
+
+    /**
+     * Stop the level render, e.g. while the user interacts, the current level is kept
+     */
+    public void cancel()
+    {
+        if (null != mBuild) {
+            mBuild.cancel(true);
+            mBuild = null;
+        }
+    }
+
+
+    protected static boolean isSameExtent(
+            GeoEnvelope first,
+            GeoEnvelope second)
+    {
+        return null != first && null != second && first.getMinX() == second.getMinX() &&
+               first.getMaxX() == second.getMaxX() && first.getMinY() == second.getMinY() &&
+               first.getMaxY() == second.getMaxY();
+    }
+
+
+    /**
+     * Allocate a bitmap reserved in the budget, called on the UI and the worker thread
+     *
+     * @return the bitmap or null if it does not fit
+     */
+    protected Bitmap createBitmap(
+            int width,
+            int height)
+    {
+        long bytes = MemoryBudget.getByteCount(width, height);
+        if (!mBudget.reserve(bytes)) {
+            return null;
+        }
+
+        try {
+            return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        } catch (OutOfMemoryError e) {
+            e.printStackTrace();
+            mBudget.release(bytes);
+            return null;
+        }
+    }
+
+
+    protected void recycle(Bitmap bitmap)
+    {
+        if (null != bitmap) {
+            mBudget.release(MemoryBudget.getByteCount(bitmap.getWidth(), bitmap.getHeight()));
+            bitmap.recycle();
+        }
+    }
+
+
+    /**
+     * @param extent extent in map coordinates
+     * @param rect   the extent in pixels of a bitmap covering the level extent
+     */
+    protected static void toLevelRect(
+            GeoEnvelope extent,
+            GeoEnvelope levelExtent,
+            int levelWidth,
+            int levelHeight,
+            RectF rect)
+    {
+        double scaleX = levelWidth / levelExtent.width();
+        double scaleY = levelHeight / levelExtent.height();
+        rect.set((float) ((extent.getMinX() - levelExtent.getMinX()) * scaleX),
+                (float) ((levelExtent.getMaxY() - extent.getMaxY()) * scaleY),
+                (float) ((extent.getMaxX() - levelExtent.getMinX()) * scaleX),
+                (float) ((levelExtent.getMaxY() - extent.getMinY()) * scaleY));
+    }
+
+
+    /**
+     * @return the level resolution which fits the memory limit or 0
+     */
+    protected float getLevelScale(
+            int width,
+            int height)
+    {
+        if (width <= 0 || height <= 0) {
+            return 0;
+        }
+
+        // two levels while a new one is rendered, the memory of the kept one is counted
+        long kept = null == mLevel ? 0 : mLevel.mBitmap.getByteCount();
+        long memory = Math.min(mMemoryLimit, mBudget.getAvailableBytes() + kept);
+        double pixels = (double) width * height * 2 * EXTENT_FACTOR * EXTENT_FACTOR;
+        float scale = (float) Math.min(LEVEL_SCALE, Math.sqrt(memory / (pixels * 4)));
+        return scale < MIN_LEVEL_SCALE ? 0 : scale;
+    }
+
+
+    /**
+     * Draw the level around the view buffer transformed by the matrix. Called on the UI thread,
+     * the map extent must be the one the buffer was rendered at.
+     *
+     * @return false if there is no level
+     */
+    public boolean drawMargins(
+            Canvas canvas,
+            MapDrawable map,
+            Matrix matrix,
+            int width,
+            int height)
+    {
+        Level level = mLevel;
+        if (null == level) {
+            return false;
+        }
+
+        if (!mIsScreenRectValid) {
+            GeoPoint[] corners = new GeoPoint[] {
+                    new GeoPoint(level.mExtent.getMinX(), level.mExtent.getMaxY()),
+                    new GeoPoint(level.mExtent.getMaxX(), level.mExtent.getMinY())};
+            float[] points = map.mapToScreen(corners);
+            mScreenRect.set(points[0], points[1], points[2], points[3]);
+            mScreenRect.sort();
+            mIsScreenRectValid = true;
+        }
+
+        mViewRect.set(0, 0, width, height);
+        matrix.mapRect(mViewRect);
+
+        canvas.save();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            canvas.clipOutRect(mViewRect);
+        } else {
+            canvas.clipRect(mViewRect, Region.Op.DIFFERENCE);
+        }
+        canvas.concat(matrix);
+        canvas.drawBitmap(level.mBitmap, null, mScreenRect, mPaint);
+        canvas.restore();
+        return true;
+    }
+
+
+    /**
+     * The map extent changed, the level position on the screen is recalculated on the next draw
+     */
+    public void onExtentChanged()
+    {
+        mIsScreenRectValid = false;
+    }
+
+
+    /**
+     * Drop the level, e.g. when a layer changed and the old content is wrong
+     */
+    public void clear()
+    {
+        // a level being rendered is recycled when the render finishes
+        mGeneration++;
+        cancel();
+        if (null != mLevel) {
+            recycle(mLevel.mBitmap);
+        }
+        mLevel = null;
+    }
+
+
+    public void recycle()
+    {
+        clear();
+    }
+
+
+    public boolean hasLevel()
+    {
+        return null != mLevel;
+    }
+
+
+    public long getMemoryLimit()
+    {
+        return mMemoryLimit;
+    }
+
+
+    /**
+     * @param memoryLimit the most of the budget the level bitmaps may use in bytes, 0 disables the
+     *                    pyramid
+     */
+    public void setMemoryLimit(long memoryLimit)
+    {
+        mMemoryLimit = memoryLimit;
+        if (memoryLimit <= 0) {
+            recycle();
+        }
+    }
+
+
+    /**
+     * @return number of levels built
+     */
+    public long getBuildCount()
+    {
+        return mBuildCount;
+    }
+
+
+    /**
+     * @return number of settled frames the level was kept for
+     */
+    public long getSkipCount()
+    {
+        return mSkipCount;
+    }
+
+
+    protected static class Level
+    {
+        protected final Bitmap      mBitmap;
+        protected final GeoEnvelope mExtent;
+
+
+        protected Level(
+                Bitmap bitmap,
+                GeoEnvelope extent)
+        {
+            mBitmap = bitmap;
+            mExtent = extent;
+        }
+    }
+}
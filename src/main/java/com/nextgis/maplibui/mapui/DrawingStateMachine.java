@@ -0,0 +1,199 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2021 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextgis.maplibui.mapui;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.nextgis.maplibui.util.ConstantsUI.DRAW_STATE_drawing;
+import static com.nextgis.maplibui.util.ConstantsUI.DRAW_STATE_drawing_noclearbk;
+import static com.nextgis.maplibui.util.ConstantsUI.DRAW_STATE_none;
+import static com.nextgis.maplibui.util.ConstantsUI.DRAW_STATE_panning;
+import static com.nextgis.maplibui.util.ConstantsUI.DRAW_STATE_panning_fling;
+import static com.nextgis.maplibui.util.ConstantsUI.DRAW_STATE_zooming;
+
+
+/**
+ * Drawing state of the map view without locks. The state changes by compare and set along the
+ * allowed transitions only:
+ * <pre>
+ * any state              -> none, drawing, drawing_noclearbk, zooming
+ * none, drawing(_noclearbk), panning_fling -> panning
+ * panning                -> panning_fling
+ * </pre>
+ * Render threads never change the state, they merge their progress into atomic flags which the UI
+ * thread takes and applies while no gesture runs.
+ */
+public class DrawingStateMachine
+{
+    public static final int STATE_COUNT = 6;
+
+    public static final int DRAW_PROGRESS_PARTIAL  = 1;
+    public static final int DRAW_PROGRESS_LAYER    = 1 << 1;
+    public static final int DRAW_PROGRESS_FINISHED = 1 << 2;
+
+    protected static final boolean[][] TRANSITIONS = new boolean[STATE_COUNT][STATE_COUNT];
+
+    static {
+        for (int from = 0; from < STATE_COUNT; from++) {
+            TRANSITIONS[from][from] = true;
+            TRANSITIONS[from][DRAW_STATE_none] = true;
+            TRANSITIONS[from][DRAW_STATE_drawing] = true;
+            TRANSITIONS[from][DRAW_STATE_drawing_noclearbk] = true;
+            TRANSITIONS[from][DRAW_STATE_zooming] = true;
+        }
+
+        TRANSITIONS[DRAW_STATE_none][DRAW_STATE_panning] = true;
+        TRANSITIONS[DRAW_STATE_drawing][DRAW_STATE_panning] = true;
+        TRANSITIONS[DRAW_STATE_drawing_noclearbk][DRAW_STATE_panning] = true;
+        TRANSITIONS[DRAW_STATE_panning_fling][DRAW_STATE_panning] = true;
+        TRANSITIONS[DRAW_STATE_panning][DRAW_STATE_panning_fling] = true;
+    }
+
+    protected final AtomicInteger mState;
+    protected final AtomicInteger mDrawProgress;
+    protected final AtomicLong    mTransitionCount;
+    protected final AtomicLong    mRejectedCount;
+
+
+    public DrawingStateMachine(int state)
+    {
+        mState = new AtomicInteger(state);
+        mDrawProgress = new AtomicInteger(0);
+        mTransitionCount = new AtomicLong(0);
+        mRejectedCount = new AtomicLong(0);
+    }
+
+
+    public static boolean isAllowed(
+            int from,
+            int to)
+    {
+        return from >= 0 && from < STATE_COUNT && to >= 0 && to < STATE_COUNT &&
+               TRANSITIONS[from][to];
+    }
+
+
+    /**
+     * @return true if the map is moved by a gesture, the map buffer is owned by the UI thread then
+     */
+    public static boolean isGesture(int state)
+    {
+        return state == DRAW_STATE_panning || state == DRAW_STATE_panning_fling ||
+               state == DRAW_STATE_zooming;
+    }
+
+
+    public int get()
+    {
+        return mState.get();
+    }
+
+
+    public boolean isGesture()
+    {
+        return isGesture(mState.get());
+    }
+
+
+    /**
+     * Change the state if it is still the expected one and the transition is allowed
+     *
+     * @return true if the state was changed
+     */
+    public boolean transition(
+            int from,
+            int to)
+    {
+        if (isAllowed(from, to) && mState.compareAndSet(from, to)) {
+            mTransitionCount.incrementAndGet();
+            return true;
+        }
+
+        mRejectedCount.incrementAndGet();
+        return false;
+    }
+
+
+    /**
+     * Change the state from whatever it is now, if the transition is allowed
+     *
+     * @return true if the state was changed
+     */
+    public boolean moveTo(int to)
+    {
+        while (true) {
+            int from = mState.get();
+            if (!isAllowed(from, to)) {
+                mRejectedCount.incrementAndGet();
+                return false;
+            }
+
+            if (mState.compareAndSet(from, to)) {
+                mTransitionCount.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+
+    /**
+     * Merge render progress flags. Safe to call from any thread.
+     *
+     * @param flags DRAW_PROGRESS_ flags
+     *
+     * @return true if no progress was pending, the caller has to schedule {@link
+     * #takeDrawProgress()} then
+     */
+    public boolean addDrawProgress(int flags)
+    {
+        while (true) {
+            int previous = mDrawProgress.get();
+            if (mDrawProgress.compareAndSet(previous, previous | flags)) {
+                return previous == 0;
+            }
+        }
+    }
+
+
+    /**
+     * @return the pending render progress flags, they are cleared
+     */
+    public int takeDrawProgress()
+    {
+        return mDrawProgress.getAndSet(0);
+    }
+
+
+    public long getTransitionCount()
+    {
+        return mTransitionCount.get();
+    }
+
+
+    public long getRejectedCount()
+    {
+        return mRejectedCount.get();
+    }
+}
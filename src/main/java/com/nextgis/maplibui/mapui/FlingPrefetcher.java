@@ -0,0 +1,264 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2021 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextgis.maplibui.mapui;
+
+import android.os.Process;
+import android.util.Log;
+
+import com.nextgis.maplib.api.ILayer;
+import com.nextgis.maplib.datasource.GeoEnvelope;
+import com.nextgis.maplib.datasource.TileItem;
+import com.nextgis.maplib.map.Layer;
+import com.nextgis.maplib.map.LayerGroup;
+import com.nextgis.maplib.map.RemoteTMSLayer;
+import com.nextgis.maplib.util.Constants;
+import com.nextgis.maplib.util.MapUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import static com.nextgis.maplib.util.Constants.DRAWING_SEPARATE_THREADS;
+import static com.nextgis.maplib.util.Constants.KEEP_ALIVE_TIME;
+import static com.nextgis.maplib.util.Constants.KEEP_ALIVE_TIME_UNIT;
+import static com.nextgis.maplib.util.Constants.TAG;
+
+
+/**
+ * Loads the data of the area a fling will stop at while the fling is running. Missing tiles of the
+ * visible remote TMS layers are downloaded, so the redraw after the fling finds them in the tile
+ * cache. Vector layers are not prefetched, their index is in memory and the geometries are read by
+ * the render itself. The work runs on background priority threads and is dropped as soon as the
+ * gesture is interrupted or another prefetch starts, or when a render of another area makes it
+ * obsolete, see {@link RenderGeneration}. The threads are stopped with {@link #shutdown()}.
+ */
+public class FlingPrefetcher
+{
+    // do not flood the network with a long fling at a high zoom
+    public static final int MAX_PREFETCH_TILES = 64;
+
+    protected       ThreadPoolExecutor mThreadPool;
+    protected final List<Future>       mFutures;
+    protected final RenderGeneration   mRenderGeneration;
+    protected volatile int             mGeneration;
+
+    protected long mStartCount;
+    protected long mCancelCount;
+    protected long mTileCount;
+
+
+    public FlingPrefetcher()
+    {
+        this(new RenderGeneration());
+    }
+
+
+    /**
+     * @param renderGeneration the generation of the view renders
+     */
+    public FlingPrefetcher(RenderGeneration renderGeneration)
+    {
+        mRenderGeneration = renderGeneration;
+        mFutures = new ArrayList<>();
+    }
+
+
+    /**
+     * Start loading the data of the area, the previous prefetch is cancelled. Called on the UI
+     * thread.
+     *
+     * @param map    the map
+     * @param extent the predicted extent in map coordinates
+     * @param zoom   the zoom level of the extent
+     */
+    public void start(
+            LayerGroup map,
+            final GeoEnvelope extent,
+            float zoom)
+    {
+        cancel();
+        if (null == map || null == extent || !extent.isInit()) {
+            return;
+        }
+
+        mStartCount++;
+        final int generation = mGeneration;
+        final int renderGeneration = mRenderGeneration.get();
+        List<ILayer> layers = new ArrayList<>();
+        collectLayers(map, layers);
+
+        int tileCount = 0;
+        for (ILayer layer : layers) {
+            if (layer instanceof RemoteTMSLayer) {
+                final RemoteTMSLayer tmsLayer = (RemoteTMSLayer) layer;
+                List<TileItem> tiles = MapUtil.getTileItems(extent, zoom, tmsLayer.getTMSType());
+                for (final TileItem tile : tiles) {
+                    if (tileCount++ >= MAX_PREFETCH_TILES) {
+                        break;
+                    }
+
+                    submit(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            if (isCancelled(generation) || mRenderGeneration.skipIfObsolete(
+                                    RenderGeneration.WORK_TILE, renderGeneration, extent)) {
+                                return;
+                            }
+
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            if (tmsLayer.downloadTile(tile, false)) {
+                                onTileLoaded();
+                            }
+                        }
+                    });
+                }
+            }
+        }
+
+        if (Constants.DEBUG_MODE) {
+            Log.d(TAG, "FlingPrefetcher: " + mFutures.size() + " tasks for " + extent.toString());
+        }
+    }
+
+
+    protected void collectLayers(
+            LayerGroup group,
+            List<ILayer> layers)
+    {
+        for (int i = 0; i < group.getLayerCount(); i++) {
+            ILayer layer = group.getLayer(i);
+            if (layer instanceof Layer && !((Layer) layer).isVisible()) {
+                continue;
+            }
+
+            if (layer instanceof LayerGroup) {
+                collectLayers((LayerGroup) layer, layers);
+            } else {
+                layers.add(layer);
+            }
+        }
+    }
+
+
+    protected void submit(Runnable task)
+    {
+        if (null == mThreadPool) {
+            // the core threads are the maximum, as the queue is unbounded no more are started
+            mThreadPool = new ThreadPoolExecutor(DRAWING_SEPARATE_THREADS,
+                    DRAWING_SEPARATE_THREADS, KEEP_ALIVE_TIME, KEEP_ALIVE_TIME_UNIT,
+                    new LinkedBlockingQueue<Runnable>());
+            mThreadPool.allowCoreThreadTimeOut(true);
+        }
+        mFutures.add(mThreadPool.submit(task));
+    }
+
+
+    protected boolean isCancelled(int generation)
+    {
+        return generation != mGeneration || Thread.currentThread().isInterrupted();
+    }
+
+
+    protected synchronized void onTileLoaded()
+    {
+        mTileCount++;
+    }
+
+
+    /**
+     * Drop the running prefetch. Called on the UI thread.
+     */
+    public void cancel()
+    {
+        if (mFutures.isEmpty()) {
+            return;
+        }
+
+        mGeneration++;
+        boolean isRunning = false;
+        for (Future future : mFutures) {
+            if (future.cancel(true)) {
+                isRunning = true;
+            }
+        }
+        mFutures.clear();
+        if (null != mThreadPool) {
+            mThreadPool.getQueue().clear();
+        }
+
+        if (isRunning) {
+            mCancelCount++;
+        }
+    }
+
+
+    /**
+     * Drop the running prefetch and stop the threads, e.g. when the view is detached. A later
+     * prefetch starts new threads. Called on the UI thread.
+     */
+    public void shutdown()
+    {
+        cancel();
+        if (null != mThreadPool) {
+            mThreadPool.shutdownNow();
+            mThreadPool = null;
+        }
+    }
+
+
+    public boolean isRunning()
+    {
+        for (Future future : mFutures) {
+            if (!future.isDone()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    public long getStartCount()
+    {
+        return mStartCount;
+    }
+
+
+    /**
+     * @return number of prefetches cancelled before they finished
+     */
+    public long getCancelCount()
+    {
+        return mCancelCount;
+    }
+
+
+    public synchronized long getTileCount()
+    {
+        return mTileCount;
+    }
+}
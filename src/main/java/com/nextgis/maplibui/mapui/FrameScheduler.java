@@ -0,0 +1,333 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2021 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextgis.maplibui.mapui;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+import android.view.Display;
+import android.view.View;
+import android.view.WindowManager;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Collects redraw requests from any thread (draw progress, overlay changes, gestures) and turns
+ * them into at most one invalidate per display frame. Requests which arrive while a frame is
+ * already pending are dropped as stale. On API 16+ frames are aligned to vsync with the
+ * {@link Choreographer}, on older devices the main looper is used. The whole view is invalidated,
+ * as the view is hardware accelerated and the rectangle of a partial invalidate is ignored.
+ */
+public class FrameScheduler
+{
+    protected static final long NANOS_PER_SECOND     = 1000000000L;
+    protected static final long DEFAULT_FRAME_NANOS  = NANOS_PER_SECOND / 60;
+
+    /**
+     * Frame statistics listener
+     */
+    public interface OnFrameStatsListener
+    {
+        /**
+         * Called when one or more vsyncs passed between a redraw request and the frame serving it
+         *
+         * @param droppedFrames number of missed frames
+         */
+        void onFramesDropped(int droppedFrames);
+
+        /**
+         * Called when a frame started noticeably later than its vsync
+         *
+         * @param lateNanos delay from vsync to the frame callback
+         */
+        void onFrameLate(long lateNanos);
+    }
+
+
+    protected final View                       mView;
+    protected final Handler                    mHandler;
+    protected final AtomicBoolean              mFramePending;
+    protected final AtomicLong                 mFirstRequestNanos;
+    protected final List<OnFrameStatsListener> mListeners;
+    protected final long                       mFrameIntervalNanos;
+    protected       Object                     mFrameCallback;
+    protected       Runnable                   mFrameRunnable;
+    protected volatile boolean                 mIsEnabled;
+
+    protected final AtomicLong mRequestCount;
+    protected final AtomicLong mStaleRequestCount;
+    protected final AtomicLong mFrameCount;
+    protected final AtomicLong mDroppedFrameCount;
+    protected final AtomicLong mLateFrameCount;
+
+
+    public FrameScheduler(View view)
+    {
+        mView = view;
+        mHandler = new Handler(Looper.getMainLooper());
+        mFramePending = new AtomicBoolean(false);
+        mFirstRequestNanos = new AtomicLong(0);
+        mListeners = new CopyOnWriteArrayList<>();
+        mRequestCount = new AtomicLong(0);
+        mStaleRequestCount = new AtomicLong(0);
+        mFrameCount = new AtomicLong(0);
+        mDroppedFrameCount = new AtomicLong(0);
+        mLateFrameCount = new AtomicLong(0);
+        mFrameIntervalNanos = getFrameInterval(view.getContext());
+        mIsEnabled = true;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            mFrameCallback = createFrameCallback();
+        } else {
+            mFrameRunnable = new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    onFrame(System.nanoTime());
+                }
+            };
+        }
+    }
+
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    protected Object createFrameCallback()
+    {
+        return new Choreographer.FrameCallback()
+        {
+            @Override
+            public void doFrame(long frameTimeNanos)
+            {
+                onFrame(frameTimeNanos);
+            }
+        };
+    }
+
+
+    protected static long getFrameInterval(Context context)
+    {
+        WindowManager windowManager =
+                (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+        if (null == windowManager) {
+            return DEFAULT_FRAME_NANOS;
+        }
+
+        Display display = windowManager.getDefaultDisplay();
+        float refreshRate = null == display ? 0 : display.getRefreshRate();
+        if (refreshRate < 10) {
+            return DEFAULT_FRAME_NANOS;
+        }
+
+        return (long) (NANOS_PER_SECOND / refreshRate);
+    }
+
+
+    /**
+     * Request a redraw of the view on the next display frame. Safe to call from any thread.
+     */
+    public void requestFrame()
+    {
+        mRequestCount.incrementAndGet();
+
+        if (!mIsEnabled) {
+            mStaleRequestCount.incrementAndGet();
+            return;
+        }
+
+        if (!mFramePending.compareAndSet(false, true)) {
+            // the pending frame will serve this request too
+            mStaleRequestCount.incrementAndGet();
+            return;
+        }
+
+        mFirstRequestNanos.set(System.nanoTime());
+        postFrame();
+    }
+
+
+    protected void postFrame()
+    {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            postFrameCallback();
+        } else {
+            mHandler.post(mFrameRunnable);
+        }
+    }
+
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    protected void postFrameCallback()
+    {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            Choreographer.getInstance().postFrameCallback(
+                    (Choreographer.FrameCallback) mFrameCallback);
+        } else {
+            // the choreographer is per looper, so register from the main thread
+            mHandler.post(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    Choreographer.getInstance().postFrameCallback(
+                            (Choreographer.FrameCallback) mFrameCallback);
+                }
+            });
+        }
+    }
+
+
+    protected void onFrame(long frameTimeNanos)
+    {
+        if (!mFramePending.getAndSet(false)) {
+            return;
+        }
+
+        long requestNanos = mFirstRequestNanos.get();
+        long now = System.nanoTime();
+        mFrameCount.incrementAndGet();
+
+        if (requestNanos > 0 && frameTimeNanos > requestNanos) {
+            int dropped = (int) ((frameTimeNanos - requestNanos) / mFrameIntervalNanos);
+            if (dropped > 0) {
+                mDroppedFrameCount.addAndGet(dropped);
+                for (OnFrameStatsListener listener : mListeners) {
+                    listener.onFramesDropped(dropped);
+                }
+            }
+        }
+
+        long late = now - frameTimeNanos;
+        if (late > mFrameIntervalNanos / 2) {
+            mLateFrameCount.incrementAndGet();
+            for (OnFrameStatsListener listener : mListeners) {
+                listener.onFrameLate(late);
+            }
+        }
+
+        onInvalidate();
+    }
+
+
+    protected void onInvalidate()
+    {
+        mView.invalidate();
+    }
+
+
+    /**
+     * Drop any pending frame and ignore new requests until enabled again
+     *
+     * @param enabled true to accept redraw requests
+     */
+    public void setEnabled(boolean enabled)
+    {
+        mIsEnabled = enabled;
+        if (!enabled) {
+            cancel();
+        }
+    }
+
+
+    public void cancel()
+    {
+        mFramePending.set(false);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            mHandler.removeCallbacks(mFrameRunnable);
+        }
+    }
+
+
+    public boolean isFramePending()
+    {
+        return mFramePending.get();
+    }
+
+
+    public long getFrameIntervalNanos()
+    {
+        return mFrameIntervalNanos;
+    }
+
+
+    public void addListener(OnFrameStatsListener listener)
+    {
+        if (!mListeners.contains(listener)) {
+            mListeners.add(listener);
+        }
+    }
+
+
+    public void removeListener(OnFrameStatsListener listener)
+    {
+        mListeners.remove(listener);
+    }
+
+
+    public long getRequestCount()
+    {
+        return mRequestCount.get();
+    }
+
+
+    public long getStaleRequestCount()
+    {
+        return mStaleRequestCount.get();
+    }
+
+
+    public long getFrameCount()
+    {
+        return mFrameCount.get();
+    }
+
+
+    public long getDroppedFrameCount()
+    {
+        return mDroppedFrameCount.get();
+    }
+
+
+    public long getLateFrameCount()
+    {
+        return mLateFrameCount.get();
+    }
+
+
+    public void resetStats()
+    {
+        mRequestCount.set(0);
+        mStaleRequestCount.set(0);
+        mFrameCount.set(0);
+        mDroppedFrameCount.set(0);
+        mLateFrameCount.set(0);
+    }
+}
@@ -0,0 +1,507 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2021 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.nextgis.maplibui.mapui;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.net.TrafficStats;
+import android.os.Process;
+import android.support.v4.net.ConnectivityManagerCompat;
+import android.util.Log;
+
+import com.nextgis.maplib.api.ILayer;
+import com.nextgis.maplib.datasource.GeoEnvelope;
+import com.nextgis.maplib.datasource.GeoPoint;
+import com.nextgis.maplib.datasource.TileItem;
+import com.nextgis.maplib.map.Layer;
+import com.nextgis.maplib.map.LayerGroup;
+import com.nextgis.maplib.map.RemoteTMSLayer;
+import com.nextgis.maplib.util.Constants;
+import com.nextgis.maplib.util.MapUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import static com.nextgis.maplib.util.Constants.KEEP_ALIVE_TIME;
+import static com.nextgis.maplib.util.Constants.KEEP_ALIVE_TIME_UNIT;
+import static com.nextgis.maplib.util.Constants.TAG;
+
+
+/**
+ * Loads the tiles around the view while the map is idle, so a small pan or a zoom step finds them
+ * in the cache. The tiles of the visible remote TMS layers are downloaded for a ring around the
+ * current extent, without the tiles of the view which the map renders itself, then for the next
+ * zoom level out over the ring and for the next zoom level in over the extent. The tiles of a
+ * level are loaded from the view center outwards. Only the downloaded tiles are charged to the
+ * session tile and byte budget, which is shared between the levels so each of them is loaded in
+ * part at least. A session is dropped as soon as the user touches the map. On a metered network
+ * nothing is loaded unless the policy allows it.
+ */
+public class IdlePrefetcher
+{
+    public static final int NETWORK_ANY       = 0;
+    public static final int NETWORK_UNMETERED = 1;
+    public static final int NETWORK_NONE      = 2;
+
+    //time the view has to be still before the prefetch ms
+    public static final int  DEFAULT_DELAY       = 2000;
+    public static final int  DEFAULT_TILE_BUDGET = 96;
+    public static final long DEFAULT_BYTE_BUDGET = 4 * 1024 * 1024;
+    //ring width in view sizes around the extent
+    public static final float RING_SIZE          = 1;
+    //counted per tile if the traffic of the application is not available
+    protected static final long ESTIMATED_TILE_BYTES = 20 * 1024;
+
+    protected final Context            mContext;
+    protected       ThreadPoolExecutor mThreadPool;
+    protected final RenderGeneration   mRenderGeneration;
+    protected       Future             mFuture;
+    protected volatile int             mGeneration;
+    protected volatile int             mDelay;
+    protected volatile int             mTileBudget;
+    protected volatile long            mByteBudget;
+    protected volatile int             mNetworkPolicy;
+
+    protected long mSessionCount;
+    protected long mPauseCount;
+    protected long mMeteredSkipCount;
+    protected long mTileCount;
+    protected long mByteCount;
+
+
+    public IdlePrefetcher(
+            Context context,
+            RenderGeneration renderGeneration)
+    {
+        mContext = context.getApplicationContext();
+        mRenderGeneration = renderGeneration;
+        mDelay = DEFAULT_DELAY;
+        mTileBudget = DEFAULT_TILE_BUDGET;
+        mByteBudget = DEFAULT_BYTE_BUDGET;
+        mNetworkPolicy = NETWORK_UNMETERED;
+    }
+
+
+    /**
+     * Start loading the neighbourhood of the extent, the previous session is dropped. Called on the
+     * UI thread when the view has been idle for the delay.
+     *
+     * @param extent the view extent in map coordinates
+     */
+    public void start(
+            LayerGroup map,
+            GeoEnvelope extent,
+            final float zoom,
+            float minZoom,
+            float maxZoom)
+    {
+        cancel();
+        if (null == map || null == extent || !extent.isInit() || mTileBudget <= 0 ||
+            mByteBudget <= 0) {
+            return;
+        }
+
+        if (!isNetworkAllowed()) {
+            mMeteredSkipCount++;
+            return;
+        }
+
+        List<RemoteTMSLayer> layers = new ArrayList<>();
+        collectLayers(map, layers);
+        if (layers.isEmpty()) {
+            return;
+        }
+
+        double dx = extent.width() * RING_SIZE;
+        double dy = extent.height() * RING_SIZE;
+        final GeoEnvelope ring = new GeoEnvelope(extent.getMinX() - dx, extent.getMaxX() + dx,
+                extent.getMinY() - dy, extent.getMaxY() + dy);
+        final GeoEnvelope view = new GeoEnvelope(
+                extent.getMinX(), extent.getMaxX(), extent.getMinY(), extent.getMaxY());
+
+        // the order is the priority, the current level first
+        final List<RemoteTMSLayer> tmsLayers = layers;
+        final List<GeoEnvelope> extents = new ArrayList<>();
+        final List<Float> zooms = new ArrayList<>();
+        extents.add(ring);
+        zooms.add(zoom);
+        if (zoom - 1 >= minZoom) {
+            extents.add(ring);
+            zooms.add(zoom - 1);
+        }
+        if (zoom + 1 <= maxZoom) {
+            extents.add(view);
+            zooms.add(zoom + 1);
+        }
+
+        mSessionCount++;
+        final int generation = mGeneration;
+        final int renderGeneration = mRenderGeneration.get();
+        if (null == mThreadPool) {
+            // one thread, the tiles are loaded in priority order within the budget
+            mThreadPool = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_TIME, KEEP_ALIVE_TIME_UNIT,
+                    new LinkedBlockingQueue<Runnable>());
+            mThreadPool.allowCoreThreadTimeOut(true);
+        }
+        mFuture = mThreadPool.submit(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                load(tmsLayers, view, zoom, extents, zooms, generation, renderGeneration);
+            }
+        });
+    }
+
+
+    /**
+     * @param view  the view extent, its tiles at the view zoom are not loaded
+     * @param zoom  the view zoom
+     * @param zooms the zoom of each extent, the current one first
+     */
+    protected void load(
+            List<RemoteTMSLayer> layers,
+            GeoEnvelope view,
+            float zoom,
+            List<GeoEnvelope> extents,
+            List<Float> zooms,
+            int generation,
+            int renderGeneration)
+    {
+        int tiles = 0;
+        long bytes = 0;
+        int uid = Process.myUid();
+        GeoPoint center = view.getCenter();
+
+        for (int i = 0; i < extents.size(); i++) {
+            // the rest of the budget is shared by the levels left, a level leaves what it does
+            // not need to the next ones
+            int levels = extents.size() - i;
+            int tileLimit = tiles + (mTileBudget - tiles) / levels;
+            long byteLimit = bytes + (mByteBudget - bytes) / levels;
+
+            for (RemoteTMSLayer layer : layers) {
+                List<TileItem> items = getTiles(layer, extents.get(i), zooms.get(i), center,
+                        zooms.get(i) == zoom ? view : null);
+                for (TileItem tile : items) {
+                    if (isCancelled(generation)) {
+                        return;
+                    }
+
+                    if (tiles >= tileLimit || bytes >= byteLimit) {
+                        if (Constants.DEBUG_MODE) {
+                            Log.d(TAG, "IdlePrefetcher: budget of zoom " + zooms.get(i) +
+                                       " is spent, " + tiles + " tiles, " + bytes + " bytes");
+                        }
+                        break;
+                    }
+
+                    if (mRenderGeneration.skipIfObsolete(
+                            RenderGeneration.WORK_TILE, renderGeneration, extents.get(i))) {
+                        return;
+                    }
+
+                    long received = TrafficStats.getUidRxBytes(uid);
+                    boolean isLoaded = layer.downloadTile(tile, false);
+                    long after = TrafficStats.getUidRxBytes(uid);
+                    boolean isTrafficKnown = received != TrafficStats.UNSUPPORTED &&
+                                             after != TrafficStats.UNSUPPORTED;
+                    long size = isTrafficKnown
+                                ? Math.max(0, after - received)
+                                : (isLoaded ? ESTIMATED_TILE_BYTES : 0);
+
+                    // a tile found in the cache costs nothing
+                    if (size > 0) {
+                        tiles++;
+                        bytes += size;
+                        onTileLoaded(isLoaded ? 1 : 0, size);
+                    }
+                }
+            }
+        }
+    }
+
+
+    /**
+     * @param exclude the tiles intersecting it are skipped, may be null
+     * @return the tiles of the extent ordered by the distance of their center from the point
+     */
+    protected List<TileItem> getTiles(
+            RemoteTMSLayer layer,
+            GeoEnvelope extent,
+            float zoom,
+            final GeoPoint center,
+            GeoEnvelope exclude)
+    {
+        List<TileItem> items = MapUtil.getTileItems(extent, zoom, layer.getTMSType());
+        List<TileItem> tiles = new ArrayList<>(items.size());
+        for (TileItem tile : items) {
+            if (null == exclude || !isInside(tile.getEnvelope(), exclude)) {
+                tiles.add(tile);
+            }
+        }
+
+        Collections.sort(tiles, new Comparator<TileItem>()
+        {
+            @Override
+            public int compare(
+                    TileItem lhs,
+                    TileItem rhs)
+            {
+                return Double.compare(getDistance(lhs, center), getDistance(rhs, center));
+            }
+        });
+        return tiles;
+    }
+
+
+    /**
+     * @return true if the tile overlaps the view by more than an edge, so it is drawn by the map
+     */
+    protected static boolean isInside(
+            GeoEnvelope tile,
+            GeoEnvelope view)
+    {
+        return tile.getMinX() < view.getMaxX() && tile.getMaxX() > view.getMinX() &&
+               tile.getMinY() < view.getMaxY() && tile.getMaxY() > view.getMinY();
+    }
+
+
+    protected static double getDistance(
+            TileItem tile,
+            GeoPoint point)
+    {
+        GeoPoint center = tile.getEnvelope().getCenter();
+        double dx = center.getX() - point.getX();
+        double dy = center.getY() - point.getY();
+        return dx * dx + dy * dy;
+    }
+
+
+    protected void collectLayers(
+            LayerGroup group,
+            List<RemoteTMSLayer> layers)
+    {
+        for (int i = 0; i < group.getLayerCount(); i++) {
+            ILayer layer = group.getLayer(i);
+            if (layer instanceof Layer && !((Layer) layer).isVisible()) {
+                continue;
+            }
+
+            if (layer instanceof LayerGroup) {
+                collectLayers((LayerGroup) layer, layers);
+            } else if (layer instanceof RemoteTMSLayer) {
+                layers.add((RemoteTMSLayer) layer);
+            }
+        }
+    }
+
+
+    /**
+     * @return true if the network policy allows loading on the active network
+     */
+    public boolean isNetworkAllowed()
+    {
+        if (mNetworkPolicy == NETWORK_NONE) {
+            return false;
+        }
+
+        ConnectivityManager manager =
+                (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (null == manager) {
+            return false;
+        }
+
+        NetworkInfo info = manager.getActiveNetworkInfo();
+        if (null == info || !info.isConnected()) {
+            return false;
+        }
+
+        return mNetworkPolicy == NETWORK_ANY ||
+               !ConnectivityManagerCompat.isActiveNetworkMetered(manager);
+    }
+
+
+    protected boolean isCancelled(int generation)
+    {
+        return generation != mGeneration || Thread.currentThread().isInterrupted();
+    }
+
+
+    protected synchronized void onTileLoaded(
+            int count,
+            long bytes)
+    {
+        mTileCount += count;
+        mByteCount += bytes;
+    }
+
+
+    /**
+     * Drop the running session, e.g. when the user touches the map. Called on the UI thread.
+     */
+    public void cancel()
+    {
+        if (null == mFuture) {
+            return;
+        }
+
+        mGeneration++;
+        if (mFuture.cancel(true)) {
+            mPauseCount++;
+        }
+        mFuture = null;
+        if (null != mThreadPool) {
+            mThreadPool.getQueue().clear();
+        }
+    }
+
+
+    /**
+     * Drop the running session and stop the thread, e.g. when the view is detached. A later
+     * session starts a new thread. Called on the UI thread.
+     */
+    public void shutdown()
+    {
+        cancel();
+        if (null != mThreadPool) {
+            mThreadPool.shutdownNow();
+            mThreadPool = null;
+        }
+    }
+
+
+    public boolean isRunning()
+    {
+        return null != mFuture && !mFuture.isDone();
+    }
+
+
+    public int getDelay()
+    {
+        return mDelay;
+    }
+
+
+    /**
+     * @param delay time in ms the view has to be still before the neighbourhood is loaded
+     */
+    public void setDelay(int delay)
+    {
+        mDelay = delay;
+    }
+
+
+    public int getTileBudget()
+    {
+        return mTileBudget;
+    }
+
+
+    /**
+     * @param tileBudget maximum tiles requested in one idle session, 0 disables the prefetch
+     */
+    public void setTileBudget(int tileBudget)
+    {
+        mTileBudget = tileBudget;
+    }
+
+
+    public long getByteBudget()
+    {
+        return mByteBudget;
+    }
+
+
+    /**
+     * @param byteBudget maximum bytes received in one idle session, 0 disables the prefetch
+     */
+    public void setByteBudget(long byteBudget)
+    {
+        mByteBudget = byteBudget;
+    }
+
+
+    public int getNetworkPolicy()
+    {
+        return mNetworkPolicy;
+    }
+
+
+    /**
+     * @param networkPolicy {@link #NETWORK_ANY}, {@link #NETWORK_UNMETERED} or {@link
+     *                      #NETWORK_NONE}
+     */
+    public void setNetworkPolicy(int networkPolicy)
+    {
+        mNetworkPolicy = networkPolicy;
+        if (networkPolicy == NETWORK_NONE) {
+            cancel();
+        }
+    }
+
+
+    public long getSessionCount()
+    {
+        return mSessionCount;
+    }
+
+
+    /**
+     * @return number of sessions dropped before they finished
+     */
+    public long getPauseCount()
+    {
+        return mPauseCount;
+    }
+
+
+    /**
+     * @return number of sessions not started because of the network policy
+     */
+    public long getMeteredSkipCount()
+    {
+        return mMeteredSkipCount;
+    }
+
+
+    public synchronized long getTileCount()
+    {
+        return mTileCount;
+    }
+
+
+    public synchronized long getByteCount()
+    {
+        return mByteCount;
+    }
+}
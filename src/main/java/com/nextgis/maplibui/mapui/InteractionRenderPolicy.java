@@ -0,0 +1,229 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2021 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextgis.maplibui.mapui;
+
+import android.os.SystemClock;
+
+
+/**
+ * Decides how the map is rendered around user interaction. While a gesture runs nothing is
+ * rendered, the map buffer is only moved and scaled, and redraws requested meanwhile are deferred.
+ * A render started before the view has been idle for the idle timeout is a draft: it shows the
+ * layers which are cheap to render as soon as they are ready and does not wait for the expensive
+ * ones. The render cost of a layer is estimated by the {@link LayerRenderProfiler} from the time it
+ * took to finish in the previous renders.
+ */
+public class InteractionRenderPolicy
+{
+    //idle time after a gesture before the full quality render ms
+    public static final int  DEFAULT_IDLE_TIMEOUT         = 750;
+    //render time from which a layer is expensive ms
+    public static final long DEFAULT_EXPENSIVE_LAYER_COST = 300;
+
+    protected final LayerRenderProfiler mProfiler;
+    protected volatile int              mIdleTimeout;
+    protected volatile long             mExpensiveLayerCost;
+    protected volatile boolean          mIsInteracting;
+    protected volatile boolean          mIsDraft;
+    protected volatile long             mLastInteractionTime;
+    protected          boolean          mIsRenderDeferred;
+
+    protected long mDraftCount;
+    protected long mDeferredCount;
+
+
+    public InteractionRenderPolicy()
+    {
+        this(new LayerRenderProfiler());
+    }
+
+
+    public InteractionRenderPolicy(LayerRenderProfiler profiler)
+    {
+        mProfiler = profiler;
+        mIdleTimeout = DEFAULT_IDLE_TIMEOUT;
+        mExpensiveLayerCost = DEFAULT_EXPENSIVE_LAYER_COST;
+    }
+
+
+    public void onInteractionStart()
+    {
+        mIsInteracting = true;
+        mLastInteractionTime = SystemClock.uptimeMillis();
+    }
+
+
+    public void onInteractionEnd()
+    {
+        mIsInteracting = false;
+        mLastInteractionTime = SystemClock.uptimeMillis();
+    }
+
+
+    public boolean isInteracting()
+    {
+        return mIsInteracting;
+    }
+
+
+    /**
+     * @return true if no gesture runs and the last one ended at least the idle timeout ago
+     */
+    public boolean isIdle()
+    {
+        return !mIsInteracting &&
+               SystemClock.uptimeMillis() - mLastInteractionTime >= mIdleTimeout;
+    }
+
+
+    /**
+     * Called on the UI thread when the map render starts
+     */
+    public void onRenderStart()
+    {
+        mIsDraft = !isIdle();
+        if (mIsDraft) {
+            mDraftCount++;
+        }
+    }
+
+
+    /**
+     * @return true if the running render follows an interaction
+     */
+    public boolean isDraft()
+    {
+        return mIsDraft;
+    }
+
+
+    /**
+     * Called on a render thread when a layer is rendered
+     *
+     * @return true if the layer is expensive to render
+     */
+    public boolean onLayerRendered(int layerId)
+    {
+        return mProfiler.onLayerFinished(layerId) >= mExpensiveLayerCost;
+    }
+
+
+    /**
+     * @return the estimated render time of the layer in ms or -1 if it was not rendered yet
+     */
+    public long getLayerCost(int layerId)
+    {
+        return mProfiler.getCost(layerId);
+    }
+
+
+    public boolean isExpensive(int layerId)
+    {
+        return getLayerCost(layerId) >= mExpensiveLayerCost;
+    }
+
+
+    public void removeLayer(int layerId)
+    {
+        mProfiler.removeLayer(layerId);
+    }
+
+
+    public LayerRenderProfiler getProfiler()
+    {
+        return mProfiler;
+    }
+
+
+    /**
+     * Remember a redraw requested during a gesture, it runs when the view becomes idle
+     */
+    public void deferRender()
+    {
+        if (!mIsRenderDeferred) {
+            mDeferredCount++;
+        }
+        mIsRenderDeferred = true;
+    }
+
+
+    /**
+     * @return true if a redraw was deferred, the flag is cleared
+     */
+    public boolean takeDeferredRender()
+    {
+        boolean deferred = mIsRenderDeferred;
+        mIsRenderDeferred = false;
+        return deferred;
+    }
+
+
+    public int getIdleTimeout()
+    {
+        return mIdleTimeout;
+    }
+
+
+    /**
+     * @param idleTimeout time in ms the view has to be left alone after a gesture before the map
+     *                    is rendered in full quality
+     */
+    public void setIdleTimeout(int idleTimeout)
+    {
+        mIdleTimeout = idleTimeout;
+    }
+
+
+    public long getExpensiveLayerCost()
+    {
+        return mExpensiveLayerCost;
+    }
+
+
+    /**
+     * @param expensiveLayerCost render time in ms from which a layer is not waited for in a draft
+     */
+    public void setExpensiveLayerCost(long expensiveLayerCost)
+    {
+        mExpensiveLayerCost = expensiveLayerCost;
+    }
+
+
+    /**
+     * @return number of renders started as a draft
+     */
+    public long getDraftCount()
+    {
+        return mDraftCount;
+    }
+
+
+    /**
+     * @return number of redraws postponed until the end of a gesture
+     */
+    public long getDeferredCount()
+    {
+        return mDeferredCount;
+    }
+}
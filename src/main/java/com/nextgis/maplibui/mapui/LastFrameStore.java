@@ -0,0 +1,382 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2021 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextgis.maplibui.mapui;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import com.nextgis.maplib.api.ILayer;
+import com.nextgis.maplib.datasource.GeoEnvelope;
+import com.nextgis.maplib.map.Layer;
+import com.nextgis.maplib.map.LayerGroup;
+import com.nextgis.maplib.map.MapDrawable;
+import com.nextgis.maplib.util.Constants;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.nextgis.maplib.util.Constants.CONFIG;
+import static com.nextgis.maplib.util.Constants.TAG;
+
+
+/**
+ * Keeps the last fully rendered map frame on disk. The file starts with a tag describing what the
+ * frame shows: view size, zoom, extent and a hash of the layer set, followed by the PNG image. A
+ * frame is restored only if its tag matches the current map, so it can be shown at startup until
+ * the first render completes. The layer set hash stats the style config files, so it is computed
+ * in background from a {@link LayerSet} taken on the UI thread.
+ */
+public class LastFrameStore
+{
+    protected static final int    VERSION     = 1;
+    protected static final String FILE_PREFIX = "last_frame_";
+
+    protected final File mFile;
+
+
+    public LastFrameStore(File file)
+    {
+        mFile = file;
+    }
+
+
+    public LastFrameStore(
+            Context context,
+            MapDrawable map)
+    {
+        this(new File(context.getCacheDir(), FILE_PREFIX + map.getName()));
+    }
+
+
+    public File getFile()
+    {
+        return mFile;
+    }
+
+
+    /**
+     * Write the frame, must not be called on the UI thread
+     *
+     * @return true if the frame was written
+     */
+    public synchronized boolean write(
+            Bitmap bitmap,
+            Tag tag)
+    {
+        File temp = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(VERSION);
+            tag.write(out);
+            if (!bitmap.compress(Bitmap.CompressFormat.PNG, 100, out)) {
+                out.close();
+                out = null;
+                temp.delete();
+                return false;
+            }
+            out.close();
+            out = null;
+            return temp.renameTo(mFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+            temp.delete();
+            return false;
+        } finally {
+            close(out);
+        }
+    }
+
+
+    /**
+     * Read the frame, must not be called on the UI thread
+     *
+     * @return the frame or null if there is none or it does not match the expected tag
+     */
+    public synchronized Bitmap read(Tag expected)
+    {
+        if (!mFile.exists()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if (in.readInt() != VERSION) {
+                return null;
+            }
+
+            Tag tag = Tag.read(in);
+            if (!tag.matches(expected)) {
+                if (Constants.DEBUG_MODE) {
+                    Log.d(TAG, "LastFrameStore: the saved frame is outdated");
+                }
+                return null;
+            }
+
+            return BitmapFactory.decodeStream(in);
+        } catch (IOException | OutOfMemoryError e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+
+    public synchronized void delete()
+    {
+        mFile.delete();
+    }
+
+
+    protected static void close(Closeable stream)
+    {
+        if (null == stream) {
+            return;
+        }
+
+        try {
+            stream.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+
+    /**
+     * Stats the style config files, must not be called on the UI thread
+     *
+     * @return a hash of the layer order, the layer paths, visibility and style configs
+     */
+    public static long getLayerSetHash(LayerGroup group)
+    {
+        return LayerSet.of(group).getHash();
+    }
+
+
+    /**
+     * The layer order, paths and visibility of a map. Taken on the UI thread, where the layers are
+     * changed, without disk access. The hash with the style configs is computed later in
+     * background.
+     */
+    public static class LayerSet
+    {
+        protected static final int HIDDEN      = 0;
+        protected static final int VISIBLE     = 1;
+        protected static final int GROUP_START = 2;
+        protected static final int GROUP_END   = 3;
+
+        protected final List<File>    mPaths;
+        protected final List<Integer> mStates;
+
+
+        protected LayerSet()
+        {
+            mPaths = new ArrayList<>();
+            mStates = new ArrayList<>();
+        }
+
+
+        public static LayerSet of(LayerGroup group)
+        {
+            LayerSet layerSet = new LayerSet();
+            layerSet.add(group);
+            return layerSet;
+        }
+
+
+        protected void add(LayerGroup group)
+        {
+            mPaths.add(null);
+            mStates.add(GROUP_START);
+            for (int i = 0; i < group.getLayerCount(); i++) {
+                ILayer layer = group.getLayer(i);
+                mPaths.add(layer.getPath());
+                mStates.add(layer instanceof Layer && !((Layer) layer).isVisible() ? HIDDEN : VISIBLE);
+
+                if (layer instanceof LayerGroup) {
+                    add((LayerGroup) layer);
+                }
+            }
+            mPaths.add(null);
+            mStates.add(GROUP_END);
+        }
+
+
+        /**
+         * Stats the style config files, must not be called on the UI thread
+         *
+         * @return a hash of the layer order, the layer paths, visibility and style configs
+         */
+        public long getHash()
+        {
+            long hash = 17;
+            for (int i = 0; i < mPaths.size(); i++) {
+                File path = mPaths.get(i);
+                if (null != path) {
+                    hash = 31 * hash + path.getName().hashCode();
+                    hash = 31 * hash + new File(path, CONFIG).lastModified();
+                }
+                hash = 31 * hash + mStates.get(i);
+            }
+            return hash;
+        }
+    }
+
+
+    public static class Tag
+    {
+        protected final int    mWidth;
+        protected final int    mHeight;
+        protected final float  mZoom;
+        protected final double mMinX;
+        protected final double mMinY;
+        protected final double mMaxX;
+        protected final double mMaxY;
+        protected final long   mLayerSetHash;
+
+
+        public Tag(
+                int width,
+                int height,
+                float zoom,
+                GeoEnvelope extent,
+                long layerSetHash)
+        {
+            this(width, height, zoom, extent.getMinX(), extent.getMinY(), extent.getMaxX(),
+                    extent.getMaxY(), layerSetHash);
+        }
+
+
+        protected Tag(
+                int width,
+                int height,
+                float zoom,
+                double minX,
+                double minY,
+                double maxX,
+                double maxY,
+                long layerSetHash)
+        {
+            mWidth = width;
+            mHeight = height;
+            mZoom = zoom;
+            mMinX = minX;
+            mMinY = minY;
+            mMaxX = maxX;
+            mMaxY = maxY;
+            mLayerSetHash = layerSetHash;
+        }
+
+
+        /**
+         * Stats the style config files, must not be called on the UI thread
+         *
+         * @return the tag of what the map shows now
+         */
+        public static Tag of(
+                MapDrawable map,
+                int width,
+                int height)
+        {
+            return new Tag(width, height, map.getZoomLevel(), map.getCurrentBounds(),
+                    getLayerSetHash(map));
+        }
+
+
+        /**
+         * @return the tag of the map extent without disk access, the layer set hash is added in
+         * background with {@link #withLayerSetHash(long)}
+         */
+        public static Tag ofExtent(
+                MapDrawable map,
+                int width,
+                int height)
+        {
+            return new Tag(width, height, map.getZoomLevel(), map.getCurrentBounds(), 0);
+        }
+
+
+        public Tag withLayerSetHash(long layerSetHash)
+        {
+            return new Tag(mWidth, mHeight, mZoom, mMinX, mMinY, mMaxX, mMaxY, layerSetHash);
+        }
+
+
+        protected void write(DataOutputStream out)
+                throws IOException
+        {
+            out.writeInt(mWidth);
+            out.writeInt(mHeight);
+            out.writeFloat(mZoom);
+            out.writeDouble(mMinX);
+            out.writeDouble(mMinY);
+            out.writeDouble(mMaxX);
+            out.writeDouble(mMaxY);
+            out.writeLong(mLayerSetHash);
+        }
+
+
+        protected static Tag read(DataInputStream in)
+                throws IOException
+        {
+            return new Tag(in.readInt(), in.readInt(), in.readFloat(), in.readDouble(),
+                    in.readDouble(), in.readDouble(), in.readDouble(), in.readLong());
+        }
+
+
+        public boolean matches(Tag other)
+        {
+            return matchesExtent(other) && mLayerSetHash == other.mLayerSetHash;
+        }
+
+
+        /**
+         * @return true if the other tag has the same view size, zoom and extent
+         */
+        public boolean matchesExtent(Tag other)
+        {
+            // the extent may differ by rounding after the map is saved and loaded
+            double tolerance = Math.max(mMaxX - mMinX, mMaxY - mMinY) / Math.max(mWidth, 1) / 2;
+            return null != other && mWidth == other.mWidth && mHeight == other.mHeight &&
+                   mZoom == other.mZoom &&
+                   Math.abs(mMinX - other.mMinX) <= tolerance &&
+                   Math.abs(mMinY - other.mMinY) <= tolerance &&
+                   Math.abs(mMaxX - other.mMaxX) <= tolerance &&
+                   Math.abs(mMaxY - other.mMaxY) <= tolerance;
+        }
+    }
+}
@@ -46,6 +46,7 @@ import com.nextgis.maplibui.dialog.NGWResourcesListAdapter;
 import com.nextgis.maplibui.dialog.SelectNGWResourceDialog;
 import com.nextgis.maplibui.fragment.LayerFillProgressDialogFragment;
 import com.nextgis.maplibui.service.LayerFillService;
+import com.nextgis.maplibui.util.StartupTracer;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -71,6 +72,17 @@ import static com.nextgis.maplib.util.Constants.TAG;
 public class LayerFactoryUI
         extends LayerFactory
 {
+    protected StartupTracer mStartupTracer;
+
+
+    /**
+     * @param startupTracer records the time spent to create layers while the application starts
+     */
+    public void setStartupTracer(StartupTracer startupTracer)
+    {
+        mStartupTracer = startupTracer;
+    }
+
 
     public void createNewNGWLayer(
             final Context context,
@@ -239,6 +251,7 @@ public class LayerFactoryUI
             Context context,
             File path)
     {
+        long start = null == mStartupTracer ? 0 : mStartupTracer.start();
         File config_file = new File(path, CONFIG);
         ILayer layer = null;
 
@@ -280,6 +293,10 @@ public class LayerFactoryUI
             Log.d(TAG, e.getLocalizedMessage());
         }
 
+        if (null != mStartupTracer) {
+            mStartupTracer.record(StartupTracer.PHASE_LAYER_CREATE, start);
+        }
+
         return layer;
     }
 
@@ -0,0 +1,456 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2021 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.nextgis.maplibui.mapui;
+
+import android.os.SystemClock;
+
+import com.nextgis.maplib.api.ILayer;
+import com.nextgis.maplib.map.Layer;
+import com.nextgis.maplib.map.LayerGroup;
+import com.nextgis.maplib.map.MapDrawable;
+import com.nextgis.maplib.map.VectorLayer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.nextgis.maplib.util.Constants.DRAWING_SEPARATE_THREADS;
+
+
+/**
+ * Per layer render profiler. For each render of the map it records how long every visible layer
+ * took from the start of its draw job to its finish and whether it finished or the render was
+ * cancelled before. The map draws the layers in their order on a fixed number of threads, so a
+ * queued layer starts when a running one finishes or when it reports progress itself. The smoothed
+ * render time is the layer cost estimate used to show cheap layers first: the map buffer is
+ * refreshed when the layers expected to finish next in cost order are ready.
+ */
+public class LayerRenderProfiler
+{
+    //weight of the last render in the layer cost estimate
+    public static final float COST_SMOOTHING = 0.3f;
+
+    protected final Map<Integer, Stats> mStats;
+    protected final Map<Integer, ILayer> mPending;
+    protected final Map<Integer, Long>   mStartTimes;
+    protected final List<Integer>        mQueue;
+    protected final List<Integer>        mOrder;
+    protected       int                  mOrderFinished;
+    protected       long                 mRenderStartTime;
+    protected       long                 mRenderCount;
+
+
+    public LayerRenderProfiler()
+    {
+        mStats = new HashMap<>();
+        mPending = new HashMap<>();
+        mStartTimes = new HashMap<>();
+        mQueue = new ArrayList<>();
+        mOrder = new ArrayList<>();
+    }
+
+
+    /**
+     * Called on the UI thread when the map render starts. Layers of the previous render which
+     * did not finish are counted as cancelled.
+     */
+    public synchronized void onRenderStart(LayerGroup map)
+    {
+        onRenderCancelled();
+
+        mRenderStartTime = SystemClock.uptimeMillis();
+        mRenderCount++;
+        if (null != map) {
+            float zoom = map instanceof MapDrawable ? ((MapDrawable) map).getZoomLevel() : -1;
+            addVisibleLayers(map, zoom);
+        }
+
+        // the first layers start at once, the others wait for a draw thread
+        mStartTimes.clear();
+        for (int i = 0; i < DRAWING_SEPARATE_THREADS; i++) {
+            startQueued(mRenderStartTime);
+        }
+
+        // the expected finish order, unknown layers last
+        mOrder.clear();
+        mOrder.addAll(mPending.keySet());
+        Collections.sort(mOrder, new Comparator<Integer>()
+        {
+            @Override
+            public int compare(
+                    Integer lhs,
+                    Integer rhs)
+            {
+                long lhsCost = getCost(lhs);
+                long rhsCost = getCost(rhs);
+                if (lhsCost < 0) {
+                    lhsCost = Long.MAX_VALUE;
+                }
+                if (rhsCost < 0) {
+                    rhsCost = Long.MAX_VALUE;
+                }
+                return lhsCost < rhsCost ? -1 : (lhsCost == rhsCost ? 0 : 1);
+            }
+        });
+        mOrderFinished = 0;
+    }
+
+
+    protected void addVisibleLayers(
+            LayerGroup group,
+            float zoom)
+    {
+        for (int i = 0; i < group.getLayerCount(); i++) {
+            ILayer layer = group.getLayer(i);
+            if (layer instanceof LayerGroup) {
+                addVisibleLayers((LayerGroup) layer, zoom);
+            } else if (layer instanceof Layer && ((Layer) layer).isVisible() &&
+                       isInZoomRange((Layer) layer, zoom)) {
+                mPending.put(layer.getId(), layer);
+                mQueue.add(layer.getId());
+                Stats stats = mStats.get(layer.getId());
+                if (null == stats) {
+                    stats = new Stats(layer.getId());
+                    mStats.put(layer.getId(), stats);
+                }
+                stats.mName = layer.getName();
+                stats.mLayer = layer;
+            }
+        }
+    }
+
+
+    /**
+     * A layer out of its zoom range is not drawn and does not report
+     */
+    protected static boolean isInZoomRange(
+            Layer layer,
+            float zoom)
+    {
+        return zoom < 0 || zoom >= layer.getMinZoom() && zoom <= layer.getMaxZoom();
+    }
+
+
+    /**
+     * Take the start time of the next layer waiting for a draw thread
+     */
+    protected void startQueued(long time)
+    {
+        if (!mQueue.isEmpty()) {
+            mStartTimes.put(mQueue.remove(0), time);
+        }
+    }
+
+
+    /**
+     * Called on a render thread when a layer reports partial progress, it is drawn already
+     */
+    public synchronized void onLayerProgress(int layerId)
+    {
+        if (!mPending.containsKey(layerId) || mStartTimes.containsKey(layerId)) {
+            return;
+        }
+
+        // the layer took the thread the next queued layer was expected to take
+        long now = SystemClock.uptimeMillis();
+        mQueue.remove(Integer.valueOf(layerId));
+        mStartTimes.put(layerId, now);
+    }
+
+
+    /**
+     * Called on a render thread when a layer is rendered
+     *
+     * @return the render cost estimate of the layer in ms
+     */
+    public synchronized long onLayerFinished(int layerId)
+    {
+        long now = SystemClock.uptimeMillis();
+        mPending.remove(layerId);
+        mQueue.remove(Integer.valueOf(layerId));
+        Long startTime = mStartTimes.remove(layerId);
+        long time = now - (null == startTime ? mRenderStartTime : startTime);
+
+        // the draw thread of the layer takes the next one
+        startQueued(now);
+
+        Stats stats = mStats.get(layerId);
+        if (null == stats) {
+            stats = new Stats(layerId);
+            mStats.put(layerId, stats);
+        }
+        stats.add(time);
+        return stats.mCost;
+    }
+
+
+    /**
+     * Called when the running render is cancelled, the layers which did not finish are counted
+     */
+    public synchronized void onRenderCancelled()
+    {
+        for (Integer id : mPending.keySet()) {
+            Stats stats = mStats.get(id);
+            if (null != stats) {
+                stats.mCancelCount++;
+                stats.mIsLastFinished = false;
+            }
+        }
+        mPending.clear();
+        mQueue.clear();
+        mStartTimes.clear();
+    }
+
+
+    /**
+     * Called when the render is finished. Layers which did not report, e.g. out of their zoom
+     * range, are not counted as cancelled.
+     */
+    public synchronized void onRenderFinished()
+    {
+        mPending.clear();
+        mQueue.clear();
+        mStartTimes.clear();
+    }
+
+
+    /**
+     * @return true if the layers expected to finish first by cost are ready up to a layer not
+     * shown yet, so the buffer is worth refreshing; called on the UI thread on render progress
+     */
+    public synchronized boolean takeOrderedProgress()
+    {
+        int finished = mOrderFinished;
+        while (finished < mOrder.size() && !mPending.containsKey(mOrder.get(finished))) {
+            finished++;
+        }
+
+        boolean progress = finished > mOrderFinished;
+        mOrderFinished = finished;
+        return progress;
+    }
+
+
+    /**
+     * @return the ids of the layers of the last render ordered from the cheapest one
+     */
+    public synchronized List<Integer> getRenderOrder()
+    {
+        return new ArrayList<>(mOrder);
+    }
+
+
+    /**
+     * @return the estimated render time of the layer in ms or -1 if it was not rendered yet
+     */
+    public synchronized long getCost(int layerId)
+    {
+        Stats stats = mStats.get(layerId);
+        return null == stats || stats.mRenderCount == 0 ? -1 : stats.mCost;
+    }
+
+
+    /**
+     * @return a copy of the statistics of the layer or null if it was not rendered yet
+     */
+    public synchronized Stats getStats(int layerId)
+    {
+        Stats stats = mStats.get(layerId);
+        return null == stats ? null : stats.copy();
+    }
+
+
+    public synchronized List<Stats> getAllStats()
+    {
+        List<Stats> result = new ArrayList<>(mStats.size());
+        for (Stats stats : mStats.values()) {
+            result.add(stats.copy());
+        }
+        return result;
+    }
+
+
+    public synchronized void removeLayer(int layerId)
+    {
+        mStats.remove(layerId);
+        mPending.remove(layerId);
+        mQueue.remove(Integer.valueOf(layerId));
+        mStartTimes.remove(layerId);
+    }
+
+
+    public synchronized void reset()
+    {
+        mStats.clear();
+        mPending.clear();
+        mQueue.clear();
+        mStartTimes.clear();
+        mOrder.clear();
+        mOrderFinished = 0;
+    }
+
+
+    /**
+     * @return number of renders started
+     */
+    public synchronized long getRenderCount()
+    {
+        return mRenderCount;
+    }
+
+
+    public static class Stats
+    {
+        protected final int     mLayerId;
+        protected       ILayer  mLayer;
+        protected       String  mName;
+        protected       long    mRenderCount;
+        protected       long    mCancelCount;
+        protected       long    mCost;
+        protected       long    mLastTime;
+        protected       long    mMaxTime;
+        protected       long    mTotalTime;
+        protected       long    mFeatureCount = -1;
+        protected       boolean mIsLastFinished;
+
+
+        protected Stats(int layerId)
+        {
+            mLayerId = layerId;
+        }
+
+
+        protected void add(long time)
+        {
+            mCost = mRenderCount == 0 ? time : (long) (mCost + COST_SMOOTHING * (time - mCost));
+            mRenderCount++;
+            mLastTime = time;
+            mTotalTime += time;
+            if (time > mMaxTime) {
+                mMaxTime = time;
+            }
+            mIsLastFinished = true;
+        }
+
+
+        protected Stats copy()
+        {
+            Stats stats = new Stats(mLayerId);
+            stats.mLayer = mLayer;
+            stats.mName = mName;
+            stats.mRenderCount = mRenderCount;
+            stats.mCancelCount = mCancelCount;
+            stats.mCost = mCost;
+            stats.mLastTime = mLastTime;
+            stats.mMaxTime = mMaxTime;
+            stats.mTotalTime = mTotalTime;
+            stats.mFeatureCount = mFeatureCount;
+            stats.mIsLastFinished = mIsLastFinished;
+            return stats;
+        }
+
+
+        public int getLayerId()
+        {
+            return mLayerId;
+        }
+
+
+        public String getName()
+        {
+            return mName;
+        }
+
+
+        /**
+         * @return number of renders the layer finished
+         */
+        public long getRenderCount()
+        {
+            return mRenderCount;
+        }
+
+
+        /**
+         * @return number of renders cancelled before the layer finished
+         */
+        public long getCancelCount()
+        {
+            return mCancelCount;
+        }
+
+
+        /**
+         * @return the smoothed render time in ms
+         */
+        public long getCost()
+        {
+            return mCost;
+        }
+
+
+        public long getLastTime()
+        {
+            return mLastTime;
+        }
+
+
+        public long getMaxTime()
+        {
+            return mMaxTime;
+        }
+
+
+        public long getMeanTime()
+        {
+            return mRenderCount == 0 ? 0 : mTotalTime / mRenderCount;
+        }
+
+
+        /**
+         * @return the feature count of a vector layer or -1. It is read at the first call, which
+         * may query the layer storage, so the render threads do not wait for it.
+         */
+        public long getFeatureCount()
+        {
+            if (mFeatureCount < 0 && mLayer instanceof VectorLayer) {
+                mFeatureCount = ((VectorLayer) mLayer).getCount();
+            }
+            return mFeatureCount;
+        }
+
+
+        /**
+         * @return false if the last render of the layer was cancelled
+         */
+        public boolean isLastFinished()
+        {
+            return mIsLastFinished;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2021 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextgis.maplibui.mapui;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+
+/**
+ * Collects map notifications from any thread into batches. The first event of a batch schedules
+ * its dispatch on the main thread after a delay, the following events only join the batch, with
+ * layer ids deduplicated. A batch is dispatched once, so a burst of layer changes, e.g. during
+ * a sync or import, results in one redraw.
+ */
+public class MapEventCoalescer
+{
+    public static final int EVENT_LAYER_ADDED      = 1;
+    public static final int EVENT_LAYER_DELETED    = 1 << 1;
+    public static final int EVENT_LAYER_CHANGED    = 1 << 2;
+    public static final int EVENT_LAYERS_REORDERED = 1 << 3;
+    public static final int EVENT_EXTENT_CHANGED   = 1 << 4;
+
+    /**
+     * Batch listener, called on the main thread
+     */
+    public interface OnMapEventBatchListener
+    {
+        void onMapEventBatch(Batch batch);
+    }
+
+
+    protected final Handler                 mHandler;
+    protected final OnMapEventBatchListener mListener;
+    protected final Runnable                mDispatchTask;
+    protected       int                     mDelay;
+    protected       Batch                   mBatch;
+
+    protected long mEventCount;
+    protected long mBatchCount;
+
+
+    public MapEventCoalescer(
+            OnMapEventBatchListener listener,
+            int delay)
+    {
+        mHandler = new Handler(Looper.getMainLooper());
+        mListener = listener;
+        mDelay = delay;
+        mDispatchTask = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                flush();
+            }
+        };
+    }
+
+
+    /**
+     * Add an event to the current batch. Safe to call from any thread.
+     *
+     * @param event   one of the EVENT_ constants
+     * @param layerId the layer of the event or -1
+     */
+    public void post(
+            int event,
+            int layerId)
+    {
+        boolean isFirst;
+        synchronized (this) {
+            mEventCount++;
+            isFirst = null == mBatch;
+            if (isFirst) {
+                mBatch = new Batch();
+            }
+            mBatch.add(event, layerId);
+        }
+
+        if (isFirst) {
+            mHandler.postDelayed(mDispatchTask, mDelay);
+        }
+    }
+
+
+    /**
+     * Dispatch the current batch now, must be called on the main thread
+     */
+    public void flush()
+    {
+        Batch batch = takeBatch();
+        if (null != batch) {
+            mListener.onMapEventBatch(batch);
+        }
+    }
+
+
+    /**
+     * Drop the current batch
+     */
+    public void cancel()
+    {
+        takeBatch();
+    }
+
+
+    protected Batch takeBatch()
+    {
+        mHandler.removeCallbacks(mDispatchTask);
+
+        synchronized (this) {
+            Batch batch = mBatch;
+            mBatch = null;
+            if (null != batch) {
+                mBatchCount++;
+            }
+            return batch;
+        }
+    }
+
+
+    public synchronized boolean isPending()
+    {
+        return null != mBatch;
+    }
+
+
+    public int getDelay()
+    {
+        return mDelay;
+    }
+
+
+    /**
+     * @param delay time in ms an event waits for others to join its batch
+     */
+    public void setDelay(int delay)
+    {
+        mDelay = delay;
+    }
+
+
+    /**
+     * @return number of received events
+     */
+    public synchronized long getEventCount()
+    {
+        return mEventCount;
+    }
+
+
+    /**
+     * @return number of dispatched or cancelled batches
+     */
+    public synchronized long getBatchCount()
+    {
+        return mBatchCount;
+    }
+
+
+    public static class Batch
+    {
+        protected final Set<Integer> mLayerIds;
+        protected       int          mEvents;
+        protected       int          mEventCount;
+
+
+        protected Batch()
+        {
+            mLayerIds = new LinkedHashSet<>();
+        }
+
+
+        protected void add(
+                int event,
+                int layerId)
+        {
+            mEvents |= event;
+            mEventCount++;
+            if (layerId >= 0) {
+                mLayerIds.add(layerId);
+            }
+        }
+
+
+        public boolean has(int event)
+        {
+            return 0 != (mEvents & event);
+        }
+
+
+        /**
+         * @return ids of the added, deleted and changed layers, each id once
+         */
+        public Set<Integer> getLayerIds()
+        {
+            return mLayerIds;
+        }
+
+
+        /**
+         * @return number of events merged into the batch
+         */
+        public int getEventCount()
+        {
+            return mEventCount;
+        }
+    }
+}
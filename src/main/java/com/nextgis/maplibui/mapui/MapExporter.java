@@ -0,0 +1,390 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2021 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.nextgis.maplibui.mapui;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.content.res.Resources;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.pdf.PdfDocument;
+import android.os.Build;
+import android.util.DisplayMetrics;
+
+import com.nextgis.maplib.api.IProgressor;
+import com.nextgis.maplib.datasource.GeoEnvelope;
+import com.nextgis.maplib.datasource.GeoPoint;
+import com.nextgis.maplibui.api.Overlay;
+import com.nextgis.maplibui.util.PngStreamWriter;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+
+/**
+ * Exports a map image larger than the screen, e.g. for printing. The output is split into tiles
+ * rendered one by one through the map of a {@link MapSnapshotter}. The map symbology is sized in
+ * screen pixels, so the tiles are rendered at the screen density and scaled down by the output dpi
+ * to the screen dpi ratio, the lines and markers keep their size on paper. The renderers can not
+ * draw the symbology at a higher density, so an output dpi above the screen dpi is refused instead
+ * of scaling the tiles up into a blurred image. The snapshotter map is loaded from the map file, so
+ * the export shows the saved layers, e.g. without the unsaved changes of an edit in progress. Each
+ * tile is rendered with a margin which is cropped, so symbols and labels crossing the tile edges
+ * are not cut. A PNG is written by strips of tiles, so only one strip is held in memory. A PDF page
+ * keeps the drawn tiles until it is finished, so a PDF larger than the free memory budget is
+ * refused. Blocks, must be run on a background thread like the services do.
+ */
+public class MapExporter
+{
+    public static final int FORMAT_PNG = 0;
+    public static final int FORMAT_PDF = 1;
+
+    //size of an output tile px, smaller if the output dpi is below the screen dpi
+    public static final int TILE_SIZE   = 512;
+    //margin rendered around a tile and cropped, screen px
+    public static final int TILE_MARGIN = 64;
+    //the largest pdf page side in points, the limit of the pdf format
+    public static final int MAX_PDF_PAGE_SIZE = 14400;
+    //points per inch of a pdf page
+    protected static final int PDF_DPI = 72;
+
+    protected final MapSnapshotter mSnapshotter;
+    protected final Paint          mPaint;
+    protected final int            mScreenDpi;
+    protected       Bitmap         mWorkBitmap;
+    protected       int            mTileSize;
+
+
+    /**
+     * Export with the symbology sized for the density of the device screen
+     */
+    public MapExporter(MapSnapshotter snapshotter)
+    {
+        this(snapshotter, Resources.getSystem().getDisplayMetrics().densityDpi);
+    }
+
+
+    /**
+     * @param screenDpi the dpi the symbology sizes are for, e.g. of the screen the map is shown on
+     */
+    public MapExporter(
+            MapSnapshotter snapshotter,
+            int screenDpi)
+    {
+        mSnapshotter = snapshotter;
+        mScreenDpi = screenDpi > 0 ? screenDpi : DisplayMetrics.DENSITY_DEFAULT;
+        mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    }
+
+
+    /**
+     * @return the highest output dpi, the symbology can not be rendered sharper than on the screen
+     */
+    public int getMaxDpi()
+    {
+        return mScreenDpi;
+    }
+
+
+    /**
+     * @return the output size in pixels of a paper size in millimeters, e.g. 594 x 841 mm for A1
+     */
+    public static int toPixels(
+            float millimeters,
+            int dpi)
+    {
+        return Math.round(millimeters / 25.4f * dpi);
+    }
+
+
+    /**
+     * Export the extent. If its aspect differs from the output size the extent is expanded around
+     * its center.
+     *
+     * @param dpi        the output resolution, the pdf page size is computed from it. Not above
+     *                   {@link #getMaxDpi()}.
+     * @param overlays   overlays drawn over the map or null
+     * @param progressor receives the number of rendered tiles, may be null
+     * @return false if the export is canceled, the file is deleted then
+     */
+    public boolean export(
+            File file,
+            int format,
+            GeoEnvelope extent,
+            int width,
+            int height,
+            int dpi,
+            List<Overlay> overlays,
+            IProgressor progressor)
+            throws IOException
+    {
+        if (width <= 0 || height <= 0 || null == extent || !extent.isInit()) {
+            throw new IllegalArgumentException("Wrong export extent or size");
+        }
+
+        if (dpi <= 0 || dpi > mScreenDpi) {
+            throw new IllegalArgumentException(
+                    "Wrong export dpi " + dpi + ", the most is the screen dpi " + mScreenDpi);
+        }
+
+        if (format == FORMAT_PDF && Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            throw new IOException("PDF export needs Android 4.4");
+        }
+
+        if (format == FORMAT_PDF && (width * PDF_DPI / dpi > MAX_PDF_PAGE_SIZE ||
+                                     height * PDF_DPI / dpi > MAX_PDF_PAGE_SIZE)) {
+            throw new IOException("The PDF page is too large, export PNG instead");
+        }
+
+        // the same map units per pixel in both directions
+        double resolution = Math.max(extent.width() / width, extent.height() / height);
+        GeoPoint center = extent.getCenter();
+        GeoEnvelope outputExtent = new GeoEnvelope(
+                center.getX() - resolution * width / 2, center.getX() + resolution * width / 2,
+                center.getY() - resolution * height / 2, center.getY() + resolution * height / 2);
+
+        // the output pixels per screen pixel of the symbology, the rendered part of a tile is not
+        // larger than a full tile
+        float scale = (float) dpi / mScreenDpi;
+        mTileSize = Math.max(TILE_MARGIN, Math.round(TILE_SIZE * scale));
+
+        int columns = (width + mTileSize - 1) / mTileSize;
+        int rows = (height + mTileSize - 1) / mTileSize;
+        if (null != progressor) {
+            progressor.setIndeterminate(false);
+            progressor.setMax(columns * rows);
+            progressor.setValue(0);
+        }
+
+        boolean isDone = false;
+        try {
+            if (format == FORMAT_PDF) {
+                isDone = exportPdf(file, outputExtent, width, height, dpi, scale, overlays,
+                        progressor);
+            } else {
+                isDone = exportPng(file, outputExtent, width, height, scale, overlays, progressor);
+            }
+            return isDone;
+        } finally {
+            if (!isDone) {
+                file.delete();
+            }
+            if (null != mWorkBitmap) {
+                mWorkBitmap.recycle();
+                mWorkBitmap = null;
+            }
+        }
+    }
+
+
+    protected boolean exportPng(
+            File file,
+            GeoEnvelope extent,
+            int width,
+            int height,
+            float scale,
+            List<Overlay> overlays,
+            IProgressor progressor)
+            throws IOException
+    {
+        int columns = (width + mTileSize - 1) / mTileSize;
+        Bitmap[] strip = new Bitmap[columns];
+        int[] row = new int[width];
+        int done = 0;
+
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        PngStreamWriter writer = null;
+        try {
+            writer = new PngStreamWriter(out, width, height);
+            for (int y = 0; y < height; y += mTileSize) {
+                int tileHeight = Math.min(mTileSize, height - y);
+                for (int column = 0; column < columns; column++) {
+                    int x = column * mTileSize;
+                    int tileWidth = Math.min(mTileSize, width - x);
+                    if (null != strip[column] && strip[column].getHeight() != tileHeight) {
+                        strip[column].recycle();
+                        strip[column] = null;
+                    }
+                    if (null == strip[column]) {
+                        strip[column] = Bitmap.createBitmap(
+                                tileWidth, tileHeight, Bitmap.Config.ARGB_8888);
+                    }
+
+                    if (!renderTile(strip[column], extent, width, x, y, scale, overlays,
+                            progressor)) {
+                        return false;
+                    }
+                    if (null != progressor) {
+                        progressor.setValue(++done);
+                    }
+                }
+
+                for (int line = 0; line < tileHeight; line++) {
+                    for (int column = 0; column < columns; column++) {
+                        Bitmap tile = strip[column];
+                        tile.getPixels(row, column * mTileSize, width, 0, line, tile.getWidth(), 1);
+                    }
+                    writer.writeRow(row, 0);
+                }
+            }
+
+            writer.finish();
+            return true;
+        } finally {
+            for (Bitmap tile : strip) {
+                if (null != tile) {
+                    tile.recycle();
+                }
+            }
+            if (null != writer) {
+                writer.close();
+            } else {
+                out.close();
+            }
+        }
+    }
+
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    protected boolean exportPdf(
+            File file,
+            GeoEnvelope extent,
+            int width,
+            int height,
+            int dpi,
+            float scale,
+            List<Overlay> overlays,
+            IProgressor progressor)
+            throws IOException
+    {
+        // the page keeps the tiles until it is finished
+        MemoryBudget budget = MemoryBudget.getInstance();
+        long bytes = MemoryBudget.getByteCount(width, height);
+        if (!budget.reserve(bytes)) {
+            throw new IOException("The PDF page does not fit the memory, export PNG instead");
+        }
+
+        float pageScale = (float) PDF_DPI / dpi;
+        PdfDocument document = new PdfDocument();
+        try {
+            PdfDocument.PageInfo info = new PdfDocument.PageInfo.Builder(
+                    Math.round(width * pageScale), Math.round(height * pageScale), 1).create();
+            PdfDocument.Page page = document.startPage(info);
+            Canvas canvas = page.getCanvas();
+            canvas.scale(pageScale, pageScale);
+
+            int done = 0;
+            for (int y = 0; y < height; y += mTileSize) {
+                for (int x = 0; x < width; x += mTileSize) {
+                    Bitmap tile = Bitmap.createBitmap(Math.min(mTileSize, width - x),
+                            Math.min(mTileSize, height - y), Bitmap.Config.ARGB_8888);
+                    try {
+                        if (!renderTile(tile, extent, width, x, y, scale, overlays,
+                                progressor)) {
+                            return false;
+                        }
+                        canvas.drawBitmap(tile, x, y, null);
+                    } finally {
+                        tile.recycle();
+                    }
+
+                    if (null != progressor) {
+                        progressor.setValue(++done);
+                    }
+                }
+            }
+            document.finishPage(page);
+
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+            try {
+                document.writeTo(out);
+            } finally {
+                out.close();
+            }
+            return true;
+        } finally {
+            document.close();
+            budget.release(bytes);
+        }
+    }
+
+
+    /**
+     * Render the part of the output at the pixel offset into the tile bitmap. The map is rendered
+     * at the screen density with a margin into a work bitmap, which is cropped and scaled down into
+     * the tile.
+     *
+     * @param extent      the extent of the whole output
+     * @param outputWidth the width of the whole output in pixels
+     * @param scale       the output pixels per screen pixel, not above 1
+     * @return false if the export is canceled or the render failed
+     */
+    protected boolean renderTile(
+            Bitmap tile,
+            GeoEnvelope extent,
+            int outputWidth,
+            int x,
+            int y,
+            float scale,
+            List<Overlay> overlays,
+            IProgressor progressor)
+    {
+        if (null != progressor && progressor.isCanceled()) {
+            return false;
+        }
+
+        int width = (int) Math.ceil(tile.getWidth() / scale) + 2 * TILE_MARGIN;
+        int height = (int) Math.ceil(tile.getHeight() / scale) + 2 * TILE_MARGIN;
+        if (null == mWorkBitmap || mWorkBitmap.getWidth() != width ||
+            mWorkBitmap.getHeight() != height) {
+            if (null != mWorkBitmap) {
+                mWorkBitmap.recycle();
+            }
+            mWorkBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
+
+        // map units per screen pixel
+        double resolution = extent.width() / outputWidth * scale;
+        double minX = extent.getMinX() + x / scale * resolution - TILE_MARGIN * resolution;
+        double maxY = extent.getMaxY() - y / scale * resolution + TILE_MARGIN * resolution;
+        GeoEnvelope workExtent = new GeoEnvelope(
+                minX, minX + width * resolution, maxY - height * resolution, maxY);
+
+        mWorkBitmap.eraseColor(0);
+        if (!mSnapshotter.render(new Canvas(mWorkBitmap), workExtent, width, height, overlays)) {
+            return false;
+        }
+
+        tile.eraseColor(0);
+        Canvas canvas = new Canvas(tile);
+        canvas.scale(scale, scale);
+        canvas.drawBitmap(mWorkBitmap, -TILE_MARGIN, -TILE_MARGIN, mPaint);
+        return true;
+    }
+}
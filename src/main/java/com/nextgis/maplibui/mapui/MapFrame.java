@@ -0,0 +1,268 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2021 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextgis.maplibui.mapui;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+
+import com.nextgis.maplib.map.MapDrawable;
+
+
+/**
+ * A screen sized copy of the map buffer. The bitmap is reused while the view size is unchanged.
+ * If a memory budget is set, the bitmap is kept only while it fits. The frame may be copied on
+ * another thread with {@link #capture(MapFrame, int, int, float, float)}, the bitmap is not
+ * replaced or recycled during the copy.
+ */
+public class MapFrame
+{
+    protected final MemoryBudget mBudget;
+    protected       Bitmap       mBitmap;
+    protected       Canvas       mCanvas;
+    protected       boolean      mIsValid;
+
+
+    /**
+     * A frame not accounted in any budget, e.g. a temporary copy
+     */
+    public MapFrame()
+    {
+        this(null);
+    }
+
+
+    /**
+     * @param budget the memory the bitmap is reserved in or null
+     */
+    public MapFrame(MemoryBudget budget)
+    {
+        mBudget = budget;
+    }
+
+
+    /**
+     * Copy the current map buffer
+     *
+     * @return false if there is no memory for the copy
+     */
+    public boolean capture(
+            MapDrawable map,
+            int width,
+            int height)
+    {
+        return capture(map, width, height, 0, 0);
+    }
+
+
+    /**
+     * Copy the current map buffer drawn at the offset, the uncovered part shows the map background
+     *
+     * @return false if there is no memory for the copy
+     */
+    public boolean capture(
+            MapDrawable map,
+            int width,
+            int height,
+            float x,
+            float y)
+    {
+        if (!prepare(width, height) || null == map) {
+            return false;
+        }
+
+        map.draw(mCanvas, x, y, true);
+        mIsValid = true;
+        return true;
+    }
+
+
+    /**
+     * Copy another frame drawn at the offset, the uncovered part stays transparent
+     *
+     * @return false if there is no memory for the copy or the other frame is not valid
+     */
+    public boolean capture(
+            MapFrame frame,
+            int width,
+            int height,
+            float x,
+            float y)
+    {
+        if (null == frame || frame == this) {
+            mIsValid = false;
+            return false;
+        }
+
+        synchronized (frame) {
+            if (!frame.isValid()) {
+                mIsValid = false;
+                return false;
+            }
+
+            if (!prepare(width, height)) {
+                return false;
+            }
+
+            frame.draw(mCanvas, x, y);
+        }
+        mIsValid = true;
+        return true;
+    }
+
+
+    /**
+     * Allocate or reuse a transparent bitmap of the size
+     */
+    protected synchronized boolean prepare(
+            int width,
+            int height)
+    {
+        mIsValid = false;
+        if (width <= 0 || height <= 0) {
+            return false;
+        }
+
+        if (null == mCanvas || mBitmap.getWidth() != width || mBitmap.getHeight() != height) {
+            recycle();
+            if (!reserve(width, height)) {
+                return false;
+            }
+            try {
+                mBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            } catch (OutOfMemoryError e) {
+                e.printStackTrace();
+                release(width, height);
+                return false;
+            }
+            mCanvas = new Canvas(mBitmap);
+        }
+
+        mBitmap.eraseColor(Color.TRANSPARENT);
+        return true;
+    }
+
+
+    /**
+     * Use the bitmap as the frame, e.g. one restored from disk. The frame owns it afterwards, the
+     * bitmap is recycled if it does not fit into the budget.
+     */
+    public synchronized void set(Bitmap bitmap)
+    {
+        recycle();
+        if (null == bitmap) {
+            return;
+        }
+
+        if (!reserve(bitmap.getWidth(), bitmap.getHeight())) {
+            bitmap.recycle();
+            return;
+        }
+
+        mBitmap = bitmap;
+        mCanvas = bitmap.isMutable() ? new Canvas(bitmap) : null;
+        mIsValid = true;
+    }
+
+
+    public void draw(
+            Canvas canvas,
+            float x,
+            float y)
+    {
+        if (mIsValid) {
+            canvas.drawBitmap(mBitmap, x, y, null);
+        }
+    }
+
+
+    public void draw(
+            Canvas canvas,
+            Matrix matrix,
+            Paint paint)
+    {
+        if (mIsValid) {
+            canvas.drawBitmap(mBitmap, matrix, paint);
+        }
+    }
+
+
+    /**
+     * @return the canvas to draw into the frame or null if the bitmap is not mutable
+     */
+    public Canvas getCanvas()
+    {
+        return mCanvas;
+    }
+
+
+    public boolean isValid()
+    {
+        return mIsValid;
+    }
+
+
+    public void invalidate()
+    {
+        mIsValid = false;
+    }
+
+
+    public Bitmap getBitmap()
+    {
+        return mBitmap;
+    }
+
+
+    public synchronized void recycle()
+    {
+        mIsValid = false;
+        if (null != mBitmap) {
+            release(mBitmap.getWidth(), mBitmap.getHeight());
+            mBitmap.recycle();
+            mBitmap = null;
+            mCanvas = null;
+        }
+    }
+
+
+    protected boolean reserve(
+            int width,
+            int height)
+    {
+        return null == mBudget || mBudget.reserve(MemoryBudget.getByteCount(width, height));
+    }
+
+
+    protected void release(
+            int width,
+            int height)
+    {
+        if (null != mBudget) {
+            mBudget.release(MemoryBudget.getByteCount(width, height));
+        }
+    }
+}
@@ -0,0 +1,537 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2021 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.nextgis.maplibui.mapui;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.nextgis.maplib.api.MapEventListener;
+import com.nextgis.maplib.datasource.GeoEnvelope;
+import com.nextgis.maplib.datasource.GeoPoint;
+import com.nextgis.maplib.map.MapDrawable;
+import com.nextgis.maplib.util.Constants;
+import com.nextgis.maplibui.api.Overlay;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static com.nextgis.maplib.util.Constants.DRAW_FINISH_ID;
+import static com.nextgis.maplib.util.Constants.TAG;
+
+
+/**
+ * Renders map images without a map view, e.g. project thumbnails, feature previews or report
+ * pictures. The snapshotter owns a map instance loaded from the same map file as the displayed one
+ * and renders a requested extent and size through the usual layer pipeline on its worker thread,
+ * optionally with overlays on top. Rendered images are kept in a memory cache keyed by the extent,
+ * the size, the layer set version and the data version of the source map. The layer set of the
+ * source is taken on the UI thread when its layers change, its version is computed on the worker
+ * thread. The data version counts the changes of the source layers, e.g. saved edits, each change
+ * reloads the snapshot map before the next render. The cache is
+ * reserved in the shared {@link MemoryBudget}, an image which does not fit is returned without
+ * being cached.
+ */
+public class MapSnapshotter
+        implements MapEventListener
+{
+    //time to wait for the layers to render ms
+    public static final int RENDER_TIMEOUT    = 30000;
+    //part of the heap cached snapshots may take from the shared memory budget
+    public static final int CACHE_MEMORY_PART = 32;
+
+    public interface OnSnapshotListener
+    {
+        /**
+         * Called on the main thread
+         *
+         * @param bitmap the snapshot or null if it could not be rendered. It may be shared with
+         *               the cache and must not be recycled.
+         */
+        void onSnapshot(Bitmap bitmap);
+    }
+
+
+    protected final    MapDrawable              mMap;
+    protected final    MapDrawable              mSource;
+    protected final    MapEventListener         mSourceListener;
+    protected final    ThreadPoolExecutor       mExecutor;
+    protected final    Handler                  mHandler;
+    protected final    LruCache<String, Bitmap> mCache;
+    protected final    MemoryBudget             mBudget;
+    protected volatile CountDownLatch           mDrawLatch;
+    protected volatile LastFrameStore.LayerSet  mLayerSet;
+    protected volatile LastFrameStore.LayerSet  mLoadedLayerSet;
+    protected volatile long                     mLoadedVersion;
+    protected volatile long                     mDataVersion;
+    protected volatile long                     mLoadedDataVersion;
+    protected volatile boolean                  mIsLoaded;
+
+    protected long mRenderCount;
+    protected long mHitCount;
+
+
+    /**
+     * @param map    a map not shown by any view, it is loaded and changed by the snapshotter
+     * @param source the displayed map, a change of its layer set reloads the snapshot map. May be
+     *               null if the map is not reloaded. Its layer set is taken at the first change or
+     *               with {@link #updateLayerSet()}.
+     */
+    public MapSnapshotter(
+            MapDrawable map,
+            MapDrawable source)
+    {
+        this(map, source, (int) Math.min(Integer.MAX_VALUE,
+                Runtime.getRuntime().maxMemory() / CACHE_MEMORY_PART));
+    }
+
+
+    /**
+     * @param cacheSize the most of the shared memory budget cached snapshots may use in bytes
+     */
+    public MapSnapshotter(
+            MapDrawable map,
+            MapDrawable source,
+            int cacheSize)
+    {
+        mMap = map;
+        mSource = source;
+        mSourceListener = new SourceListener();
+        if (null != source) {
+            source.addListener(mSourceListener);
+        }
+        mHandler = new Handler(Looper.getMainLooper());
+        mExecutor = new ThreadPoolExecutor(0, 1, Constants.KEEP_ALIVE_TIME,
+                Constants.KEEP_ALIVE_TIME_UNIT, new LinkedBlockingQueue<Runnable>());
+
+        mBudget = MemoryBudget.getInstance();
+        mCache = new LruCache<String, Bitmap>(cacheSize)
+        {
+            @Override
+            protected int sizeOf(
+                    String key,
+                    Bitmap bitmap)
+            {
+                return bitmap.getByteCount();
+            }
+
+
+            @Override
+            protected void entryRemoved(
+                    boolean evicted,
+                    String key,
+                    Bitmap oldValue,
+                    Bitmap newValue)
+            {
+                mBudget.release(oldValue.getByteCount());
+            }
+        };
+    }
+
+
+    /**
+     * Render the snapshot on the worker thread
+     *
+     * @param overlays overlays drawn over the map or null
+     */
+    public Future<?> snapshot(
+            final GeoEnvelope extent,
+            final int width,
+            final int height,
+            final List<Overlay> overlays,
+            final OnSnapshotListener listener)
+    {
+        return mExecutor.submit(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                final Bitmap bitmap = render(extent, width, height, overlays);
+                if (null != listener && !Thread.currentThread().isInterrupted()) {
+                    mHandler.post(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            listener.onSnapshot(bitmap);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+
+    /**
+     * Run the task on the worker thread of the snapshotter, e.g. several renders into own canvases
+     * with {@link #render(Canvas, GeoEnvelope, int, int, List)}
+     */
+    public Future<?> execute(Runnable task)
+    {
+        return mExecutor.submit(task);
+    }
+
+
+    /**
+     * Render the snapshot or take it from the cache. Blocks, must not be called on the main thread.
+     *
+     * @return the snapshot, shared with the cache, or null if it could not be rendered
+     */
+    public Bitmap render(
+            GeoEnvelope extent,
+            int width,
+            int height,
+            List<Overlay> overlays)
+    {
+        if (width <= 0 || height <= 0 || null == extent || !extent.isInit()) {
+            return null;
+        }
+
+        String key = null;
+        synchronized (mMap) {
+            reloadIfChanged();
+            if (null == overlays || overlays.isEmpty()) {
+                // overlays depend on state outside of the map, images with them are not cached
+                key = getKey(extent, width, height, mLoadedVersion, mLoadedDataVersion);
+                Bitmap cached = mCache.get(key);
+                if (null != cached) {
+                    mHitCount++;
+                    return cached;
+                }
+            }
+
+            Bitmap bitmap;
+            try {
+                bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            } catch (OutOfMemoryError e) {
+                e.printStackTrace();
+                return null;
+            }
+
+            if (!render(new Canvas(bitmap), extent, width, height, overlays)) {
+                bitmap.recycle();
+                return null;
+            }
+
+            if (null != key && mBudget.reserve(bitmap.getByteCount())) {
+                mCache.put(key, bitmap);
+            }
+            return bitmap;
+        }
+    }
+
+
+    /**
+     * Render the extent into the canvas, e.g. of a software bitmap. Blocks, must not be called on
+     * the main thread.
+     *
+     * @return false if the render was interrupted or timed out
+     */
+    public boolean render(
+            Canvas canvas,
+            GeoEnvelope extent,
+            int width,
+            int height,
+            List<Overlay> overlays)
+    {
+        synchronized (mMap) {
+            reloadIfChanged();
+            mMap.setViewSize(width, height);
+            mMap.zoomToExtent(extent);
+            if (!drawLayers()) {
+                return false;
+            }
+
+            mMap.buffer(0, 0, 1);
+            mMap.draw(canvas, 0, 0, true);
+
+            if (null != overlays) {
+                for (Overlay overlay : overlays) {
+                    if (overlay.isVisible()) {
+                        overlay.draw(canvas, mMap);
+                    }
+                }
+            }
+
+            mRenderCount++;
+            return true;
+        }
+    }
+
+
+    /**
+     * Render the layers of the snapshot map and wait for them, called with the map locked
+     *
+     * @return false if the render was interrupted or timed out
+     */
+    protected boolean drawLayers()
+    {
+        CountDownLatch latch = new CountDownLatch(1);
+        mDrawLatch = latch;
+        mMap.addListener(this);
+        try {
+            mMap.runDraw(null);
+            if (!latch.await(RENDER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                if (Constants.DEBUG_MODE) {
+                    Log.w(TAG, "MapSnapshotter: render timed out");
+                }
+                mMap.cancelDraw();
+                return false;
+            }
+        } catch (InterruptedException e) {
+            mMap.cancelDraw();
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            mMap.removeListener(this);
+            mDrawLatch = null;
+        }
+        return true;
+    }
+
+
+    /**
+     * Take the layer order, paths and visibility of the source map. Called on the UI thread, where
+     * the layers are changed, e.g. when the source map is loaded.
+     */
+    public void updateLayerSet()
+    {
+        if (null != mSource) {
+            mLayerSet = LastFrameStore.LayerSet.of(mSource);
+        }
+    }
+
+
+    /**
+     * Load the snapshot map at first use and again when the layer set or the data of the source
+     * changed. Called on the worker thread, the style configs are read here.
+     */
+    protected void reloadIfChanged()
+    {
+        LastFrameStore.LayerSet layerSet = mLayerSet;
+        long dataVersion = mDataVersion;
+        if (mIsLoaded && layerSet == mLoadedLayerSet && dataVersion == mLoadedDataVersion) {
+            return;
+        }
+
+        long version = null == layerSet ? 0 : layerSet.getHash();
+        mLoadedLayerSet = layerSet;
+        if (mIsLoaded && version == mLoadedVersion && dataVersion == mLoadedDataVersion) {
+            return;
+        }
+
+        mMap.load();
+        mIsLoaded = true;
+        mLoadedVersion = version;
+        mLoadedDataVersion = dataVersion;
+    }
+
+
+    /**
+     * @return true if the snapshot map is loaded from the current layer set and data of the source,
+     * i.e. no layer of the source changed since the last render
+     */
+    public boolean isCurrent()
+    {
+        return mIsLoaded && mLayerSet == mLoadedLayerSet && mDataVersion == mLoadedDataVersion;
+    }
+
+
+    protected static String getKey(
+            GeoEnvelope extent,
+            int width,
+            int height,
+            long version,
+            long dataVersion)
+    {
+        return String.format(Locale.US, "%dx%d:%f,%f,%f,%f:%d:%d", width, height,
+                extent.getMinX(), extent.getMinY(), extent.getMaxX(), extent.getMaxY(), version,
+                dataVersion);
+    }
+
+
+    /**
+     * @return the cached snapshot of the current layer set and data or null, e.g. if the layers
+     * changed after the last render. Does not access the disk.
+     */
+    public Bitmap getCached(
+            GeoEnvelope extent,
+            int width,
+            int height)
+    {
+        if (null == extent || !isCurrent()) {
+            return null;
+        }
+
+        return mCache.get(getKey(extent, width, height, mLoadedVersion, mLoadedDataVersion));
+    }
+
+
+    /**
+     * Drop the cached snapshots. They are not recycled as they may still be shown.
+     */
+    public void clearCache()
+    {
+        mCache.evictAll();
+    }
+
+
+    public long getRenderCount()
+    {
+        return mRenderCount;
+    }
+
+
+    public long getHitCount()
+    {
+        return mHitCount;
+    }
+
+
+    @Override
+    public void onLayerDrawFinished(
+            int id,
+            float percent)
+    {
+        CountDownLatch latch = mDrawLatch;
+        if (id == DRAW_FINISH_ID && percent >= 1.0 && null != latch) {
+            latch.countDown();
+        }
+    }
+
+
+    @Override
+    public void onLayerAdded(int id)
+    {
+
+    }
+
+
+    @Override
+    public void onLayerDeleted(int id)
+    {
+
+    }
+
+
+    @Override
+    public void onLayerChanged(int id)
+    {
+
+    }
+
+
+    @Override
+    public void onExtentChanged(
+            float zoom,
+            GeoPoint center)
+    {
+
+    }
+
+
+    @Override
+    public void onLayersReordered()
+    {
+
+    }
+
+
+    @Override
+    public void onLayerDrawStarted()
+    {
+
+    }
+
+
+    /**
+     * Takes the layer set of the source map when its layers change and counts the changes of the
+     * layer data, the events come on the UI thread
+     */
+    protected class SourceListener
+            implements MapEventListener
+    {
+        @Override
+        public void onLayerAdded(int id)
+        {
+            updateLayerSet();
+        }
+
+
+        @Override
+        public void onLayerDeleted(int id)
+        {
+            updateLayerSet();
+        }
+
+
+        @Override
+        public void onLayerChanged(int id)
+        {
+            mDataVersion++;
+            updateLayerSet();
+        }
+
+
+        @Override
+        public void onExtentChanged(
+                float zoom,
+                GeoPoint center)
+        {
+
+        }
+
+
+        @Override
+        public void onLayersReordered()
+        {
+            updateLayerSet();
+        }
+
+
+        @Override
+        public void onLayerDrawFinished(
+                int id,
+                float percent)
+        {
+
+        }
+
+
+        @Override
+        public void onLayerDrawStarted()
+        {
+
+        }
+    }
+}
@@ -24,10 +24,15 @@
 package com.nextgis.maplibui.mapui;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
 import android.graphics.PointF;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.util.Log;
 import android.view.GestureDetector;
@@ -42,11 +47,9 @@ import com.nextgis.maplib.datasource.GeoPoint;
 import com.nextgis.maplib.map.MapDrawable;
 import com.nextgis.maplib.util.Constants;
 import com.nextgis.maplib.util.MapUtil;
+import com.nextgis.maplibui.GISApplication;
 import com.nextgis.maplibui.api.MapViewEventListener;
 
-import java.util.Timer;
-import java.util.TimerTask;
-
 import static com.nextgis.maplib.util.Constants.DRAW_FINISH_ID;
 import static com.nextgis.maplib.util.Constants.TAG;
 import static com.nextgis.maplibui.util.ConstantsUI.DRAW_STATE_drawing;
@@ -59,49 +62,142 @@ import static com.nextgis.maplibui.util.ConstantsUI.DRAW_STATE_zooming;
 public class MapView
         extends MapViewBase
         implements GestureDetector.OnGestureListener, GestureDetector.OnDoubleTapListener,
-                   ScaleGestureDetector.OnScaleGestureListener, MapEventListener
+                   ScaleGestureDetector.OnScaleGestureListener, MapEventListener,
+                   MapEventCoalescer.OnMapEventBatchListener
 {
     protected final GestureDetector      mGestureDetector;
     protected final ScaleGestureDetector mScaleGestureDetector;
     protected       PointF               mStartMouseLocation;
     protected       PointF               mCurrentMouseOffset;
     protected       PointF               mCurrentFocusLocation;
-    protected       int                  mDrawingState;
+    protected final DrawingStateMachine  mDrawingState;
     protected       double               mScaleFactor;
     protected       double               mCurrentSpan;
     protected       Scroller             mScroller;
     protected       long                 mStartDrawTime;
-    private Timer mTimer;
-    private InvalidateTask mInvalidateTask;
+    protected final FrameScheduler       mFrameScheduler;
+    protected final ZoomAnimator         mZoomAnimator;
+    protected       boolean              mZoomAnimationEnabled;
+    protected       boolean              mIsZoomAnimating;
+    protected       float                mZoomAnimationTarget;
+    protected final PanStripRenderer     mPanStripRenderer;
+    protected       boolean              mIsPanStripPending;
+    protected       MapSnapshotter       mSnapshotter;
+    protected final PointF               mPanSettleOffset;
+    protected       boolean              mIncrementalPanEnabled;
+    protected volatile boolean           mIsPanSettling;
+    protected volatile boolean           mIsPanSettleBuffered;
+    protected final MapEventCoalescer    mMapEventCoalescer;
+    protected final FlingPrefetcher      mFlingPrefetcher;
+    protected final RenderGeneration     mRenderGeneration;
+    protected       boolean              mFlingPrefetchEnabled;
+    protected final InteractionRenderPolicy mRenderPolicy;
+    protected final LayerRenderProfiler     mLayerProfiler;
+    protected volatile boolean           mIsRendering;
+    protected final MapFrame             mStartupFrame;
+    protected       LastFrameStore       mLastFrameStore;
+    protected       LastFrameStore.Tag   mStartupTag;
+    protected       boolean              mLastFrameEnabled;
+    protected       boolean              mIsLastFrameRequested;
+    protected       boolean              mIsFrameComplete;
+    protected final BufferPyramid        mBufferPyramid;
+    protected final Matrix               mZoomMatrix;
+    protected final Paint                mZoomPaint;
+    protected final IdlePrefetcher       mIdlePrefetcher;
+    private final InvalidateTask mInvalidateTask = new InvalidateTask();
+    private final ZoomSettleTask mZoomSettleTask = new ZoomSettleTask();
+    private final DrawProgressTask mDrawProgressTask = new DrawProgressTask();
+    private final IdleTask mIdleTask = new IdleTask();
+    private final IdlePrefetchTask mIdlePrefetchTask = new IdlePrefetchTask();
+    private final PanStripRenderer.OnStripsRenderedListener mPanStripListener =
+            new PanStripRenderer.OnStripsRenderedListener()
+            {
+                @Override
+                public void onStripsRendered()
+                {
+                    onPanStripsRendered();
+                }
+            };
     final Handler uiHandler = new Handler();
 
-    //display redraw timeout ms
-    public static final int DISPLAY_REDRAW_TIMEOUT = 750;
+    //default display redraw timeout ms, see setIdleTimeout()
+    public static final int DISPLAY_REDRAW_TIMEOUT = InteractionRenderPolicy.DEFAULT_IDLE_TIMEOUT;
+    //animated zoom duration ms
+    public static final int ZOOM_ANIMATION_DURATION = 250;
+    //delay after animated zoom before the map is rendered at the new zoom ms
+    public static final int ZOOM_SETTLE_TIMEOUT = 150;
+    //time layer events wait for others to join one redraw ms
+    public static final int MAP_EVENT_COALESCE_TIMEOUT = 50;
+    //part of the heap the buffer pyramid may take from the shared memory budget
+    public static final int BUFFER_PYRAMID_MEMORY_PART = 16;
 
-    class InvalidateTask extends TimerTask {
+    class InvalidateTask implements Runnable {
 
         @Override
         public void run() {
-            uiHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    mDrawingState = DRAW_STATE_drawing;
-                    setZoomAndCenter(getZoomLevel(), getMapCenter());
-                }
-            });
+            // the map is drawn by onMapReady() after it is loaded
+            if (!isMapReady()) {
+                return;
+            }
+
+            mDrawingState.moveTo(DRAW_STATE_drawing);
+            setZoomAndCenter(getZoomLevel(), getMapCenter());
         }
     }
 
-    public void scheduleInvalidate() {
-        if (mTimer != null) {
-            mTimer.cancel();
+    class ZoomSettleTask implements Runnable {
+
+        @Override
+        public void run() {
+            finishZoomAnimation();
+        }
+    }
+
+    class DrawProgressTask implements Runnable {
+
+        @Override
+        public void run() {
+            applyDrawProgress(mDrawingState.takeDrawProgress());
+        }
+    }
+
+    class IdleTask implements Runnable {
+
+        @Override
+        public void run() {
+            if (mRenderPolicy.takeDeferredRender()) {
+                drawMapDrawable();
+            }
+        }
+    }
+
+    class IdlePrefetchTask implements Runnable {
+
+        @Override
+        public void run() {
+            if (mMap != null && !mIsRendering && !mRenderPolicy.isInteracting() &&
+                !mDrawingState.isGesture()) {
+                mIdlePrefetcher.start(mMap, mMap.getCurrentBounds(), getZoomLevel(), getMinZoom(),
+                        getMaxZoom());
+            }
         }
+    }
 
-        mTimer = new Timer();
-        mInvalidateTask = new InvalidateTask();
-        mTimer.schedule(mInvalidateTask, DISPLAY_REDRAW_TIMEOUT);
+    public void scheduleInvalidate() {
+        uiHandler.removeCallbacks(mInvalidateTask);
+        uiHandler.postDelayed(mInvalidateTask, mRenderPolicy.getIdleTimeout());
+    }
+
+    /**
+     * Create the view for the map of the application without waiting for the map to be loaded,
+     * touches are ignored until the map is ready
+     */
+    public MapView(Context context)
+    {
+        this(context, getApplicationMap(context));
     }
 
+
     public MapView(
             Context context,
             MapDrawable map)
@@ -116,12 +212,35 @@ public class MapView
         mScaleGestureDetector = new ScaleGestureDetector(getContext(), this);
 
         mScroller = new Scroller(context);
+        mFrameScheduler = new FrameScheduler(this);
+        mZoomAnimator = new ZoomAnimator();
+        mZoomAnimationEnabled = true;
+        MemoryBudget budget = MemoryBudget.getInstance();
+        mPanStripRenderer = new PanStripRenderer(budget);
+        mPanSettleOffset = new PointF();
+        mIncrementalPanEnabled = true;
+        mMapEventCoalescer = new MapEventCoalescer(this, MAP_EVENT_COALESCE_TIMEOUT);
+        mRenderGeneration = new RenderGeneration();
+        mFlingPrefetcher = new FlingPrefetcher(mRenderGeneration);
+        mFlingPrefetchEnabled = true;
+        mLayerProfiler = new LayerRenderProfiler();
+        mRenderPolicy = new InteractionRenderPolicy(mLayerProfiler);
+        mStartupFrame = new MapFrame(budget);
+        mBufferPyramid = new BufferPyramid(
+                budget, Runtime.getRuntime().maxMemory() / BUFFER_PYRAMID_MEMORY_PART);
+        mZoomMatrix = new Matrix();
+        mZoomPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        mIdlePrefetcher = new IdlePrefetcher(context, mRenderGeneration);
+        mLastFrameEnabled = true;
+        if (null != map) {
+            mLastFrameStore = new LastFrameStore(context, map);
+        }
 
         mStartMouseLocation = new PointF();
         mCurrentMouseOffset = new PointF();
         mCurrentFocusLocation = new PointF();
 
-        mDrawingState = DRAW_STATE_drawing_noclearbk;
+        mDrawingState = new DrawingStateMachine(DRAW_STATE_drawing_noclearbk);
     }
 
     @Override
@@ -143,6 +262,7 @@ public class MapView
             mMap.addListener(this);
         }
 
+        mFrameScheduler.setEnabled(true);
         scheduleInvalidate();
     }
 
@@ -155,35 +275,146 @@ public class MapView
         if (mMap != null) {
             mMap.removeListener(this);
         }
+
+        uiHandler.removeCallbacks(mInvalidateTask);
+        uiHandler.removeCallbacks(mZoomSettleTask);
+        uiHandler.removeCallbacks(mDrawProgressTask);
+        uiHandler.removeCallbacks(mIdleTask);
+        uiHandler.removeCallbacks(mIdlePrefetchTask);
+        mDrawingState.takeDrawProgress();
+        mMapEventCoalescer.cancel();
+        mFlingPrefetcher.shutdown();
+        mIdlePrefetcher.shutdown();
+        mIsZoomAnimating = false;
+        mIsPanSettling = false;
+        mPanStripRenderer.recycle();
+        mStartupFrame.recycle();
+        mBufferPyramid.recycle();
+        mFrameScheduler.setEnabled(false);
     }
 
 
+    /**
+     * The window is hidden when the activity stops, the last complete frame is saved then
+     */
     @Override
-    protected synchronized void onDraw(Canvas canvas)
+    protected void onWindowVisibilityChanged(int visibility)
+    {
+        super.onWindowVisibilityChanged(visibility);
+
+        if (VISIBLE != visibility) {
+            saveLastFrame();
+        }
+    }
+
+
+    @Override
+    protected void onSizeChanged(
+            int w,
+            int h,
+            int oldw,
+            int oldh)
+    {
+        super.onSizeChanged(w, h, oldw, oldh);
+
+        // the frame composed after a pan has the old size
+        mPanStripRenderer.release();
+
+        if (isMapReady()) {
+            requestLastFrame();
+        }
+    }
+
+
+    @Override
+    protected void onMapReady()
+    {
+        super.onMapReady();
+        requestLastFrame();
+        drawMapDrawable();
+    }
+
+
+    /**
+     * Restore the saved frame once, when the map is loaded and the view has its size
+     */
+    protected void requestLastFrame()
+    {
+        int width = getWidth();
+        int height = getHeight();
+        if (!mIsLastFrameRequested && !mIsFrameComplete && width > 0 && height > 0) {
+            mIsLastFrameRequested = true;
+            restoreLastFrame(width, height);
+        }
+    }
+
+
+    /**
+     * Redraw requests from any thread are coalesced to at most one invalidate per display frame
+     */
+    @Override
+    public void postInvalidate()
+    {
+        mFrameScheduler.requestFrame();
+    }
+
+
+    public FrameScheduler getFrameScheduler()
+    {
+        return mFrameScheduler;
+    }
+
+
+    @Override
+    protected void onDraw(Canvas canvas)
     {
         //Log.d(TAG, "state: " + mDrawingState + ", current loc: " +  mCurrentMouseOffset.toString() + " current focus: " + mCurrentFocusLocation.toString() + " scale: "  + mScaleFactor);
 
         if (mMap != null) {
 
-            switch (mDrawingState) {
+            switch (mDrawingState.get()) {
 
                 case DRAW_STATE_panning:
                 case DRAW_STATE_panning_fling:
-                    mMap.draw(canvas, -mCurrentMouseOffset.x, -mCurrentMouseOffset.y, true);
+                    drawMap(canvas, -mCurrentMouseOffset.x, -mCurrentMouseOffset.y, true);
                     break;
 
                 case DRAW_STATE_zooming:
-                    mMap.draw(
-                            canvas, -mCurrentFocusLocation.x, -mCurrentFocusLocation.y,
-                            (float) mScaleFactor);
+                    float scale = (float) mScaleFactor;
+                    mZoomMatrix.setScale(scale, scale);
+                    mZoomMatrix.postTranslate(
+                            -(1 - scale) * mCurrentFocusLocation.x,
+                            -(1 - scale) * mCurrentFocusLocation.y);
+                    if (mPanStripRenderer.isCurrent()) {
+                        mPanStripRenderer.draw(canvas, mZoomMatrix, mZoomPaint);
+                    } else {
+                        mMap.draw(
+                                canvas, -mCurrentFocusLocation.x, -mCurrentFocusLocation.y,
+                                (float) mScaleFactor);
+                    }
+                    if (mScaleFactor < 1 && !isMapChanged()) {
+                        // zooming out, fill the margins from the low resolution level
+                        mBufferPyramid.drawMargins(
+                                canvas, mMap, mZoomMatrix, getWidth(), getHeight());
+                    }
                     break;
 //TODO: add invalidate rect to prevent flicker
                 case DRAW_STATE_drawing_noclearbk:
-                    mMap.draw(canvas, 0, 0, false);
+                    if (mStartupFrame.isValid()) {
+                        mStartupFrame.draw(canvas, 0, 0);
+                    } else {
+                        drawMap(canvas, 0, 0, false);
+                    }
                     break;
 
                 case DRAW_STATE_drawing:
-                    mMap.draw(canvas, 0, 0, true);
+                    if (mStartupFrame.isValid()) {
+                        mStartupFrame.draw(canvas, 0, 0);
+                    } else if (mIsPanSettling) {
+                        drawPanSettle(canvas);
+                    } else {
+                        drawMap(canvas, 0, 0, true);
+                    }
                     break;
 
                 //case DRAW_STATE_none:
@@ -201,12 +432,17 @@ public class MapView
 
     protected void zoomStart(ScaleGestureDetector scaleGestureDetector)
     {
+        settleZoomAnimation();
+        mFlingPrefetcher.cancel();
+        mIsPanSettling = false;
 
-        if (mDrawingState == DRAW_STATE_zooming) {
+        int state = mDrawingState.get();
+        if (state == DRAW_STATE_zooming || !mDrawingState.transition(state, DRAW_STATE_zooming)) {
             return;
         }
 
-        mDrawingState = DRAW_STATE_zooming;
+        onInteractionStart();
+
         mCurrentSpan = scaleGestureDetector.getCurrentSpan();
         mCurrentFocusLocation.set(
                 -scaleGestureDetector.getFocusX(), -scaleGestureDetector.getFocusY());
@@ -218,12 +454,12 @@ public class MapView
 
     protected void zoom(ScaleGestureDetector scaleGestureDetector)
     {
-        if (mDrawingState != DRAW_STATE_zooming) {
+        if (mDrawingState.get() != DRAW_STATE_zooming) {
             zoomStart(scaleGestureDetector);
         }
 
 
-        if (mDrawingState == DRAW_STATE_zooming && mMap != null) {
+        if (mDrawingState.get() == DRAW_STATE_zooming && mMap != null) {
             double scaleFactor =
                     scaleGestureDetector.getScaleFactor() * scaleGestureDetector.getCurrentSpan() /
                     mCurrentSpan;
@@ -234,46 +470,179 @@ public class MapView
 
             mScaleFactor = scaleFactor;
             mMap.buffer(0, 0, 1);
-            invalidate();
+            mFrameScheduler.requestFrame();
         }
     }
 
     protected void zoomStop()
     {
-        if (mDrawingState == DRAW_STATE_zooming && mMap != null) {
+        if (mDrawingState.get() == DRAW_STATE_zooming && mMap != null) {
 
             float zoom = MapUtil.getZoomForScaleFactor(mScaleFactor, mMap.getZoomLevel());
-
-            GeoEnvelope env = mMap.getFullScreenBounds();
-            GeoPoint focusPt = new GeoPoint(-mCurrentFocusLocation.x, -mCurrentFocusLocation.y);
-
-            double invertScale = 1 / mScaleFactor;
-
-            double offX = (1 - invertScale) * focusPt.getX();
-            double offY = (1 - invertScale) * focusPt.getY();
-            env.scale(invertScale);
-            env.offset(offX, offY);
-
-            GeoPoint newCenterPt = env.getCenter();
-            GeoPoint newCenterPtMap = mMap.screenToMap(newCenterPt);
+            GeoPoint newCenterPtMap = getScaledCenter(mScaleFactor, mCurrentFocusLocation);
 
             if(Constants.DEBUG_MODE) {
                 Log.d(TAG, "zoomStop: setZoomAndCenter");
             }
 
+            onInteractionEnd();
             setZoomAndCenter(zoom, newCenterPtMap);
         }
     }
 
 
+    /**
+     * @param scale         buffer scale factor
+     * @param focusLocation negated screen focus of the scale
+     *
+     * @return the map center after the screen is scaled around the focus point
+     */
+    protected GeoPoint getScaledCenter(
+            double scale,
+            PointF focusLocation)
+    {
+        GeoEnvelope env = mMap.getFullScreenBounds();
+        GeoPoint focusPt = new GeoPoint(-focusLocation.x, -focusLocation.y);
+
+        double invertScale = 1 / scale;
+
+        double offX = (1 - invertScale) * focusPt.getX();
+        double offY = (1 - invertScale) * focusPt.getY();
+        env.scale(invertScale);
+        env.offset(offX, offY);
+
+        GeoPoint newCenterPt = env.getCenter();
+        return mMap.screenToMap(newCenterPt);
+    }
+
+
+    public boolean isZoomAnimationEnabled()
+    {
+        return mZoomAnimationEnabled;
+    }
+
+
+    /**
+     * If enabled, zoom buttons and double tap scale the current buffer over several frames and
+     * render the map only when the animation settles
+     */
+    public void setZoomAnimationEnabled(boolean zoomAnimationEnabled)
+    {
+        mZoomAnimationEnabled = zoomAnimationEnabled;
+    }
+
+
+    /**
+     * Animate the buffer to the zoom level around the screen focus point. A zoom requested while
+     * the animation is running or settling continues from the current scale and postpones the
+     * render.
+     */
+    protected void animateZoom(
+            float zoom,
+            float focusX,
+            float focusY)
+    {
+        if (mMap == null) {
+            return;
+        }
+
+        zoom = Math.max(getMinZoom(), Math.min(getMaxZoom(), zoom));
+        if (!mIsZoomAnimating && zoom == getZoomLevel()) {
+            return;
+        }
+
+        uiHandler.removeCallbacks(mZoomSettleTask);
+        mFlingPrefetcher.cancel();
+
+        if (!mIsZoomAnimating || mDrawingState.get() != DRAW_STATE_zooming) {
+            onInteractionStart();
+            mMap.cancelDraw();
+            mDrawingState.moveTo(DRAW_STATE_zooming);
+            mMap.buffer(0, 0, 1);
+            mScaleFactor = 1;
+            mCurrentFocusLocation.set(-focusX, -focusY);
+            mIsZoomAnimating = true;
+        }
+
+        mZoomAnimationTarget = zoom;
+        double scale = Math.pow(2, zoom - getZoomLevel());
+        mZoomAnimator.start(mScaleFactor, scale, ZOOM_ANIMATION_DURATION);
+        mFrameScheduler.requestFrame();
+    }
+
+
+    protected void computeZoomAnimation()
+    {
+        if (!mIsZoomAnimating || !mZoomAnimator.isRunning()) {
+            return;
+        }
+
+        if (mDrawingState.get() != DRAW_STATE_zooming) {
+            // the extent was changed from outside, drop the animation
+            mZoomAnimator.finish();
+            mIsZoomAnimating = false;
+            return;
+        }
+
+        mScaleFactor = mZoomAnimator.computeScale();
+        if (mZoomAnimator.isRunning()) {
+            mFrameScheduler.requestFrame();
+        } else {
+            uiHandler.postDelayed(mZoomSettleTask, ZOOM_SETTLE_TIMEOUT);
+        }
+    }
+
+
+    /**
+     * Finish the running zoom animation at once, e.g. when a new gesture starts
+     */
+    protected void settleZoomAnimation()
+    {
+        if (!mIsZoomAnimating) {
+            return;
+        }
+
+        uiHandler.removeCallbacks(mZoomSettleTask);
+        mZoomAnimator.finish();
+        mScaleFactor = mZoomAnimator.getScale();
+        finishZoomAnimation();
+    }
+
+
+    protected void finishZoomAnimation()
+    {
+        if (!mIsZoomAnimating || mMap == null) {
+            return;
+        }
+
+        mIsZoomAnimating = false;
+        onInteractionEnd();
+        if (mDrawingState.get() != DRAW_STATE_zooming) {
+            return;
+        }
+
+        GeoPoint center = getScaledCenter(mScaleFactor, mCurrentFocusLocation);
+
+        if (Constants.DEBUG_MODE) {
+            Log.d(TAG, "finishZoomAnimation: setZoomAndCenter");
+        }
+
+        setZoomAndCenter(mZoomAnimationTarget, center);
+    }
+
+
     protected void panStart(final MotionEvent e)
     {
+        settleZoomAnimation();
 
-        if (mDrawingState == DRAW_STATE_zooming || mDrawingState == DRAW_STATE_panning ||
-            mDrawingState == DRAW_STATE_panning_fling) {
+        int state = mDrawingState.get();
+        if (DrawingStateMachine.isGesture(state) ||
+            !mDrawingState.transition(state, DRAW_STATE_panning)) {
             return;
         }
 
+        onInteractionStart();
+
         //Log.d(TAG, "panStart");
         for (MapViewEventListener listener : mListeners) {
             if (null != listener) {
@@ -281,10 +650,10 @@ public class MapView
             }
         }
 
-        mDrawingState = DRAW_STATE_panning;
         mStartMouseLocation.set(e.getX(), e.getY());
         mCurrentMouseOffset.set(0, 0);
 
+        mIsPanSettling = false;
         mMap.buffer(0, 0, 1);
     }
 
@@ -292,12 +661,7 @@ public class MapView
     protected void panMoveTo(final MotionEvent e)
     {
 
-        if (mDrawingState == DRAW_STATE_zooming || mDrawingState == DRAW_STATE_drawing_noclearbk ||
-            mDrawingState == DRAW_STATE_drawing) {
-            return;
-        }
-
-        if (mDrawingState == DRAW_STATE_panning && mMap != null) {
+        if (mDrawingState.get() == DRAW_STATE_panning && mMap != null) {
             for (MapViewEventListener listener : mListeners) {
                 if (null != listener) {
                     listener.panMoveTo(e);
@@ -324,7 +688,7 @@ public class MapView
 
             mCurrentMouseOffset.set(x, y);
             mMap.buffer(0, 0, 1);
-            invalidate();
+            mFrameScheduler.requestFrame();
         }
     }
 
@@ -333,7 +697,7 @@ public class MapView
     {
         //Log.d(Constants.TAG, "panStop state: " + mDrawingState);
 
-        if (mDrawingState == DRAW_STATE_panning && mMap != null) {
+        if (mDrawingState.get() == DRAW_STATE_panning && mMap != null) {
 
             float x = mCurrentMouseOffset.x;
             float y = mCurrentMouseOffset.y;
@@ -350,7 +714,20 @@ public class MapView
 
             //Log.d(TAG, "panStop: setZoomAndCenter");
 
+            onInteractionEnd();
+
+            if (mIncrementalPanEnabled && (x != 0 || y != 0)) {
+                mPanSettleOffset.set(x, y);
+                mIsPanSettleBuffered = false;
+                mIsPanSettling = true;
+                mIsPanStripPending =
+                        mPanStripRenderer.canRender(x, y, getWidth(), getHeight()) &&
+                        isSnapshotCurrent();
+            }
+
+            // the extent change is drawn synchronously, by strips if the pan allows it
             setZoomAndCenter(getZoomLevel(), pt);
+            mIsPanStripPending = false;
 
             for (MapViewEventListener listener : mListeners) {
                 if (null != listener) {
@@ -368,6 +745,11 @@ public class MapView
             @NonNull
             MotionEvent event)
     {
+        if (!isMapReady()) {
+            // the layers are still added on the loader thread
+            return true;
+        }
+
         mScaleGestureDetector.onTouchEvent(event);
 
         if (!mGestureDetector.onTouchEvent(event)) {
@@ -375,6 +757,7 @@ public class MapView
                 case MotionEvent.ACTION_DOWN:
                     if (!mScroller.isFinished()) {
                         mScroller.forceFinished(true);
+                        mFlingPrefetcher.cancel();
                     }
                     break;
 
@@ -414,15 +797,14 @@ public class MapView
             return false;
         }
 
-        if (mDrawingState == DRAW_STATE_zooming || mDrawingState == DRAW_STATE_drawing_noclearbk ||
-            mDrawingState == DRAW_STATE_drawing) {
+        // only a pan or a running fling can be flung
+        if (!mDrawingState.moveTo(DRAW_STATE_panning_fling)) {
             return false;
         }
 
         float x = mCurrentMouseOffset.x;
         float y = mCurrentMouseOffset.y;
         GeoEnvelope bounds = mMap.getLimits();
-        mDrawingState = DRAW_STATE_panning_fling;
 
         mScroller.forceFinished(true);
 
@@ -432,6 +814,10 @@ public class MapView
 
         //Log.d(Constants.TAG, "Fling");
 
+        if (mFlingPrefetchEnabled) {
+            prefetchFlingExtent();
+        }
+
         postInvalidate();
 
         return true;
@@ -442,10 +828,12 @@ public class MapView
     public void computeScroll()
     {
         super.computeScroll();
-        if (mDrawingState == DRAW_STATE_panning_fling && mMap != null) {
+        computeZoomAnimation();
+
+        if (mDrawingState.get() == DRAW_STATE_panning_fling && mMap != null) {
             if (mScroller.computeScrollOffset()) {
                 if (mScroller.isFinished()) {
-                    mDrawingState = DRAW_STATE_panning;
+                    mDrawingState.transition(DRAW_STATE_panning_fling, DRAW_STATE_panning);
                     panStop();
                 } else {
                     float x = mScroller.getCurrX();
@@ -471,7 +859,7 @@ public class MapView
                     postInvalidate();
                 }
             } else if (mScroller.isFinished()) {
-                mDrawingState = DRAW_STATE_panning;
+                mDrawingState.transition(DRAW_STATE_panning_fling, DRAW_STATE_panning);
                 panStop();
             }
         }
@@ -528,26 +916,22 @@ public class MapView
             return false;
         }
 
-        mDrawingState = DRAW_STATE_zooming;
+        if (mZoomAnimationEnabled) {
+            float zoom = mIsZoomAnimating ? mZoomAnimationTarget : getZoomLevel();
+            animateZoom((float) Math.ceil(zoom + 0.5), e.getX(), e.getY());
+            return true;
+        }
+
+        mDrawingState.moveTo(DRAW_STATE_zooming);
         mScaleFactor = 2;
         mCurrentFocusLocation.set(-e.getX(), -e.getY());
         //invalidate();
 
-        GeoEnvelope env = mMap.getFullScreenBounds();
-        GeoPoint focusPt = new GeoPoint(-mCurrentFocusLocation.x, -mCurrentFocusLocation.y);
-
-        double invertScale = 1 / mScaleFactor;
-
-        double offX = (1 - invertScale) * focusPt.getX();
-        double offY = (1 - invertScale) * focusPt.getY();
-        env.scale(invertScale);
-        env.offset(offX, offY);
-
-        GeoPoint newCenterPt = env.getCenter();
-        GeoPoint newCenterPtMap = mMap.screenToMap(newCenterPt);
+        GeoPoint newCenterPtMap = getScaledCenter(mScaleFactor, mCurrentFocusLocation);
 
         //Log.d(TAG, "onDoubleTap: setZoomAndCenter");
 
+        mFlingPrefetcher.cancel();
         mMap.buffer(0, 0, 1);
         setZoomAndCenter((float) Math.ceil(getZoomLevel() + 0.5), newCenterPtMap);
 
@@ -580,11 +964,18 @@ public class MapView
     @Override
     public void zoomIn()
     {
-        mDrawingState = DRAW_STATE_zooming;
+        if (mZoomAnimationEnabled) {
+            float zoom = mIsZoomAnimating ? mZoomAnimationTarget : getZoomLevel();
+            animateZoom((float) Math.ceil(zoom + 0.5), getWidth() / 2, getHeight() / 2);
+            return;
+        }
+
+        mDrawingState.moveTo(DRAW_STATE_zooming);
         mScaleFactor = 2;
         mCurrentFocusLocation.set(-getWidth() / 2, -getHeight() / 2);
 
-        mMap.buffer(0, 0, 1); //TODO: zoom the buffer and just draw it, not draw with scale
+        mFlingPrefetcher.cancel();
+        mMap.buffer(0, 0, 1);
 
 
 //        scheduleInvalidate();
@@ -598,11 +989,18 @@ public class MapView
     @Override
     public void zoomOut()
     {
-        mDrawingState = DRAW_STATE_zooming;
+        if (mZoomAnimationEnabled) {
+            float zoom = mIsZoomAnimating ? mZoomAnimationTarget : getZoomLevel();
+            animateZoom((float) Math.floor(zoom - 0.5), getWidth() / 2, getHeight() / 2);
+            return;
+        }
+
+        mDrawingState.moveTo(DRAW_STATE_zooming);
         mScaleFactor = 0.5;
         mCurrentFocusLocation.set(-getWidth() / 2, -getHeight() / 2);
 
-        mMap.buffer(0, 0, 1); //TODO: zoom the buffer and just draw it, not draw with scale
+        mFlingPrefetcher.cancel();
+        mMap.buffer(0, 0, 1);
 
 //        scheduleInvalidate();
 
@@ -638,70 +1036,624 @@ public class MapView
     @Override
     public void onLayerAdded(int id)
     {
-        drawMapDrawable();
+        mMapEventCoalescer.post(MapEventCoalescer.EVENT_LAYER_ADDED, id);
     }
 
 
     @Override
     public void onLayerDeleted(int id)
     {
-        drawMapDrawable();
+        mMapEventCoalescer.post(MapEventCoalescer.EVENT_LAYER_DELETED, id);
     }
 
 
     @Override
     public void onLayerChanged(int id)
     {
-        drawMapDrawable();
+        mMapEventCoalescer.post(MapEventCoalescer.EVENT_LAYER_CHANGED, id);
     }
 
 
+    /**
+     * Extent changes made on the UI thread (gestures, zoom buttons) are drawn at once, as the
+     * drawing state has to leave panning or zooming before the next gesture. Pending layer events
+     * join the same redraw.
+     */
     @Override
     public void onExtentChanged(
             float zoom,
             GeoPoint center)
     {
-        drawMapDrawable();
+        mMapEventCoalescer.post(MapEventCoalescer.EVENT_EXTENT_CHANGED, -1);
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            mMapEventCoalescer.flush();
+        }
     }
 
 
     @Override
     public void onLayersReordered()
     {
+        mMapEventCoalescer.post(MapEventCoalescer.EVENT_LAYERS_REORDERED, -1);
+    }
+
+
+    @Override
+    public void onMapEventBatch(MapEventCoalescer.Batch batch)
+    {
+        if (Constants.DEBUG_MODE) {
+            Log.d(TAG, "onMapEventBatch: " + batch.getEventCount() + " events, layers " +
+                       batch.getLayerIds());
+        }
+
+        if (batch.has(MapEventCoalescer.EVENT_EXTENT_CHANGED)) {
+            mBufferPyramid.onExtentChanged();
+        }
+
+        if (batch.has(MapEventCoalescer.EVENT_LAYER_ADDED) ||
+            batch.has(MapEventCoalescer.EVENT_LAYER_DELETED) ||
+            batch.has(MapEventCoalescer.EVENT_LAYER_CHANGED) ||
+            batch.has(MapEventCoalescer.EVENT_LAYERS_REORDERED)) {
+            mBufferPyramid.clear();
+        }
+
+        if (batch.has(MapEventCoalescer.EVENT_EXTENT_CHANGED) && mStartupFrame.isValid() &&
+            !isLastFrameCurrent(mStartupTag)) {
+            mStartupFrame.recycle();
+        }
+
+        for (Integer id : batch.getLayerIds()) {
+            if (batch.has(MapEventCoalescer.EVENT_LAYER_DELETED) && null == getLayerById(id)) {
+                mRenderPolicy.removeLayer(id);
+            }
+        }
+
+        // a layer redraw would stop the gesture, it waits for the view to become idle
+        if (!batch.has(MapEventCoalescer.EVENT_EXTENT_CHANGED) &&
+            (mRenderPolicy.isInteracting() || mDrawingState.isGesture())) {
+            mRenderPolicy.deferRender();
+            return;
+        }
+
+        // a pan alone needs only the exposed strips, layer changes need the whole map
+        boolean isExtentOnly = batch.getLayerIds().isEmpty() &&
+                               !batch.has(MapEventCoalescer.EVENT_LAYERS_REORDERED);
+        if (mIsPanStripPending && isExtentOnly && renderPanStrips()) {
+            return;
+        }
+
         drawMapDrawable();
     }
 
 
+    public MapEventCoalescer getMapEventCoalescer()
+    {
+        return mMapEventCoalescer;
+    }
+
+
+    /**
+     * Draw the map while it is rendered in full after a pan. Until the first progressive buffer
+     * the old image is shown shifted, as during the pan.
+     */
+    protected void drawPanSettle(Canvas canvas)
+    {
+        if (!mIsPanSettleBuffered) {
+            drawMap(canvas, -mPanSettleOffset.x, -mPanSettleOffset.y, true);
+            return;
+        }
+
+        mMap.draw(canvas, 0, 0, true);
+    }
+
+
+    /**
+     * Draw the current map image: the map buffer, or the frame composed from the previous image
+     * and the rendered strips after a pan
+     */
+    protected void drawMap(
+            Canvas canvas,
+            float x,
+            float y,
+            boolean clearBackground)
+    {
+        if (mPanStripRenderer.isCurrent()) {
+            mPanStripRenderer.draw(canvas, x, y);
+        } else {
+            mMap.draw(canvas, x, y, clearBackground);
+        }
+    }
+
+
+    /**
+     * Shift the current image by the pan and render only the strips the pan exposed instead of the
+     * whole map
+     *
+     * @return false if the map has to be rendered in full
+     */
+    protected boolean renderPanStrips()
+    {
+        MapSnapshotter snapshotter = getSnapshotter();
+        // a layer change deferred during the gesture needs the whole map
+        if (null == mMap || !isSnapshotCurrent() || !isMapReady() ||
+            mRenderPolicy.takeDeferredRender()) {
+            return false;
+        }
+
+        if (mIsRendering) {
+            mMap.cancelDraw();
+            mIsRendering = false;
+            mRenderGeneration.onSkipped(RenderGeneration.WORK_RENDER);
+        }
+        pauseIdlePrefetch();
+        mRenderGeneration.next(mMap.getCurrentBounds());
+
+        if (!mPanStripRenderer.start(mMap, snapshotter, mPanSettleOffset.x, mPanSettleOffset.y,
+                getWidth(), getHeight(), mPanStripListener)) {
+            return false;
+        }
+
+        mRenderGeneration.onStarted(RenderGeneration.WORK_RENDER);
+        mDrawingState.moveTo(DRAW_STATE_drawing);
+        mIsPanSettling = false;
+        mIsFrameComplete = false;
+        postInvalidate();
+        return true;
+    }
+
+
+    protected void onPanStripsRendered()
+    {
+        if (mDrawingState.isGesture()) {
+            return;
+        }
+
+        mIsFrameComplete = true;
+        uiHandler.postDelayed(mIdlePrefetchTask, mIdlePrefetcher.getDelay());
+        postInvalidate();
+    }
+
+
+    /**
+     * @return the renderer of the strips exposed by a pan, by default the snapshotter of the
+     * application
+     */
+    protected MapSnapshotter getSnapshotter()
+    {
+        if (null == mSnapshotter) {
+            Context application = getContext().getApplicationContext();
+            if (application instanceof GISApplication) {
+                mSnapshotter = ((GISApplication) application).getMapSnapshotter();
+            }
+        }
+        return mSnapshotter;
+    }
+
+
+    /**
+     * The snapshotter renders its own map loaded from the map file. Its images match the view only
+     * if no layer changed since it was loaded and the view does not change the layers itself.
+     *
+     * @return true if the snapshotter may render parts of the displayed map
+     */
+    protected boolean isSnapshotCurrent()
+    {
+        MapSnapshotter snapshotter = getSnapshotter();
+        return null != snapshotter && snapshotter.isCurrent() && !isMapChanged();
+    }
+
+
+    /**
+     * @return true if the displayed layers differ from the map file, e.g. a feature is hidden
+     * while it is edited
+     */
+    protected boolean isMapChanged()
+    {
+        return false;
+    }
+
+
+    /**
+     * @param snapshotter renders the strips exposed by a pan, its map has to be loaded from the map
+     *                    file of the view. If null the map is rendered in full after a pan.
+     */
+    public void setSnapshotter(MapSnapshotter snapshotter)
+    {
+        mPanStripRenderer.release();
+        mSnapshotter = snapshotter;
+    }
+
+
+    public PanStripRenderer getPanStripRenderer()
+    {
+        return mPanStripRenderer;
+    }
+
+
+    public boolean isIncrementalPanEnabled()
+    {
+        return mIncrementalPanEnabled;
+    }
+
+
+    /**
+     * If enabled, only the strips a pan exposed are rendered and composed with the shifted previous
+     * frame. A pan exposing a large part of the view renders the map in full, the previous frame
+     * stays visible shifted until the first layers are rendered. The map is rendered in full too
+     * while the snapshotter map is not current, see {@link #isSnapshotCurrent()}.
+     */
+    public void setIncrementalPanEnabled(boolean incrementalPanEnabled)
+    {
+        mIncrementalPanEnabled = incrementalPanEnabled;
+        if (!incrementalPanEnabled) {
+            mIsPanSettling = false;
+            mPanStripRenderer.recycle();
+        }
+    }
+
+
+    /**
+     * Start loading the data of the extent the running fling stops at
+     */
+    protected void prefetchFlingExtent()
+    {
+        GeoEnvelope bounds = mMap.getFullScreenBounds();
+        bounds.offset(mScroller.getFinalX(), mScroller.getFinalY());
+        GeoEnvelope mapBounds = mMap.screenToMap(bounds);
+        mFlingPrefetcher.start(mMap, mapBounds, getZoomLevel());
+    }
+
+
+    public boolean isFlingPrefetchEnabled()
+    {
+        return mFlingPrefetchEnabled;
+    }
+
+
+    /**
+     * If enabled, tiles and vector data of the area a fling stops at are loaded while the map is
+     * still moving
+     */
+    public void setFlingPrefetchEnabled(boolean flingPrefetchEnabled)
+    {
+        mFlingPrefetchEnabled = flingPrefetchEnabled;
+        if (!flingPrefetchEnabled) {
+            mFlingPrefetcher.cancel();
+        }
+    }
+
+
+    /**
+     * The neighbourhood prefetch waits while the user interacts or the map renders, it starts
+     * again when the view has been idle for its delay after a complete render. The level of the
+     * buffer pyramid is rendered again after the next complete render too.
+     */
+    protected void pauseIdlePrefetch()
+    {
+        uiHandler.removeCallbacks(mIdlePrefetchTask);
+        mIdlePrefetcher.cancel();
+        mBufferPyramid.cancel();
+    }
+
+
+    /**
+     * @return the loader of the tiles around the view while the map is idle, its budgets and
+     * network policy may be changed
+     */
+    public IdlePrefetcher getIdlePrefetcher()
+    {
+        return mIdlePrefetcher;
+    }
+
+
+    /**
+     * @return the generation of the renders with the counters of started and skipped work
+     */
+    public RenderGeneration getRenderGeneration()
+    {
+        return mRenderGeneration;
+    }
+
+
+    public FlingPrefetcher getFlingPrefetcher()
+    {
+        return mFlingPrefetcher;
+    }
+
+
+    /**
+     * A gesture started, a running render only competes with it for the CPU and is cancelled. It
+     * is repeated when the view becomes idle, unless the gesture changes the extent.
+     */
+    protected void onInteractionStart()
+    {
+        uiHandler.removeCallbacks(mIdleTask);
+        pauseIdlePrefetch();
+        mRenderPolicy.onInteractionStart();
+        mIsFrameComplete = false;
+        mStartupFrame.recycle();
+        // the frame keeps the strips rendered so far, the next pan renders the map in full
+        mPanStripRenderer.cancel();
+
+        if (mIsRendering && mMap != null) {
+            mMap.cancelDraw();
+            mIsRendering = false;
+            mLayerProfiler.onRenderCancelled();
+            mRenderPolicy.deferRender();
+        }
+    }
+
+
+    protected void onInteractionEnd()
+    {
+        mRenderPolicy.onInteractionEnd();
+        uiHandler.removeCallbacks(mIdleTask);
+        uiHandler.postDelayed(mIdleTask, mRenderPolicy.getIdleTimeout());
+    }
+
+
+    public InteractionRenderPolicy getRenderPolicy()
+    {
+        return mRenderPolicy;
+    }
+
+
+    /**
+     * @return per layer render times, feature counts and cancels, e.g. to show in the layer list
+     */
+    public LayerRenderProfiler getLayerProfiler()
+    {
+        return mLayerProfiler;
+    }
+
+
+    public int getIdleTimeout()
+    {
+        return mRenderPolicy.getIdleTimeout();
+    }
+
+
+    /**
+     * @param idleTimeout time in ms the view has to be left alone after a gesture before the map is
+     *                    rendered in full quality, it also limits how often a partially rendered
+     *                    map is shown
+     */
+    public void setIdleTimeout(int idleTimeout)
+    {
+        mRenderPolicy.setIdleTimeout(idleTimeout);
+    }
+
+
+    public BufferPyramid getBufferPyramid()
+    {
+        return mBufferPyramid;
+    }
+
+
+    /**
+     * @param memoryLimit memory for the low resolution level shown around the map while zooming
+     *                    out in bytes, 0 disables it
+     */
+    public void setBufferPyramidMemoryLimit(long memoryLimit)
+    {
+        mBufferPyramid.setMemoryLimit(memoryLimit);
+    }
+
+
+    public boolean isLastFrameEnabled()
+    {
+        return mLastFrameEnabled;
+    }
+
+
+    /**
+     * If enabled, the last complete frame is saved when the view is hidden and shown at the next
+     * start until the map is rendered, if the map still has the same extent and layers
+     */
+    public void setLastFrameEnabled(boolean lastFrameEnabled)
+    {
+        mLastFrameEnabled = lastFrameEnabled;
+        if (!lastFrameEnabled) {
+            mStartupFrame.recycle();
+            if (null != mLastFrameStore) {
+                mLastFrameStore.delete();
+            }
+        }
+    }
+
+
+    protected void saveLastFrame()
+    {
+        if (!mLastFrameEnabled || null == mLastFrameStore || !mIsFrameComplete ||
+            mIsPanSettling || mDrawingState.isGesture()) {
+            return;
+        }
+
+        // the copy and the layer set hash are done in background, only the state is taken here
+        final int width = getWidth();
+        final int height = getHeight();
+        final MapFrame composed = mPanStripRenderer.getFrame();
+        final LastFrameStore.Tag tag = LastFrameStore.Tag.ofExtent(mMap, width, height);
+        final LastFrameStore.LayerSet layerSet = LastFrameStore.LayerSet.of(mMap);
+        final LastFrameStore store = mLastFrameStore;
+        final MapDrawable map = mMap;
+        new AsyncTask<Void, Void, Void>()
+        {
+            @Override
+            protected Void doInBackground(Void... params)
+            {
+                MapFrame frame = new MapFrame();
+                boolean isCaptured = null != composed
+                                     ? frame.capture(composed, width, height, 0, 0)
+                                     : frame.capture(map, width, height);
+                if (isCaptured) {
+                    store.write(frame.getBitmap(), tag.withLayerSetHash(layerSet.getHash()));
+                }
+                frame.recycle();
+                return null;
+            }
+        }.execute();
+    }
+
+
+    protected void restoreLastFrame(
+            int width,
+            int height)
+    {
+        if (!mLastFrameEnabled || null == mLastFrameStore) {
+            return;
+        }
+
+        final LastFrameStore.Tag tag = LastFrameStore.Tag.ofExtent(mMap, width, height);
+        final LastFrameStore.LayerSet layerSet = LastFrameStore.LayerSet.of(mMap);
+        new AsyncTask<Void, Void, Bitmap>()
+        {
+            @Override
+            protected Bitmap doInBackground(Void... params)
+            {
+                return mLastFrameStore.read(tag.withLayerSetHash(layerSet.getHash()));
+            }
+
+
+            @Override
+            protected void onPostExecute(Bitmap bitmap)
+            {
+                if (null == bitmap) {
+                    return;
+                }
+
+                // the map was rendered or moved meanwhile
+                if (mIsFrameComplete || mDrawingState.isGesture() || !isLastFrameCurrent(tag)) {
+                    bitmap.recycle();
+                    return;
+                }
+
+                mStartupTag = tag;
+                mStartupFrame.set(bitmap);
+                postInvalidate();
+            }
+        }.execute();
+    }
+
+
+    /**
+     * @return true if the map still shows the extent of the tag
+     */
+    protected boolean isLastFrameCurrent(LastFrameStore.Tag tag)
+    {
+        return null != tag && null != mMap && tag.matchesExtent(
+                new LastFrameStore.Tag(getWidth(), getHeight(), mMap.getZoomLevel(),
+                        mMap.getCurrentBounds(), 0));
+    }
+
+
     public void drawMapDrawable()
     {
-        if (mMap != null) {
-            mDrawingState = DRAW_STATE_drawing;
+        if (mMap != null && isMapReady()) {
+            if (mIsRendering) {
+                // the running render is for an old extent or layer state
+                mMap.cancelDraw();
+                mRenderGeneration.onSkipped(RenderGeneration.WORK_RENDER);
+            }
+            pauseIdlePrefetch();
+            // the frame composed after a pan is shown until the map is buffered
+            mPanStripRenderer.cancel();
+            mRenderGeneration.next(mMap.getCurrentBounds());
+            mRenderGeneration.onStarted(RenderGeneration.WORK_RENDER);
+
+            mDrawingState.moveTo(DRAW_STATE_drawing);
             mStartDrawTime = System.currentTimeMillis();
+            mRenderPolicy.takeDeferredRender();
+            mRenderPolicy.onRenderStart();
+            mLayerProfiler.onRenderStart(mMap);
+            mIsRendering = true;
+            mIsFrameComplete = false;
             mMap.runDraw(null);
         }
     }
 
 
+    /**
+     * Called on render threads. The progress is only merged into atomic flags here, the UI thread
+     * applies it, so the map buffer is touched by one thread and onDraw needs no lock.
+     */
     @Override
-    public synchronized void onLayerDrawFinished(int id, float percent)
+    public void onLayerDrawFinished(int id, float percent)
     {
         if(Constants.DEBUG_MODE) {
-            Log.d(TAG, "onLayerDrawFinished: " + id + " percent " + percent + " | draw state: " + mDrawingState);
+            Log.d(TAG, "onLayerDrawFinished: " + id + " percent " + percent + " | draw state: " + mDrawingState.get());
         }
 
-        if (mDrawingState > DRAW_STATE_drawing_noclearbk) {
+        boolean isExpensive = false;
+        if (percent >= 1.0) {
+            if (id == DRAW_FINISH_ID) {
+                mIsRendering = false;
+                mLayerProfiler.onRenderFinished();
+            } else {
+                isExpensive = mRenderPolicy.onLayerRendered(id);
+            }
+        } else if (id != DRAW_FINISH_ID) {
+            mLayerProfiler.onLayerProgress(id);
+        }
+
+        if (mDrawingState.isGesture()) {
             return;
         }
 
-        if (System.currentTimeMillis() - mStartDrawTime > DISPLAY_REDRAW_TIMEOUT) {
-            mStartDrawTime = System.currentTimeMillis();
-            mMap.buffer(0, 0, 1);
-            postInvalidate();
+        int progress = DrawingStateMachine.DRAW_PROGRESS_PARTIAL;
+        if (percent >= 1.0) {
+            if (id == DRAW_FINISH_ID) {
+                progress |= DrawingStateMachine.DRAW_PROGRESS_FINISHED;
+            } else if (!isExpensive || !mRenderPolicy.isDraft()) {
+                // a draft shows cheap layers at once and does not wait for the expensive ones
+                progress |= DrawingStateMachine.DRAW_PROGRESS_LAYER;
+            }
+        }
+
+        if (mDrawingState.addDrawProgress(progress)) {
+            uiHandler.post(mDrawProgressTask);
+        }
+    }
 
-        } else if (id == DRAW_FINISH_ID && percent >= 1.0) {
+
+    protected void applyDrawProgress(int progress)
+    {
+        // a gesture started meanwhile, it buffers the map itself
+        if (0 == progress || mDrawingState.isGesture() || mMap == null) {
+            return;
+        }
+
+        if (0 != (progress & DrawingStateMachine.DRAW_PROGRESS_FINISHED)) {
             //Log.d(TAG, "LayerDrawFinished: id - " + id + ", percent - " + percent);
 
             mMap.buffer(0, 0, 1);
+            mPanStripRenderer.release();
+            mIsPanSettling = false;
+            mStartupFrame.recycle();
+            mIsFrameComplete = !mIsRendering;
+            if (mIsFrameComplete) {
+                if (isMapChanged()) {
+                    // the level is rendered from the map file, it would show e.g. the hidden
+                    // edited feature
+                    mBufferPyramid.clear();
+                } else {
+                    mBufferPyramid.update(getSnapshotter(), mMap, getWidth(), getHeight());
+                }
+                uiHandler.postDelayed(mIdlePrefetchTask, mIdlePrefetcher.getDelay());
+            }
+            postInvalidate();
+
+        } else if (System.currentTimeMillis() - mStartDrawTime > mRenderPolicy.getIdleTimeout() ||
+                   0 != (progress & DrawingStateMachine.DRAW_PROGRESS_LAYER) &&
+                   (mIsPanSettling || mRenderPolicy.isDraft() ||
+                    mLayerProfiler.takeOrderedProgress())) {
+            // after a gesture each finished layer is shown at once, after a pan over the shifted
+            // previous frame; otherwise the buffer is refreshed when the layers expected to finish
+            // first are ready, the map composes them in the layer order
+            mStartDrawTime = System.currentTimeMillis();
+            mMap.buffer(0, 0, 1);
+            mPanStripRenderer.release();
+            mIsPanSettleBuffered = true;
             postInvalidate();
         }
     }
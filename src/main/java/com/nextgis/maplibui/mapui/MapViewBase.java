@@ -30,15 +30,19 @@ import android.net.Uri;
 import android.preference.PreferenceManager;
 import android.support.annotation.NonNull;
 import android.view.View;
+import com.nextgis.maplib.api.IGISApplication;
 import com.nextgis.maplib.api.ILayer;
 import com.nextgis.maplib.datasource.GeoEnvelope;
 import com.nextgis.maplib.datasource.GeoPoint;
 import com.nextgis.maplib.map.LayerGroup;
 import com.nextgis.maplib.map.MapDrawable;
+import com.nextgis.maplibui.GISApplication;
 import com.nextgis.maplibui.api.MapViewEventListener;
+import com.nextgis.maplibui.util.MapInitializer;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import static com.nextgis.maplib.util.GeoConstants.DEFAULT_MAX_ZOOM;
 import static com.nextgis.maplibui.util.SettingsConstantsUI.KEY_PREF_KEEPSCREENON;
@@ -50,11 +54,21 @@ public class MapViewBase
 
     protected MapDrawable                mMap;
     protected List<MapViewEventListener> mListeners;
+    protected MapInitializer.OnMapReadyListener mMapReadyListener;
 
     interface OnNeedRedraw {
         public void OnDirty();
     }
 
+    /**
+     * Create the view for the map of the application without waiting for the map to be loaded
+     */
+    public MapViewBase(Context context)
+    {
+        this(context, getApplicationMap(context));
+    }
+
+
     public MapViewBase(
             Context context,
             MapDrawable map)
@@ -62,7 +76,8 @@ public class MapViewBase
         super(context);
 
         mMap = map;
-        mListeners = new ArrayList<>();
+        // iterations see a snapshot, so listeners may be added or removed during dispatch
+        mListeners = new CopyOnWriteArrayList<>();
     }
 
 
@@ -72,6 +87,24 @@ public class MapViewBase
     }
 
 
+    /**
+     * @return the map of the application, the map may be still loaded in background, see
+     * {@link #isMapReady()}
+     */
+    public static MapDrawable getApplicationMap(Context context)
+    {
+        Context application = context.getApplicationContext();
+        if (application instanceof GISApplication) {
+            MapInitializer initializer = ((GISApplication) application).getMapInitializer();
+            if (null != initializer) {
+                return initializer.getMap();
+            }
+        }
+
+        return (MapDrawable) ((IGISApplication) application).getMap();
+    }
+
+
     @Override
     protected void onVisibilityChanged(
             @NonNull
@@ -97,6 +130,28 @@ public class MapViewBase
     }
 
 
+    @Override
+    protected void onAttachedToWindow()
+    {
+        super.onAttachedToWindow();
+
+        // the map of the application may be still loading, draw it when it is ready
+        Context application = getContext().getApplicationContext();
+        if (application instanceof GISApplication && !isMapReady()) {
+            mMapReadyListener = new MapInitializer.OnMapReadyListener()
+            {
+                @Override
+                public void onMapReady(MapDrawable map)
+                {
+                    mMapReadyListener = null;
+                    MapViewBase.this.onMapReady();
+                }
+            };
+            ((GISApplication) application).getMapAsync(mMapReadyListener);
+        }
+    }
+
+
     @Override
     protected void onDetachedFromWindow()
     {
@@ -104,10 +159,48 @@ public class MapViewBase
             mMap.cancelDraw();
         }
 
+        Context application = getContext().getApplicationContext();
+        if (null != mMapReadyListener && application instanceof GISApplication) {
+            MapInitializer initializer = ((GISApplication) application).getMapInitializer();
+            if (null != initializer) {
+                initializer.removeOnMapReadyListener(mMapReadyListener);
+            }
+            mMapReadyListener = null;
+        }
+
         super.onDetachedFromWindow();
     }
 
 
+    /**
+     * @return false while the map of the application is loaded in background and shown by the
+     * view. Any other map, e.g. of a preview, is ready.
+     */
+    public boolean isMapReady()
+    {
+        Context application = getContext().getApplicationContext();
+        if (!(application instanceof GISApplication)) {
+            return true;
+        }
+
+        MapInitializer initializer = ((GISApplication) application).getMapInitializer();
+        return null == initializer || initializer.getMap() != mMap || initializer.isReady();
+    }
+
+
+    /**
+     * Called on the main thread when the map of the application is loaded after the view was
+     * attached
+     */
+    protected void onMapReady()
+    {
+        if (mMap != null) {
+            mMap.setViewSize(getWidth(), getHeight());
+        }
+        postInvalidate();
+    }
+
+
     protected void setKeepScreenOnByPref()
     {
         SharedPreferences sharedPreferences =
@@ -24,15 +24,20 @@
 package com.nextgis.maplibui.mapui;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
 import android.os.Bundle;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.support.annotation.NonNull;
 import android.util.Log;
+import android.view.MotionEvent;
 
 import com.nextgis.maplib.datasource.GeoPoint;
 import com.nextgis.maplib.map.MapDrawable;
+import com.nextgis.maplibui.api.MapViewEventListener;
 import com.nextgis.maplibui.api.Overlay;
 
 import java.util.ArrayList;
@@ -47,10 +52,20 @@ public class MapViewOverlays
 {
     protected List<Overlay> mOverlays;
     protected boolean       mLockMap;
+    protected final OverlayProfiler mOverlayProfiler;
+    protected final OverlayCache    mOverlayCache;
+    protected final Matrix          mCacheMatrix;
+    protected final Paint           mCachePaint;
     //protected boolean mSkipNextDraw;
     //protected long mDelay;
 
 
+    public MapViewOverlays(Context context)
+    {
+        this(context, getApplicationMap(context));
+    }
+
+
     public MapViewOverlays(
             Context context,
             MapDrawable map)
@@ -58,11 +73,27 @@ public class MapViewOverlays
         super(context, map);
         mOverlays = new ArrayList<>();
         mLockMap = false;
+        mOverlayProfiler = new OverlayProfiler();
+        mOverlayCache = new OverlayCache(MemoryBudget.getInstance());
+        mCacheMatrix = new Matrix();
+        mCachePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
 //        mSkipNextDraw = false;
 //        mDelay = 0;
     }
 
 
+    @Override
+    protected boolean isMapChanged()
+    {
+        for (int i = 0; i < mOverlays.size(); i++) {
+            if (mOverlays.get(i).isChangingMap()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
     public boolean isLockMap()
     {
         return mLockMap;
@@ -79,44 +110,172 @@ public class MapViewOverlays
     protected void onDraw(Canvas canvas)
     {
         if (isLockMap()) {
-            mMap.draw(canvas, 0, 0, false);
+            drawMap(canvas, 0, 0, false);
         } else {
             super.onDraw(canvas);
         }
 
         if (mMap != null) {
-            switch (mDrawingState) {
+            long start;
+            switch (mDrawingState.get()) {
                 case DRAW_STATE_drawing:
                 case DRAW_STATE_drawing_noclearbk:
-                    for (Overlay overlay : mOverlays)
-                        if (overlay.isVisible())
+                    for (int i = 0; i < mOverlays.size(); i++) {
+                        Overlay overlay = mOverlays.get(i);
+                        if (overlay.isVisible()) {
+                            start = mOverlayProfiler.start();
                             overlay.draw(canvas, mMap);
+                            mOverlayProfiler.record(overlay, OverlayProfiler.PATH_DRAW, start);
+                        }
+                    }
                     break;
                 case DRAW_STATE_panning:
                 case DRAW_STATE_panning_fling:
-                    for (Overlay overlay : mOverlays)
-                        if (overlay.isVisible())
-                            overlay.drawOnPanning(canvas, mCurrentMouseOffset);
+                    for (int i = 0; i < mOverlays.size(); i++) {
+                        Overlay overlay = mOverlays.get(i);
+                        if (overlay.isVisible()) {
+                            start = mOverlayProfiler.start();
+                            Bitmap cache = getOverlayCache(overlay);
+                            if (null != cache) {
+                                canvas.drawBitmap(
+                                        cache, -mCurrentMouseOffset.x, -mCurrentMouseOffset.y, null);
+                                overlay.drawOverCache(canvas);
+                            } else {
+                                overlay.drawOnPanning(canvas, mCurrentMouseOffset);
+                            }
+                            mOverlayProfiler.record(overlay, OverlayProfiler.PATH_PANNING, start);
+                        }
+                    }
                     break;
                 case DRAW_STATE_zooming:
-                    for (Overlay overlay : mOverlays)
-                        if (overlay.isVisible())
-                            overlay.drawOnZooming(canvas, mCurrentFocusLocation, (float) mScaleFactor);
+                    for (int i = 0; i < mOverlays.size(); i++) {
+                        Overlay overlay = mOverlays.get(i);
+                        if (overlay.isVisible()) {
+                            start = mOverlayProfiler.start();
+                            Bitmap cache = getOverlayCache(overlay);
+                            if (null != cache) {
+                                // same transform as the map buffer while zooming
+                                float scale = (float) mScaleFactor;
+                                mCacheMatrix.setScale(scale, scale);
+                                mCacheMatrix.postTranslate(
+                                        -(1 - scale) * mCurrentFocusLocation.x,
+                                        -(1 - scale) * mCurrentFocusLocation.y);
+                                canvas.drawBitmap(cache, mCacheMatrix, mCachePaint);
+                                overlay.drawOverCache(canvas);
+                            } else {
+                                overlay.drawOnZooming(
+                                        canvas, mCurrentFocusLocation, (float) mScaleFactor);
+                            }
+                            mOverlayProfiler.record(overlay, OverlayProfiler.PATH_ZOOMING, start);
+                        }
+                    }
                     break;
             }
         }
     }
 
 
+    @Override
+    protected void panMoveTo(final MotionEvent e)
+    {
+        if (!isLockMap() || mDrawingState.get() != DRAW_STATE_panning) {
+            super.panMoveTo(e);
+            return;
+        }
+
+        // the map stays in place while an overlay item is dragged, so there is no need to buffer
+        // the map
+        for (MapViewEventListener listener : mListeners) {
+            if (null != listener) {
+                listener.panMoveTo(e);
+            }
+        }
+
+        mFrameScheduler.requestFrame();
+    }
+
+
+    /**
+     * Draw the outdated gesture cache bitmaps while the map is still at rest, so the first gesture
+     * frame only moves them
+     */
+    @Override
+    public boolean onDown(MotionEvent e)
+    {
+        if (null != mMap && !isLockMap() && !mDrawingState.isGesture()) {
+            for (int i = 0; i < mOverlays.size(); i++) {
+                Overlay overlay = mOverlays.get(i);
+                if (overlay.isVisible() && overlay.isCacheable()) {
+                    mOverlayCache.prepare(overlay, mMap, getWidth(), getHeight());
+                }
+            }
+        }
+
+        return super.onDown(e);
+    }
+
+
+    /**
+     * The overlay content changed, its gesture cache bitmap is redrawn before the next gesture
+     */
+    public void invalidateOverlayCache(Overlay overlay)
+    {
+        mOverlayCache.invalidate(overlay);
+    }
+
+
+    /**
+     * @return the gesture cache bitmap of the overlay or null to draw the overlay directly
+     */
+    protected Bitmap getOverlayCache(Overlay overlay)
+    {
+        // the map does not move while locked, overlay items are dragged instead
+        if (isLockMap() || !overlay.isCacheable()) {
+            return null;
+        }
+
+        return mOverlayCache.get(overlay, mMap, getWidth(), getHeight());
+    }
+
+
+    /**
+     * @return the gesture cache of the overlays
+     */
+    public OverlayCache getOverlayCache()
+    {
+        return mOverlayCache;
+    }
+
+
+    @Override
+    protected void onDetachedFromWindow()
+    {
+        super.onDetachedFromWindow();
+        mOverlayCache.recycle();
+    }
+
+
     public void addOverlay(Overlay overlay)
     {
         mOverlays.add(overlay);
+        mOverlayProfiler.register(overlay);
     }
 
 
     public void removeOverlay(Overlay overlay)
     {
         mOverlays.remove(overlay);
+        mOverlayProfiler.unregister(overlay);
+        mOverlayCache.remove(overlay);
+    }
+
+
+    /**
+     * @return the per overlay draw time profiler, disabled by default
+     */
+    public OverlayProfiler getOverlayProfiler()
+    {
+        return mOverlayProfiler;
     }
 
 
@@ -150,6 +309,7 @@ public class MapViewOverlays
             for (Overlay overlay : mOverlays) {
                 overlay.onRestoreState(savedState.get(counter++));
             }
+            mOverlayCache.invalidate();
 
             super.onRestoreInstanceState(savedState.getSuperState());
         } else {
@@ -165,7 +325,7 @@ public class MapViewOverlays
     {
         if (isLockMap()) {
             Log.d(TAG, "setZoomAndCenter: isLockMap");
-            mDrawingState = DRAW_STATE_drawing_noclearbk;
+            mDrawingState.moveTo(DRAW_STATE_drawing_noclearbk);
             return;
         }
         super.setZoomAndCenter(zoom, center);
@@ -0,0 +1,138 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2021 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.nextgis.maplibui.mapui;
+
+/**
+ * Memory shared by the bitmaps kept to draw the map fast: the overlay gesture cache, the buffer
+ * pyramid, the pan and startup frames and the snapshot cache. A consumer reserves the bytes of a
+ * bitmap before it is allocated and releases them when the bitmap is recycled, so all of them
+ * together stay within one part of the heap. A consumer which gets no memory falls back to the
+ * slow path. Thread safe.
+ */
+public class MemoryBudget
+{
+    //part of the heap shared by the caches
+    public static final int MEMORY_PART = 4;
+
+    protected static MemoryBudget sInstance;
+
+    protected long mLimit;
+    protected long mUsedBytes;
+    protected long mRejectCount;
+
+
+    /**
+     * @return the budget shared by all map views of the process
+     */
+    public static synchronized MemoryBudget getInstance()
+    {
+        if (null == sInstance) {
+            sInstance = new MemoryBudget(Runtime.getRuntime().maxMemory() / MEMORY_PART);
+        }
+        return sInstance;
+    }
+
+
+    /**
+     * @param limit memory for the bitmaps in bytes
+     */
+    public MemoryBudget(long limit)
+    {
+        mLimit = limit;
+    }
+
+
+    /**
+     * @return bytes of an ARGB_8888 bitmap of the size
+     */
+    public static long getByteCount(
+            int width,
+            int height)
+    {
+        return (long) width * height * 4;
+    }
+
+
+    /**
+     * @return false if the bytes do not fit, nothing is reserved then
+     */
+    public synchronized boolean reserve(long bytes)
+    {
+        if (bytes <= 0) {
+            return true;
+        }
+
+        if (mUsedBytes + bytes > mLimit) {
+            mRejectCount++;
+            return false;
+        }
+
+        mUsedBytes += bytes;
+        return true;
+    }
+
+
+    public synchronized void release(long bytes)
+    {
+        mUsedBytes = Math.max(0, mUsedBytes - bytes);
+    }
+
+
+    public synchronized long getLimit()
+    {
+        return mLimit;
+    }
+
+
+    /**
+     * @param limit memory for the bitmaps in bytes, 0 disables the caches. Bitmaps already kept
+     *              are released by their owners.
+     */
+    public synchronized void setLimit(long limit)
+    {
+        mLimit = limit;
+    }
+
+
+    public synchronized long getUsedBytes()
+    {
+        return mUsedBytes;
+    }
+
+
+    public synchronized long getAvailableBytes()
+    {
+        return Math.max(0, mLimit - mUsedBytes);
+    }
+
+
+    /**
+     * @return number of reservations which did not fit
+     */
+    public synchronized long getRejectCount()
+    {
+        return mRejectCount;
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2021 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextgis.maplibui.mapui;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+
+import com.nextgis.maplib.datasource.GeoEnvelope;
+import com.nextgis.maplib.map.MapDrawable;
+import com.nextgis.maplibui.api.Overlay;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+
+/**
+ * Offscreen bitmaps of the overlays which opted in with {@link Overlay#isCacheable()}. An overlay
+ * is drawn into its bitmap before a gesture starts, on touch down, then only the bitmap is moved
+ * and scaled. A bitmap stays valid until the overlay reports a change with
+ * {@link Overlay#invalidateCache()} or the map extent changes, so it is not redrawn for every
+ * gesture. Bitmaps are reserved in the shared {@link MemoryBudget}, if a bitmap does not fit the
+ * overlay is drawn directly. Used from the UI thread only.
+ */
+public class OverlayCache
+{
+    protected final Map<Overlay, Entry> mEntries;
+    protected final MemoryBudget        mBudget;
+    protected       long                mUsedBytes;
+    protected       long                mBuildCount;
+    protected       long                mFallbackCount;
+
+
+    public OverlayCache(MemoryBudget budget)
+    {
+        mEntries = new IdentityHashMap<>();
+        mBudget = budget;
+    }
+
+
+    /**
+     * Draw the bitmap of the overlay if it is outdated, e.g. on touch down before a gesture
+     *
+     * @return false if the overlay should be drawn directly
+     */
+    public boolean prepare(
+            Overlay overlay,
+            MapDrawable map,
+            int width,
+            int height)
+    {
+        if (width <= 0 || height <= 0 || null == map) {
+            return false;
+        }
+
+        Entry entry = mEntries.get(overlay);
+        if (null != entry && entry.isValid(map, width, height)) {
+            return true;
+        }
+
+        if (null != entry && (entry.mBitmap.getWidth() != width || entry.mBitmap.getHeight() != height)) {
+            remove(overlay);
+            entry = null;
+        }
+
+        if (null == entry) {
+            long bytes = MemoryBudget.getByteCount(width, height);
+            if (!mBudget.reserve(bytes)) {
+                mFallbackCount++;
+                return false;
+            }
+
+            Bitmap bitmap;
+            try {
+                bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            } catch (OutOfMemoryError e) {
+                e.printStackTrace();
+                mBudget.release(bytes);
+                mFallbackCount++;
+                return false;
+            }
+
+            entry = new Entry(bitmap);
+            mEntries.put(overlay, entry);
+            mUsedBytes += bytes;
+        }
+
+        entry.mBitmap.eraseColor(Color.TRANSPARENT);
+        overlay.drawToCache(entry.mCanvas, map);
+        entry.validate(map);
+        mBuildCount++;
+        return true;
+    }
+
+
+    /**
+     * @return the cached bitmap of the overlay drawn at the current map extent or null if the
+     * overlay should be drawn directly. An outdated bitmap is drawn now.
+     */
+    public Bitmap get(
+            Overlay overlay,
+            MapDrawable map,
+            int width,
+            int height)
+    {
+        if (!prepare(overlay, map, width, height)) {
+            return null;
+        }
+
+        return mEntries.get(overlay).mBitmap;
+    }
+
+
+    /**
+     * The overlay content changed, its bitmap is redrawn before the next gesture
+     */
+    public void invalidate(Overlay overlay)
+    {
+        Entry entry = mEntries.get(overlay);
+        if (null != entry) {
+            entry.mIsValid = false;
+        }
+    }
+
+
+    /**
+     * Mark all bitmaps as outdated, e.g. when the view size changed
+     */
+    public void invalidate()
+    {
+        for (Entry entry : mEntries.values()) {
+            entry.mIsValid = false;
+        }
+    }
+
+
+    public void remove(Overlay overlay)
+    {
+        Entry entry = mEntries.remove(overlay);
+        if (null != entry) {
+            release(entry);
+        }
+    }
+
+
+    public void recycle()
+    {
+        Iterator<Entry> iterator = mEntries.values().iterator();
+        while (iterator.hasNext()) {
+            release(iterator.next());
+            iterator.remove();
+        }
+    }
+
+
+    protected void release(Entry entry)
+    {
+        long bytes = entry.getByteCount();
+        mUsedBytes -= bytes;
+        mBudget.release(bytes);
+        entry.mBitmap.recycle();
+    }
+
+
+    public MemoryBudget getBudget()
+    {
+        return mBudget;
+    }
+
+
+    public long getUsedBytes()
+    {
+        return mUsedBytes;
+    }
+
+
+    /**
+     * @return number of times an overlay was drawn into its bitmap
+     */
+    public long getBuildCount()
+    {
+        return mBuildCount;
+    }
+
+
+    /**
+     * @return number of times an overlay was drawn directly because its bitmap did not fit
+     */
+    public long getFallbackCount()
+    {
+        return mFallbackCount;
+    }
+
+
+    protected static class Entry
+    {
+        protected final Bitmap  mBitmap;
+        protected final Canvas  mCanvas;
+        protected       boolean mIsValid;
+        protected       float   mZoom;
+        protected       double  mMinX;
+        protected       double  mMaxY;
+
+
+        protected Entry(Bitmap bitmap)
+        {
+            mBitmap = bitmap;
+            mCanvas = new Canvas(bitmap);
+        }
+
+
+        /**
+         * @return true if the overlay did not change and the bitmap was drawn at the current extent
+         */
+        protected boolean isValid(
+                MapDrawable map,
+                int width,
+                int height)
+        {
+            if (!mIsValid || mBitmap.getWidth() != width || mBitmap.getHeight() != height) {
+                return false;
+            }
+
+            GeoEnvelope bounds = map.getCurrentBounds();
+            return mZoom == map.getZoomLevel() && mMinX == bounds.getMinX() &&
+                   mMaxY == bounds.getMaxY();
+        }
+
+
+        protected void validate(MapDrawable map)
+        {
+            GeoEnvelope bounds = map.getCurrentBounds();
+            mZoom = map.getZoomLevel();
+            mMinX = bounds.getMinX();
+            mMaxY = bounds.getMaxY();
+            mIsValid = true;
+        }
+
+
+        protected long getByteCount()
+        {
+            return MemoryBudget.getByteCount(mBitmap.getWidth(), mBitmap.getHeight());
+        }
+    }
+}
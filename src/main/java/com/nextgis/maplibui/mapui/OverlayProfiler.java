@@ -0,0 +1,324 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2021 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextgis.maplibui.mapui;
+
+import com.nextgis.maplib.util.FileUtil;
+import com.nextgis.maplibui.api.Overlay;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+
+/**
+ * Per overlay draw time profiler. Durations are collected separately for the draw, drawOnPanning
+ * and drawOnZooming paths into fixed size histograms with power of two microsecond buckets, so
+ * recording a frame does not allocate.
+ */
+public class OverlayProfiler
+{
+    public static final int PATH_DRAW    = 0;
+    public static final int PATH_PANNING = 1;
+    public static final int PATH_ZOOMING = 2;
+    public static final int PATH_COUNT   = 3;
+
+    /**
+     * Bucket i holds durations in [2^i, 2^(i+1)) microseconds, the last one holds everything above
+     */
+    public static final int BUCKET_COUNT = 21;
+
+    protected static final String[] PATH_NAMES = {"draw", "panning", "zooming"};
+
+    protected final Map<Overlay, Stats> mStats;
+    protected volatile boolean mIsEnabled;
+
+
+    public OverlayProfiler()
+    {
+        mStats = new IdentityHashMap<>();
+        mIsEnabled = false;
+    }
+
+
+    public boolean isEnabled()
+    {
+        return mIsEnabled;
+    }
+
+
+    public void setEnabled(boolean enabled)
+    {
+        mIsEnabled = enabled;
+    }
+
+
+    public synchronized void register(Overlay overlay)
+    {
+        if (!mStats.containsKey(overlay)) {
+            mStats.put(overlay, new Stats(overlay.getClass().getSimpleName()));
+        }
+    }
+
+
+    public synchronized void unregister(Overlay overlay)
+    {
+        mStats.remove(overlay);
+    }
+
+
+    /**
+     * @return the start timestamp to pass to {@link #record(Overlay, int, long)}
+     */
+    public long start()
+    {
+        return mIsEnabled ? System.nanoTime() : 0;
+    }
+
+
+    public void record(
+            Overlay overlay,
+            int path,
+            long startNanos)
+    {
+        if (!mIsEnabled || startNanos == 0) {
+            return;
+        }
+
+        long duration = System.nanoTime() - startNanos;
+        Stats stats;
+        synchronized (this) {
+            stats = mStats.get(overlay);
+        }
+
+        if (null != stats) {
+            stats.add(path, duration);
+        }
+    }
+
+
+    public synchronized void reset()
+    {
+        for (Stats stats : mStats.values()) {
+            stats.clear();
+        }
+    }
+
+
+    /**
+     * @return a copy of the statistics of the overlay or null if the overlay is not registered
+     */
+    public synchronized Stats getStats(Overlay overlay)
+    {
+        Stats stats = mStats.get(overlay);
+        return null == stats ? null : stats.copy();
+    }
+
+
+    public synchronized List<Stats> getAllStats()
+    {
+        List<Stats> result = new ArrayList<>(mStats.size());
+        for (Stats stats : mStats.values()) {
+            result.add(stats.copy());
+        }
+        return result;
+    }
+
+
+    /**
+     * Write the collected statistics as tab separated text. Times are in milliseconds, percentiles
+     * are the upper bounds of the histogram buckets.
+     */
+    public void dumpToFile(File file)
+            throws IOException
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append("overlay\tpath\tcount\ttotal_ms\tmean_ms\tmax_ms\tp50_ms\tp90_ms\tp99_ms\thistogram_us\n");
+
+        for (Stats stats : getAllStats()) {
+            for (int path = 0; path < PATH_COUNT; path++) {
+                long count = stats.getCount(path);
+                if (count == 0) {
+                    continue;
+                }
+
+                sb.append(stats.getName()).append('\t')
+                  .append(PATH_NAMES[path]).append('\t')
+                  .append(count).append('\t')
+                  .append(toMs(stats.getTotalNanos(path))).append('\t')
+                  .append(toMs(stats.getTotalNanos(path) / count)).append('\t')
+                  .append(toMs(stats.getMaxNanos(path))).append('\t')
+                  .append(toMs(stats.getPercentileNanos(path, 0.5))).append('\t')
+                  .append(toMs(stats.getPercentileNanos(path, 0.9))).append('\t')
+                  .append(toMs(stats.getPercentileNanos(path, 0.99))).append('\t');
+
+                long[] histogram = stats.getHistogram(path);
+                for (int i = 0; i < histogram.length; i++) {
+                    if (i > 0) {
+                        sb.append(',');
+                    }
+                    sb.append(histogram[i]);
+                }
+                sb.append('\n');
+            }
+        }
+
+        FileUtil.writeToFile(file, sb.toString());
+    }
+
+
+    protected static String toMs(long nanos)
+    {
+        return String.format(Locale.US, "%.3f", nanos / 1000000.0);
+    }
+
+
+    protected static int getBucket(long nanos)
+    {
+        long micros = nanos / 1000;
+        if (micros <= 0) {
+            return 0;
+        }
+
+        int bucket = 63 - Long.numberOfLeadingZeros(micros);
+        return bucket >= BUCKET_COUNT ? BUCKET_COUNT - 1 : bucket;
+    }
+
+
+    public static class Stats
+    {
+        protected final String   mName;
+        protected final long[][] mHistogram;
+        protected final long[]   mCount;
+        protected final long[]   mTotalNanos;
+        protected final long[]   mMaxNanos;
+
+
+        protected Stats(String name)
+        {
+            mName = name;
+            mHistogram = new long[PATH_COUNT][BUCKET_COUNT];
+            mCount = new long[PATH_COUNT];
+            mTotalNanos = new long[PATH_COUNT];
+            mMaxNanos = new long[PATH_COUNT];
+        }
+
+
+        protected synchronized void add(
+                int path,
+                long nanos)
+        {
+            mHistogram[path][getBucket(nanos)]++;
+            mCount[path]++;
+            mTotalNanos[path] += nanos;
+            if (nanos > mMaxNanos[path]) {
+                mMaxNanos[path] = nanos;
+            }
+        }
+
+
+        protected synchronized void clear()
+        {
+            for (int path = 0; path < PATH_COUNT; path++) {
+                for (int i = 0; i < BUCKET_COUNT; i++) {
+                    mHistogram[path][i] = 0;
+                }
+                mCount[path] = 0;
+                mTotalNanos[path] = 0;
+                mMaxNanos[path] = 0;
+            }
+        }
+
+
+        protected synchronized Stats copy()
+        {
+            Stats stats = new Stats(mName);
+            for (int path = 0; path < PATH_COUNT; path++) {
+                System.arraycopy(mHistogram[path], 0, stats.mHistogram[path], 0, BUCKET_COUNT);
+            }
+            System.arraycopy(mCount, 0, stats.mCount, 0, PATH_COUNT);
+            System.arraycopy(mTotalNanos, 0, stats.mTotalNanos, 0, PATH_COUNT);
+            System.arraycopy(mMaxNanos, 0, stats.mMaxNanos, 0, PATH_COUNT);
+            return stats;
+        }
+
+
+        public String getName()
+        {
+            return mName;
+        }
+
+
+        public long getCount(int path)
+        {
+            return mCount[path];
+        }
+
+
+        public long getTotalNanos(int path)
+        {
+            return mTotalNanos[path];
+        }
+
+
+        public long getMaxNanos(int path)
+        {
+            return mMaxNanos[path];
+        }
+
+
+        public long[] getHistogram(int path)
+        {
+            return mHistogram[path].clone();
+        }
+
+
+        /**
+         * @return the upper bound of the bucket holding the given percentile, in nanoseconds
+         */
+        public long getPercentileNanos(
+                int path,
+                double percentile)
+        {
+            long count = mCount[path];
+            if (count == 0) {
+                return 0;
+            }
+
+            long threshold = (long) Math.ceil(count * percentile);
+            long sum = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                sum += mHistogram[path][i];
+                if (sum >= threshold) {
+                    return i == BUCKET_COUNT - 1 ? mMaxNanos[path] : (2L << i) * 1000;
+                }
+            }
+
+            return mMaxNanos[path];
+        }
+    }
+}
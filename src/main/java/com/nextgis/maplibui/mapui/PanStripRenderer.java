@@ -0,0 +1,397 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2021 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.nextgis.maplibui.mapui;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.nextgis.maplib.datasource.GeoEnvelope;
+import com.nextgis.maplib.map.MapDrawable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+
+/**
+ * Updates the map image after a pan by rendering only the strips the pan exposed. The previous
+ * image is shifted by the pan offset into a frame, the strips are rendered in background through
+ * the map of a {@link MapSnapshotter} at the new extent and drawn into the frame. So the render
+ * cost follows the pan distance instead of the view size. The frame stands for the map buffer
+ * until the map is rendered in full again, e.g. after a zoom or a layer change. The snapshotter map
+ * is loaded from the map file, so the strips are rendered only while it shows the same layers as
+ * the displayed map, e.g. not during an edit which hides the edited feature.
+ */
+public class PanStripRenderer
+{
+    //part of the view a pan may expose to render strips, a longer pan renders the whole map
+    public static final float MAX_EXPOSED_PART = 0.5f;
+    //extra area rendered around a strip, so symbols and labels crossing its border are whole px
+    public static final int   STRIP_MARGIN     = 32;
+
+    public interface OnStripsRenderedListener
+    {
+        /**
+         * Called on the main thread when all strips are drawn into the frame
+         */
+        void onStripsRendered();
+    }
+
+
+    protected final MapFrame[] mFrames;
+    protected final Handler    mHandler;
+    protected       int        mFront;
+    protected       boolean    mIsComplete;
+    protected       int        mGeneration;
+    protected       Future<?>  mTask;
+
+    protected long mStripCount;
+    protected long mStripPixels;
+
+
+    public PanStripRenderer()
+    {
+        this(null);
+    }
+
+
+    /**
+     * @param budget the memory the frames are reserved in or null
+     */
+    public PanStripRenderer(MemoryBudget budget)
+    {
+        mFrames = new MapFrame[] {new MapFrame(budget), new MapFrame(budget)};
+        mHandler = new Handler(Looper.getMainLooper());
+        mFront = -1;
+    }
+
+
+    /**
+     * @return true if the pan exposed a small enough part of the view and the current image has no
+     * missing strips
+     */
+    public boolean canRender(
+            float x,
+            float y,
+            int width,
+            int height)
+    {
+        if (width <= 0 || height <= 0 || x == 0 && y == 0 || isCurrent() && !mIsComplete) {
+            return false;
+        }
+
+        float dx = Math.min(Math.abs(x), width);
+        float dy = Math.min(Math.abs(y), height);
+        float exposed = dx * height + dy * (width - dx);
+        return exposed <= MAX_EXPOSED_PART * width * height;
+    }
+
+
+    /**
+     * Shift the current image by the pan offset and start to render the exposed strips. Called on
+     * the main thread after the map is moved to the new extent.
+     *
+     * @param map         the displayed map, its buffer is the current image unless a frame of the
+     *                    renderer is current
+     * @param snapshotter renders the strips on its worker thread
+     * @param x           the pan offset, the image moves by -x, -y
+     * @return false if there is no memory for the frame
+     */
+    public boolean start(
+            MapDrawable map,
+            MapSnapshotter snapshotter,
+            float x,
+            float y,
+            int width,
+            int height,
+            final OnStripsRenderedListener listener)
+    {
+        cancel();
+
+        int dx = Math.round(x);
+        int dy = Math.round(y);
+        int back = mFront == 0 ? 1 : 0;
+        MapFrame frame = mFrames[back];
+        boolean isShifted = isCurrent()
+                            ? frame.capture(mFrames[mFront], width, height, -dx, -dy)
+                            : frame.capture(map, width, height, -dx, -dy);
+        if (!isShifted) {
+            release();
+            return false;
+        }
+
+        mFront = back;
+        mIsComplete = false;
+
+        final List<Rect> strips = getExposedStrips(dx, dy, width, height);
+        final List<GeoEnvelope> extents = new ArrayList<>(strips.size());
+        for (Rect strip : strips) {
+            GeoEnvelope screen = new GeoEnvelope(strip.left - STRIP_MARGIN,
+                    strip.right + STRIP_MARGIN, strip.top - STRIP_MARGIN,
+                    strip.bottom + STRIP_MARGIN);
+            extents.add(map.screenToMap(screen));
+        }
+
+        final int generation = ++mGeneration;
+        final MapSnapshotter renderer = snapshotter;
+        mTask = snapshotter.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                final List<Bitmap> bitmaps = renderStrips(renderer, strips, extents);
+                mHandler.post(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        onStripsRendered(generation, strips, bitmaps, listener);
+                    }
+                });
+            }
+        });
+        return true;
+    }
+
+
+    /**
+     * Exposed areas of the view after the image moved by -dx, -dy. The strip along the moved
+     * vertical side spans the view height, the other one the rest of the width.
+     */
+    public static List<Rect> getExposedStrips(
+            int dx,
+            int dy,
+            int width,
+            int height)
+    {
+        List<Rect> strips = new ArrayList<>(2);
+        dx = Math.max(-width, Math.min(width, dx));
+        dy = Math.max(-height, Math.min(height, dy));
+
+        if (dx > 0) {
+            strips.add(new Rect(width - dx, 0, width, height));
+        } else if (dx < 0) {
+            strips.add(new Rect(0, 0, -dx, height));
+        }
+
+        int left = dx < 0 ? -dx : 0;
+        int right = dx > 0 ? width - dx : width;
+        if (left < right) {
+            if (dy > 0) {
+                strips.add(new Rect(left, height - dy, right, height));
+            } else if (dy < 0) {
+                strips.add(new Rect(left, 0, right, -dy));
+            }
+        }
+        return strips;
+    }
+
+
+    /**
+     * Called on the worker thread of the snapshotter
+     *
+     * @return the strip images with the margin or null if the render was interrupted or failed
+     */
+    protected List<Bitmap> renderStrips(
+            MapSnapshotter snapshotter,
+            List<Rect> strips,
+            List<GeoEnvelope> extents)
+    {
+        List<Bitmap> bitmaps = new ArrayList<>(strips.size());
+        for (int i = 0; i < strips.size(); i++) {
+            Rect strip = strips.get(i);
+            int width = strip.width() + 2 * STRIP_MARGIN;
+            int height = strip.height() + 2 * STRIP_MARGIN;
+
+            Bitmap bitmap;
+            try {
+                bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            } catch (OutOfMemoryError e) {
+                e.printStackTrace();
+                recycle(bitmaps);
+                return null;
+            }
+            bitmaps.add(bitmap);
+
+            if (Thread.currentThread().isInterrupted() ||
+                !snapshotter.render(new Canvas(bitmap), extents.get(i), width, height, null)) {
+                recycle(bitmaps);
+                return null;
+            }
+        }
+        return bitmaps;
+    }
+
+
+    protected void onStripsRendered(
+            int generation,
+            List<Rect> strips,
+            List<Bitmap> bitmaps,
+            OnStripsRenderedListener listener)
+    {
+        if (null == bitmaps) {
+            return;
+        }
+
+        // a newer pan or a full render made the strips obsolete
+        if (generation != mGeneration || !isCurrent()) {
+            recycle(bitmaps);
+            return;
+        }
+
+        Canvas canvas = mFrames[mFront].getCanvas();
+        for (int i = 0; i < strips.size(); i++) {
+            Rect strip = strips.get(i);
+            canvas.save();
+            canvas.clipRect(strip);
+            canvas.drawBitmap(
+                    bitmaps.get(i), strip.left - STRIP_MARGIN, strip.top - STRIP_MARGIN, null);
+            canvas.restore();
+            mStripCount++;
+            mStripPixels += strip.width() * strip.height();
+        }
+        recycle(bitmaps);
+
+        mTask = null;
+        mIsComplete = true;
+        if (null != listener) {
+            listener.onStripsRendered();
+        }
+    }
+
+
+    protected static void recycle(List<Bitmap> bitmaps)
+    {
+        for (Bitmap bitmap : bitmaps) {
+            bitmap.recycle();
+        }
+        bitmaps.clear();
+    }
+
+
+    /**
+     * @return true if a frame of the renderer stands for the map buffer
+     */
+    public boolean isCurrent()
+    {
+        return mFront >= 0;
+    }
+
+
+    /**
+     * @return true if the strips of the current frame are rendered
+     */
+    public boolean isComplete()
+    {
+        return isCurrent() && mIsComplete;
+    }
+
+
+    public void draw(
+            Canvas canvas,
+            float x,
+            float y)
+    {
+        if (isCurrent()) {
+            mFrames[mFront].draw(canvas, x, y);
+        }
+    }
+
+
+    public void draw(
+            Canvas canvas,
+            Matrix matrix,
+            Paint paint)
+    {
+        if (isCurrent()) {
+            mFrames[mFront].draw(canvas, matrix, paint);
+        }
+    }
+
+
+    /**
+     * @return the current frame or null if the map buffer is current
+     */
+    public MapFrame getFrame()
+    {
+        return isCurrent() ? mFrames[mFront] : null;
+    }
+
+
+    /**
+     * Stop rendering the strips. The frame stays current with the strips missing.
+     */
+    public void cancel()
+    {
+        mGeneration++;
+        if (null != mTask) {
+            mTask.cancel(true);
+            mTask = null;
+        }
+    }
+
+
+    /**
+     * The map buffer is current again, e.g. it got a new render. The frames are kept for reuse.
+     */
+    public void release()
+    {
+        cancel();
+        mFront = -1;
+        mIsComplete = false;
+    }
+
+
+    public void recycle()
+    {
+        release();
+        for (MapFrame frame : mFrames) {
+            frame.recycle();
+        }
+    }
+
+
+    /**
+     * @return the number of rendered strips
+     */
+    public long getStripCount()
+    {
+        return mStripCount;
+    }
+
+
+    /**
+     * @return the number of rendered strip pixels without the margins
+     */
+    public long getStripPixels()
+    {
+        return mStripPixels;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2021 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.nextgis.maplibui.mapui;
+
+import com.nextgis.maplib.datasource.GeoEnvelope;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * The generation of the map view content. Each render started by the view begins a new generation
+ * with the extent it shows. Background work, e.g. tile downloads or vector queries, remembers the
+ * generation it was started for and checks it before the network or decode work: work of an old
+ * generation whose extent is out of the current viewport is obsolete and skipped. The counters
+ * show how much work was started and skipped.
+ */
+public class RenderGeneration
+{
+    public static final int WORK_RENDER = 0;
+    public static final int WORK_TILE   = 1;
+    public static final int WORK_QUERY  = 2;
+    public static final int WORK_COUNT  = 3;
+
+    protected final    AtomicLongArray mStarted;
+    protected final    AtomicLongArray mSkipped;
+    protected volatile int             mGeneration;
+    protected volatile GeoEnvelope     mViewport;
+
+
+    public RenderGeneration()
+    {
+        mStarted = new AtomicLongArray(WORK_COUNT);
+        mSkipped = new AtomicLongArray(WORK_COUNT);
+    }
+
+
+    /**
+     * Begin a new generation. Called on the UI thread when a render starts.
+     *
+     * @param viewport the extent shown by the view in map coordinates
+     * @return the new generation
+     */
+    public int next(GeoEnvelope viewport)
+    {
+        // a copy, the map changes its bounds object in place
+        mViewport = null == viewport || !viewport.isInit()
+                    ? null
+                    : new GeoEnvelope(viewport.getMinX(), viewport.getMaxX(), viewport.getMinY(),
+                            viewport.getMaxY());
+        return ++mGeneration;
+    }
+
+
+    public int get()
+    {
+        return mGeneration;
+    }
+
+
+    public GeoEnvelope getViewport()
+    {
+        return mViewport;
+    }
+
+
+    /**
+     * @param extent the extent the work loads data for or null if it is not known
+     * @return true if the generation is old and the extent is not in the current viewport
+     */
+    public boolean isObsolete(
+            int generation,
+            GeoEnvelope extent)
+    {
+        if (generation == mGeneration) {
+            return false;
+        }
+
+        // the data of the visible area is still needed by the current render
+        GeoEnvelope viewport = mViewport;
+        return null == viewport || null == extent || !extent.intersects(viewport);
+    }
+
+
+    /**
+     * Count the work as skipped if it is obsolete, otherwise as started
+     *
+     * @return true if the work should be skipped
+     */
+    public boolean skipIfObsolete(
+            int work,
+            int generation,
+            GeoEnvelope extent)
+    {
+        if (isObsolete(generation, extent)) {
+            mSkipped.incrementAndGet(work);
+            return true;
+        }
+
+        mStarted.incrementAndGet(work);
+        return false;
+    }
+
+
+    public void onStarted(int work)
+    {
+        mStarted.incrementAndGet(work);
+    }
+
+
+    public void onSkipped(int work)
+    {
+        mSkipped.incrementAndGet(work);
+    }
+
+
+    public long getStartedCount(int work)
+    {
+        return mStarted.get(work);
+    }
+
+
+    /**
+     * @return number of the work items dropped as obsolete, for renders the number of renders
+     * cancelled by a newer one
+     */
+    public long getSkippedCount(int work)
+    {
+        return mSkipped.get(work);
+    }
+
+
+    public void resetCounters()
+    {
+        for (int i = 0; i < WORK_COUNT; i++) {
+            mStarted.set(i, 0);
+            mSkipped.set(i, 0);
+        }
+    }
+}
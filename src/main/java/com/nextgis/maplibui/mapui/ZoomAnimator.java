@@ -0,0 +1,116 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2021 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextgis.maplibui.mapui;
+
+import android.os.SystemClock;
+
+
+/**
+ * Interpolates the buffer scale factor of an animated zoom. The scale changes geometrically, so
+ * each zoom level takes the same time, with a decelerating ease.
+ */
+public class ZoomAnimator
+{
+    protected long    mStartTime;
+    protected int     mDuration;
+    protected double  mFromScale;
+    protected double  mToScale;
+    protected double  mScale;
+    protected boolean mIsRunning;
+
+
+    public ZoomAnimator()
+    {
+        mScale = mFromScale = mToScale = 1;
+    }
+
+
+    /**
+     * Start a new animation. If an animation is running it is replaced and continues smoothly from
+     * the given scale.
+     */
+    public void start(
+            double fromScale,
+            double toScale,
+            int duration)
+    {
+        mStartTime = SystemClock.uptimeMillis();
+        mDuration = duration;
+        mFromScale = fromScale;
+        mToScale = toScale;
+        mScale = fromScale;
+        mIsRunning = true;
+    }
+
+
+    /**
+     * @return the scale factor for the current time
+     */
+    public double computeScale()
+    {
+        if (!mIsRunning) {
+            return mScale;
+        }
+
+        long elapsed = SystemClock.uptimeMillis() - mStartTime;
+        if (elapsed >= mDuration || mDuration <= 0) {
+            mScale = mToScale;
+            mIsRunning = false;
+            return mScale;
+        }
+
+        double t = (double) elapsed / mDuration;
+        t = 1 - (1 - t) * (1 - t);
+        mScale = mFromScale * Math.pow(mToScale / mFromScale, t);
+        return mScale;
+    }
+
+
+    /**
+     * Stop the animation and jump to the target scale
+     */
+    public void finish()
+    {
+        mScale = mToScale;
+        mIsRunning = false;
+    }
+
+
+    public boolean isRunning()
+    {
+        return mIsRunning;
+    }
+
+
+    public double getScale()
+    {
+        return mScale;
+    }
+
+
+    public double getTargetScale()
+    {
+        return mToScale;
+    }
+}
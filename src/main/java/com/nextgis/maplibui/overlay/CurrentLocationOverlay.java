@@ -125,32 +125,16 @@ public class CurrentLocationOverlay extends Overlay implements GpsEventListener
         if (mCurrentLocation != null && isMarkerEnabled()) {
             double lat = mCurrentLocation.getLatitude();
             double lon = mCurrentLocation.getLongitude();
-            mMarker.setMarker(getDefaultMarker());
             mMarker.setCoordinatesFromWGS(lon, lat);
 
             if (null != mapDrawable) {
                 // set accuracy marker with proper meter radius
-                double accuracy = mCurrentLocation.getAccuracy();
-                accuracy = getAccuracyRadius(lat, accuracy);
-
-                GeoPoint centerPoint = new GeoPoint(lon, lat);
-                centerPoint.setCRS(GeoConstants.CRS_WGS84);
-                centerPoint.project(GeoConstants.CRS_WEB_MERCATOR);
-                centerPoint = mapDrawable.mapToScreen(centerPoint);
-                GeoPoint newPoint = new GeoPoint(lon, accuracy);
-                newPoint.setCRS(GeoConstants.CRS_WGS84);
-                newPoint.project(GeoConstants.CRS_WEB_MERCATOR);
-                newPoint = mapDrawable.mapToScreen(newPoint);
-
-                int radius = (int) (centerPoint.getY() - newPoint.getY());
+                int radius = getAccuracyPixels(mapDrawable, lon, lat);
                 mAccuracy.setMarker(getAccuracyMarker(radius));
                 mAccuracy.setCoordinatesFromWGS(lon, lat);
 
                 // set marker in current map and screen bounds flags
-                newPoint = mMarker.getCoordinates(GeoConstants.CRS_WEB_MERCATOR);
-                mIsInBounds = mapDrawable.getCurrentBounds().contains(newPoint);
-                GeoEnvelope screenBounds = mapDrawable.getFullScreenBounds();
-                mIsInScreenBounds = mapDrawable.screenToMap(screenBounds).contains(newPoint);
+                updateBoundsFlags(mapDrawable, mMarker.getCoordinates(GeoConstants.CRS_WEB_MERCATOR));
             }
 
             if (mIsInBounds) {
@@ -163,6 +147,43 @@ public class CurrentLocationOverlay extends Overlay implements GpsEventListener
         }
     }
 
+    private int getAccuracyPixels(MapDrawable mapDrawable, double lon, double lat) {
+        double accuracy = mCurrentLocation.getAccuracy();
+        accuracy = getAccuracyRadius(lat, accuracy);
+
+        GeoPoint centerPoint = new GeoPoint(lon, lat);
+        centerPoint.setCRS(GeoConstants.CRS_WGS84);
+        centerPoint.project(GeoConstants.CRS_WEB_MERCATOR);
+        centerPoint = mapDrawable.mapToScreen(centerPoint);
+        GeoPoint newPoint = new GeoPoint(lon, accuracy);
+        newPoint.setCRS(GeoConstants.CRS_WGS84);
+        newPoint.project(GeoConstants.CRS_WEB_MERCATOR);
+        newPoint = mapDrawable.mapToScreen(newPoint);
+
+        return (int) (centerPoint.getY() - newPoint.getY());
+    }
+
+    private void updateBoundsFlags(MapDrawable mapDrawable, GeoPoint point) {
+        mIsInBounds = mapDrawable.getCurrentBounds().contains(point);
+        GeoEnvelope screenBounds = mapDrawable.getFullScreenBounds();
+        mIsInScreenBounds = mapDrawable.screenToMap(screenBounds).contains(point);
+    }
+
+    /**
+     * @return true if the marker at the current location is drawn
+     */
+    private boolean isMarkerInBounds() {
+        MapDrawable mapDrawable = mMapViewOverlays.getMap();
+        if (mCurrentLocation == null || !isMarkerEnabled() || mapDrawable == null)
+            return false;
+
+        GeoPoint point = new GeoPoint(mCurrentLocation.getLongitude(), mCurrentLocation.getLatitude());
+        point.setCRS(GeoConstants.CRS_WGS84);
+        point.project(GeoConstants.CRS_WEB_MERCATOR);
+        updateBoundsFlags(mapDrawable, point);
+        return mIsInBounds;
+    }
+
     private double getAccuracyRadius(double lat, double accuracy) {
         int R = 6378137;
         double dxLat = accuracy / R;
@@ -173,6 +194,7 @@ public class CurrentLocationOverlay extends Overlay implements GpsEventListener
 
     public void startShowingCurrentLocation() {
         mCurrentLocation = null;
+        mMarker.setMarker(getDefaultMarker());
         mGpsEventSource.addListener(this);
     }
 
@@ -196,11 +218,13 @@ public class CurrentLocationOverlay extends Overlay implements GpsEventListener
     public void setStandingMarker(int standingMarkerResource) {
         mStandingMarkerRes = standingMarkerResource;
         mIsStandingMarkerCustom = true;
+        mMarker.setMarker(getDefaultMarker());
     }
 
     public void setMovingMarker(int movingMarkerResource) {
         mMovingMarkerRes = movingMarkerResource;
         mIsMovingMarkerCustom = true;
+        mMarker.setMarker(getDefaultMarker());
     }
 
     /**
@@ -210,6 +234,7 @@ public class CurrentLocationOverlay extends Overlay implements GpsEventListener
      */
     public void setColor(int color) {
         mMarkerColor = color;
+        mMarker.setMarker(getDefaultMarker());
     }
 
     public void setAutopanningEnabled(boolean isAutopanningEnabled) {
@@ -224,8 +249,13 @@ public class CurrentLocationOverlay extends Overlay implements GpsEventListener
             update = LocationUtil.isProviderEnabled(mContext, provider, false);
 
             if (update) {
+                // nothing changes on the view if the marker is off it before and after the tick
+                boolean wasInBounds = isMarkerInBounds();
                 mCurrentLocation = location;
-                mMapViewOverlays.postInvalidate();
+                mMarker.setMarker(getDefaultMarker());
+
+                if (wasInBounds || isMarkerInBounds())
+                    mMapViewOverlays.postInvalidate();
             }
 
             if (mIsAutopanningEnabled) {
@@ -326,10 +356,12 @@ public class CurrentLocationOverlay extends Overlay implements GpsEventListener
         return marker;
     }
 
-    private Bitmap getAccuracyMarker(int accuracy) {
-        int max = Math.max(mContext.getResources().getDisplayMetrics().widthPixels, mContext.getResources().getDisplayMetrics().heightPixels);
+    private int getMaxAccuracyDiameter() {
+        return Math.max(mContext.getResources().getDisplayMetrics().widthPixels, mContext.getResources().getDisplayMetrics().heightPixels);
+    }
 
-        if (accuracy * 2 > max) {
+    private Bitmap getAccuracyMarker(int accuracy) {
+        if (accuracy * 2 > getMaxAccuracyDiameter()) {
             return null;
         }
 
@@ -90,6 +90,16 @@ public class CurrentTrackOverlay
     }
 
 
+    /**
+     * The track is queried on every draw, so it is cached during gestures
+     */
+    @Override
+    public boolean isCacheable()
+    {
+        return true;
+    }
+
+
     @Override
     public void drawOnPanning(
             Canvas canvas,
@@ -241,6 +251,7 @@ public class CurrentTrackOverlay
             super.onChange(selfChange);
 
             mCursor.requery();
+            invalidateCache();
             mMapViewOverlays.postInvalidate();
         }
 
@@ -69,15 +69,19 @@ import com.nextgis.maplibui.R;
 import com.nextgis.maplibui.api.DrawItem;
 import com.nextgis.maplibui.api.EditEventListener;
 import com.nextgis.maplibui.api.EditStyle;
+import com.nextgis.maplibui.api.FreehandDigitizer;
 import com.nextgis.maplibui.api.MapViewEventListener;
 import com.nextgis.maplibui.api.Overlay;
 import com.nextgis.maplibui.api.OverlayItem;
+import com.nextgis.maplibui.api.PointBuffer;
+import com.nextgis.maplibui.api.SnapEngine;
 import com.nextgis.maplibui.api.VertexStyle;
 import com.nextgis.maplibui.fragment.BottomToolbar;
 import com.nextgis.maplibui.mapui.MapViewOverlays;
 import com.nextgis.maplibui.service.WalkEditService;
 import com.nextgis.maplibui.util.ConstantsUI;
 import com.nextgis.maplibui.util.ControlHelper;
+import com.nextgis.maplibui.util.FeatureSelector;
 import com.nextgis.maplibui.util.SettingsConstantsUI;
 
 import java.util.ArrayList;
@@ -105,6 +109,13 @@ public class EditLayerOverlay extends Overlay implements MapViewEventListener, G
 
     protected static final int mType = 3;
 
+    // largest distance of a touch sample from the simplified line
+    protected static final float SIMPLIFY_TOLERANCE_DP = 2;
+    // distance a dragged vertex snaps from
+    protected static final float SNAP_TOLERANCE_DP = 10;
+    // time the extent has to stay the same before the snap index is built
+    protected static final long SNAP_PREPARE_DELAY = 300;
+
     /**
      * Store keys
      */
@@ -126,6 +137,13 @@ public class EditLayerOverlay extends Overlay implements MapViewEventListener, G
 
     protected List<DrawItem> mDrawItems;
     protected DrawItem mSelectedItem;
+    // targets of the items moved or scaled by a gesture, reused between frames
+    protected List<DrawItem> mGestureItems;
+    // the draw items are reused while the geometry, its version, zoom and map origin are the same
+    protected GeoGeometry mDrawnGeometry;
+    protected int mGeometryVersion, mDrawnVersion;
+    protected float mDrawnZoom;
+    protected double mDrawnOriginX, mDrawnOriginY;
 
     protected int mMode;
     protected boolean mHasEdits;
@@ -134,6 +152,12 @@ public class EditLayerOverlay extends Overlay implements MapViewEventListener, G
     protected OverlayItem mOverlayPoint;
 
     protected List<EditEventListener> mListeners;
+    protected FeatureSelector mFeatureSelector;
+    protected FreehandDigitizer mDigitizer;
+    protected SnapEngine mSnapEngine;
+    protected PointF mSnapPoint = new PointF();
+    protected Runnable mPrepareSnapping;
+    protected FeatureSelector.Result mLastSelection;
     protected WalkEditReceiver mReceiver;
     protected GpsEventSource mGpsEventSource;
 
@@ -154,7 +178,17 @@ public class EditLayerOverlay extends Overlay implements MapViewEventListener, G
         mPaint.setStrokeWidth(LINE_WIDTH / 2);
 
         mDrawItems = new ArrayList<>();
+        mGestureItems = new ArrayList<>();
         mListeners = new ArrayList<>();
+        mFeatureSelector = new FeatureSelector();
+        mDigitizer = new FreehandDigitizer(context.getResources().getDisplayMetrics().density * SIMPLIFY_TOLERANCE_DP);
+        mSnapEngine = new SnapEngine(context.getResources().getDisplayMetrics().density * SNAP_TOLERANCE_DP);
+        mPrepareSnapping = new Runnable() {
+            @Override
+            public void run() {
+                prepareSnapping();
+            }
+        };
 
         mMap = mMapViewOverlays.getMap();
         mMapViewOverlays.addListener(this);
@@ -203,9 +237,21 @@ public class EditLayerOverlay extends Overlay implements MapViewEventListener, G
 
 
     public void setSelectedLayer(VectorLayer layer) {
+        if (mLayer != null)
+            mSnapEngine.removeLayer(mLayer);
+
         clearDrawItems();
         clearGeometry();
         mLayer = layer;
+
+        // snap to the edited layer, other layers are added with getSnapEngine()
+        if (mLayer != null)
+            mSnapEngine.addLayer(mLayer);
+    }
+
+
+    public SnapEngine getSnapEngine() {
+        return mSnapEngine;
     }
 
 
@@ -259,6 +305,38 @@ public class EditLayerOverlay extends Overlay implements MapViewEventListener, G
     protected void clearDrawItems() {
         mDrawItems.clear();
         mSelectedItem = null;
+        invalidateDrawItems();
+    }
+
+
+    /**
+     * The feature geometry was changed in place, project it again on the next draw
+     */
+    public void invalidateDrawItems() {
+        mGeometryVersion++;
+        invalidateCache();
+    }
+
+
+    /**
+     * @return true if the draw items show the feature geometry at the current map extent
+     */
+    protected boolean isDrawItemsValid() {
+        if (mDrawItems.isEmpty() || mDrawnVersion != mGeometryVersion || mDrawnGeometry != mFeature.getGeometry())
+            return false;
+
+        GeoEnvelope bounds = mMap.getCurrentBounds();
+        return mDrawnZoom == mMap.getZoomLevel() && mDrawnOriginX == bounds.getMinX() && mDrawnOriginY == bounds.getMaxY();
+    }
+
+
+    protected void validateDrawItems() {
+        GeoEnvelope bounds = mMap.getCurrentBounds();
+        mDrawnGeometry = mFeature.getGeometry();
+        mDrawnVersion = mGeometryVersion;
+        mDrawnZoom = mMap.getZoomLevel();
+        mDrawnOriginX = bounds.getMinX();
+        mDrawnOriginY = bounds.getMaxY();
     }
 
 
@@ -282,6 +360,7 @@ public class EditLayerOverlay extends Overlay implements MapViewEventListener, G
 
 
     protected void updateMap() {
+        invalidateCache();
         mMapViewOverlays.buffer();
         mMapViewOverlays.postInvalidate();
     }
@@ -326,7 +405,8 @@ public class EditLayerOverlay extends Overlay implements MapViewEventListener, G
             item = mBottomToolbar.getMenu().findItem(R.id.menu_edit_delete_point);
             if (item != null) {
                 boolean moreThanMin = true;
-                int size = mSelectedItem.getSelectedRing() == null ? 0 : mSelectedItem.getSelectedRing().length;
+                PointBuffer ring = mSelectedItem.getSelectedRingView();
+                int size = ring == null ? 0 : ring.size();
                 int minPoints = DrawItem.getMinPointCount(mLayer.getGeometryType()) * 2;
 
                 switch (mLayer.getGeometryType()) {
@@ -360,6 +440,7 @@ public class EditLayerOverlay extends Overlay implements MapViewEventListener, G
         if (mode != MODE_NONE && mLayer == null)
             return;
 
+        mDigitizer.finish();
         mMode = mode;
         switch (mMode) {
             case MODE_NONE:
@@ -410,6 +491,7 @@ public class EditLayerOverlay extends Overlay implements MapViewEventListener, G
                     listener.onStartEditSession();
 
                 mLayer.hideFeature(mFeature.getId());
+                schedulePrepareSnapping();
                 break;
             case MODE_EDIT_BY_WALK:
                 hideNavigationButton();
@@ -458,11 +540,13 @@ public class EditLayerOverlay extends Overlay implements MapViewEventListener, G
         mapPoint.project(GeoConstants.CRS_WGS84);
         mOverlayPoint.setCoordinates(mapPoint);
         mOverlayPoint.setVisible(true);
+        invalidateCache();
     }
 
 
     public void hideOverlayPoint() {
         mOverlayPoint.setVisible(false);
+        invalidateCache();
     }
 
 
@@ -470,7 +554,7 @@ public class EditLayerOverlay extends Overlay implements MapViewEventListener, G
         clearDrawItems();
 
         float[] coordinates = new float[]{mOverlayPoint.getScreenX(), mOverlayPoint.getScreenY()};
-        mSelectedItem = new DrawItem(DrawItem.TYPE_VERTEX, coordinates);
+        mSelectedItem = newDrawItem(GeoConstants.GTPoint, coordinates);
         mDrawItems.add(mSelectedItem);
 
         update();
@@ -517,7 +601,7 @@ public class EditLayerOverlay extends Overlay implements MapViewEventListener, G
         clearDrawItems();
 
         float[] geoPoints = getNewGeometry(mLayer.getGeometryType(), mTolerancePX, mMap);
-        mSelectedItem = new DrawItem(DrawItem.TYPE_VERTEX, geoPoints);
+        mSelectedItem = newDrawItem(mLayer.getGeometryType(), geoPoints);
         mDrawItems.add(mSelectedItem);
 
         update();
@@ -569,6 +653,23 @@ public class EditLayerOverlay extends Overlay implements MapViewEventListener, G
     }
 
 
+    /**
+     * @return an item with the points of the geometry type and the edges between them
+     */
+    protected static DrawItem newDrawItem(int geometryType, float[] points) {
+        switch (geometryType) {
+            case GeoConstants.GTPoint:
+            case GeoConstants.GTMultiPoint:
+                return new DrawItem(DrawItem.TYPE_VERTEX, points);
+            default:
+                DrawItem drawItem = new DrawItem();
+                boolean closed = geometryType != GeoConstants.GTLineString && geometryType != GeoConstants.GTMultiLineString;
+                drawItem.addRing(points, closed);
+                return drawItem;
+        }
+    }
+
+
     protected boolean moveSelectedPoint(float x, float y) {
         mSelectedItem.setSelectedPointCoordinates(x, y);
         return true;
@@ -600,7 +701,7 @@ public class EditLayerOverlay extends Overlay implements MapViewEventListener, G
             case GeoConstants.GTLineString:
             case GeoConstants.GTPolygon:
                 float[] geoPoints = getNewGeometry(geometryType, mTolerancePX, mMap);
-                mSelectedItem = new DrawItem(DrawItem.TYPE_VERTEX, geoPoints);
+                mSelectedItem = newDrawItem(geometryType, geoPoints);
                 mDrawItems.add(mSelectedItem);
                 break;
         }
@@ -610,7 +711,7 @@ public class EditLayerOverlay extends Overlay implements MapViewEventListener, G
 
 
     protected boolean addInnerRing() {
-        mSelectedItem.addVertices(getNewGeometry(GeoConstants.GTLinearRing, mTolerancePX, mMap));
+        mSelectedItem.addRing(getNewGeometry(GeoConstants.GTLinearRing, mTolerancePX, mMap), true);
         mSelectedItem.setSelectedRing(mSelectedItem.getRingCount() - 1);
         mSelectedItem.setSelectedPoint(0);
 
@@ -651,6 +752,8 @@ public class EditLayerOverlay extends Overlay implements MapViewEventListener, G
             mSelectedItem = mDrawItems.get(mDrawItems.size() - 1);
         else
             mSelectedItem = null;
+
+        invalidateCache();
     }
 
 
@@ -778,7 +881,11 @@ public class EditLayerOverlay extends Overlay implements MapViewEventListener, G
                 break;
         }
 
+        // the items already show the new geometry, only the edited rings have changed
+        boolean isValid = isDrawItemsValid();
         mFeature.setGeometry(geometry);
+        if (isValid)
+            validateDrawItems();
     }
 
 
@@ -832,19 +939,55 @@ public class EditLayerOverlay extends Overlay implements MapViewEventListener, G
 
     @Override
     public void draw(Canvas canvas, MapDrawable mapDrawable) {
+        drawToCache(canvas, mapDrawable);
+
+        if (mMode != MODE_CHANGE && mFeature != null)
+            drawCross(canvas);
+    }
+
+
+    @Override
+    public boolean isCacheable() {
+        // point distance is updated while panning
+        boolean isPoint = false;
+        if (mLayer != null) {
+            int type = mLayer.getGeometryType();
+            isPoint = type == GeoConstants.GTPoint || type == GeoConstants.GTMultiPoint;
+        }
+
+        return !isPoint && mMode != MODE_CHANGE && mMode != MODE_EDIT_BY_TOUCH && mMode != MODE_EDIT_BY_WALK;
+    }
+
+
+    @Override
+    public boolean isChangingMap() {
+        // the edited feature is hidden in its layer and its unsaved geometry is drawn instead
+        return mMode != MODE_NONE && mMode != MODE_HIGHLIGHT;
+    }
+
+
+    @Override
+    public void drawToCache(Canvas canvas, MapDrawable mapDrawable) {
         if (mOverlayPoint.isVisible())
             drawOverlayItem(canvas, mOverlayPoint);
 
         if (mMode == MODE_CHANGE || mFeature == null)
             return;
 
-        fillDrawItems(mFeature.getGeometry());
+        if (!isDrawItemsValid()) {
+            fillDrawItems(mFeature.getGeometry());
+            validateDrawItems();
+        }
 
         for (DrawItem drawItem : mDrawItems) {
             boolean isSelected = mSelectedItem == drawItem;
             drawItem(drawItem, canvas, isSelected);
         }
+    }
 
+
+    @Override
+    public void drawOverCache(Canvas canvas) {
         drawCross(canvas);
     }
 
@@ -857,17 +1000,13 @@ public class EditLayerOverlay extends Overlay implements MapViewEventListener, G
             drawOnPanning(canvas, currentMouseOffset, mOverlayPoint);
 
         List<DrawItem> drawItems = mDrawItems;
-        for (DrawItem drawItem : drawItems) {
+        for (int i = 0; i < drawItems.size(); i++) {
+            DrawItem drawItem = drawItems.get(i);
             boolean isSelected = mSelectedItem == drawItem;
 
-            if (mMode != MODE_CHANGE && mMode != MODE_EDIT_BY_TOUCH) {
-                drawItem = drawItem.pan(currentMouseOffset);
-
-                if (isSelected) {
-                    drawItem.setSelectedRing(mSelectedItem.getSelectedRingId());
-                    drawItem.setSelectedPoint(mSelectedItem.getSelectedPointId());
-                }
-            }
+            // the selection is copied with the points
+            if (mMode != MODE_CHANGE && mMode != MODE_EDIT_BY_TOUCH)
+                drawItem = drawItem.panTo(getGestureItem(i), currentMouseOffset);
 
             drawItem(drawItem, canvas, isSelected);
             if (mLayer != null) {
@@ -893,14 +1032,10 @@ public class EditLayerOverlay extends Overlay implements MapViewEventListener, G
             drawOnZooming(canvas, currentFocusLocation, scale, mOverlayPoint, false);
 
         List<DrawItem> drawItems = mDrawItems;
-        for (DrawItem drawItem : drawItems) {
+        for (int i = 0; i < drawItems.size(); i++) {
+            DrawItem drawItem = drawItems.get(i);
             boolean isSelected = mSelectedItem == drawItem;
-            drawItem = drawItem.zoom(currentFocusLocation, scale);
-
-            if (isSelected) {
-                drawItem.setSelectedRing(mSelectedItem.getSelectedRingId());
-                drawItem.setSelectedPoint(mSelectedItem.getSelectedPointId());
-            }
+            drawItem = drawItem.zoomTo(getGestureItem(i), currentFocusLocation, scale);
 
             drawItem(drawItem, canvas, isSelected);
         }
@@ -909,6 +1044,14 @@ public class EditLayerOverlay extends Overlay implements MapViewEventListener, G
     }
 
 
+    protected DrawItem getGestureItem(int position) {
+        while (mGestureItems.size() <= position)
+            mGestureItems.add(new DrawItem());
+
+        return mGestureItems.get(position);
+    }
+
+
     public void fillDrawItems(GeoGeometry geom) {
         int lastItemsCount = mDrawItems.size();
         int lastSelectedItemPosition = mDrawItems.indexOf(mSelectedItem);
@@ -997,17 +1140,9 @@ public class EditLayerOverlay extends Overlay implements MapViewEventListener, G
                 lineString.getPoints().toArray(new GeoPoint[lineString.getPointCount()]);
         float[] points = mapToScreen(geoPoints);
 
-        mSelectedItem = new DrawItem(DrawItem.TYPE_VERTEX, points);
+        mSelectedItem = new DrawItem();
+        mSelectedItem.addRing(points, false);
         mDrawItems.add(mSelectedItem);
-
-        if (points.length < 2)
-            return;
-
-        float[] edgePoints = new float[points.length - 2];
-        for (int i = 0; i < points.length - 2; i++)
-            edgePoints[i] = (points[i] + points[i + 2]) * .5f;
-
-        mSelectedItem.addEdges(edgePoints);
     }
 
 
@@ -1015,19 +1150,11 @@ public class EditLayerOverlay extends Overlay implements MapViewEventListener, G
         GeoPoint[] geoPoints =
                 geoLinearRing.getPoints().toArray(new GeoPoint[geoLinearRing.getPointCount()]);
         float[] points = mapToScreen(geoPoints);
-        float[] edgePoints = new float[points.length];
 
-        if (points.length == 0 || edgePoints.length < 2)
+        if (points.length < 2)
             return;
 
-        for (int i = 0; i < points.length - 2; i++)
-            edgePoints[i] = (points[i] + points[i + 2]) * .5f;
-
-        edgePoints[edgePoints.length - 2] = (points[0] + points[points.length - 2]) * .5f;
-        edgePoints[edgePoints.length - 1] = (points[1] + points[points.length - 1]) * .5f;
-
-        mSelectedItem.addVertices(points);
-        mSelectedItem.addEdges(edgePoints);
+        mSelectedItem.addRing(points, true);
     }
 
 
@@ -1058,7 +1185,7 @@ public class EditLayerOverlay extends Overlay implements MapViewEventListener, G
             case GeoConstants.GTMultiLineString:
             case GeoConstants.GTPolygon:
             case GeoConstants.GTMultiPolygon:
-                boolean closed = mFeature.getGeometry().getType() == GeoConstants.GTPolygon || mFeature.getGeometry().getType() == GeoConstants.GTMultiPolygon;
+                boolean closed = isClosedGeometry();
                 drawItem.drawLines(canvas, isSelected, mMode == MODE_EDIT || mMode == MODE_CHANGE, mMode == MODE_EDIT, closed);
                 break;
             default:
@@ -1150,41 +1277,26 @@ public class EditLayerOverlay extends Overlay implements MapViewEventListener, G
         }
 
         //2. select another geometry
-        GeoEnvelope mapEnv = mMapViewOverlays.screenToMap(screenEnv);
-        if (null == mapEnv)
-            return false;
-
-        List<Long> items = mLayer.query(mapEnv);
-        if (items.isEmpty())
+        mLastSelection = mFeatureSelector.select(mLayer, mMap, x, y, mTolerancePX);
+        if (null == mLastSelection)
             return false;
 
         long previousFeatureId = Constants.NOT_FOUND;
         if (null != mFeature)
             previousFeatureId = mFeature.getId();
 
-        GeoEnvelope exactEnv = new GeoEnvelope(x, x, y, y);
-        exactEnv = mMap.screenToMap(exactEnv);
-        if (null == exactEnv)
-            return false;
-        GeoPoint point = new GeoPoint(exactEnv.getMaxX(), exactEnv.getMinY());
-        point.setCRS(GeoConstants.CRS_WEB_MERCATOR);
-
-        for (int i = 0; i < items.size(); i++) {    // FIXME hack for bad RTree cache
-            long featureId = items.get(i);
-            GeoGeometry geometry = mLayer.getGeometryForId(featureId);
-            if (notContains(geometry, point))
-                continue;
-
-            if (geometry != null && previousFeatureId != featureId) {
-                mFeature = new Feature(featureId, mLayer.getFields());
-                mFeature.setGeometry(mLayer.getGeometryForId(featureId));
-            }
+        // the nearest feature, a tap on the selected one selects the next candidate
+        FeatureSelector.Candidate candidate = mLastSelection.getBest(previousFeatureId);
+        if (null != candidate) {
+            mFeature = new Feature(candidate.getId(), mLayer.getFields());
+            mFeature.setGeometry(candidate.getGeometry());
         }
 
         if (mFeature == null || previousFeatureId == mFeature.getId())
             return false;
 
         if (mMode == MODE_HIGHLIGHT) {
+            invalidateCache();
             mMapViewOverlays.invalidate();
             return false;
         }
@@ -1199,6 +1311,15 @@ public class EditLayerOverlay extends Overlay implements MapViewEventListener, G
     }
 
 
+    /**
+     * @return the features found by the last tap outside the edited feature, the best first, or
+     * null
+     */
+    public FeatureSelector.Result getLastSelection() {
+        return mLastSelection;
+    }
+
+
     public boolean notContains(GeoGeometry geometry, GeoPoint point) {
         if (geometry instanceof GeoPolygon) {
             GeoPolygon polygon = (GeoPolygon) geometry;
@@ -1240,6 +1361,9 @@ public class EditLayerOverlay extends Overlay implements MapViewEventListener, G
                             new PointF(tempPoint.x - event.getX(), tempPoint.y - event.getY());
                     mMapViewOverlays.setLockMap(true);
                     mMode = MODE_CHANGE;
+
+                    // the index is usually built already, if not snapping starts when it is
+                    prepareSnapping();
                 }
             }
         }
@@ -1249,16 +1373,35 @@ public class EditLayerOverlay extends Overlay implements MapViewEventListener, G
     @Override
     public void panMoveTo(MotionEvent e) {
         if (mMode == MODE_CHANGE && mTempPointOffset != null) {
-            mSelectedItem.setSelectedPointCoordinates(
-                    e.getX() + mTempPointOffset.x, e.getY() + mTempPointOffset.y);
+            float x = e.getX() + mTempPointOffset.x;
+            float y = e.getY() + mTempPointOffset.y;
+            if (mSnapEngine.snap(x, y, mSnapPoint) != SnapEngine.SNAP_NONE) {
+                x = mSnapPoint.x;
+                y = mSnapPoint.y;
+            }
+
+            mSelectedItem.setSelectedPointCoordinates(x, y);
         }
 
         if (mMode == MODE_EDIT_BY_TOUCH) {
-            mSelectedItem.insertNewPoint(mSelectedItem.getSelectedPointId(), e.getX(), e.getY());
+            if (!mDigitizer.isStarted() && !mDigitizer.start(mSelectedItem))
+                return;
+
+            if (mDigitizer.addSample(e.getX(), e.getY()))
+                mSelectedItem.setSelectedPoint(mDigitizer.getPosition());
         }
     }
 
 
+    protected boolean isClosedGeometry() {
+        if (mFeature == null || mFeature.getGeometry() == null)
+            return false;
+
+        int type = mFeature.getGeometry().getType();
+        return type == GeoConstants.GTPolygon || type == GeoConstants.GTMultiPolygon;
+    }
+
+
     @Override
     public void panStop() {
         if (mMode == MODE_CHANGE) {
@@ -1268,8 +1411,10 @@ public class EditLayerOverlay extends Overlay implements MapViewEventListener, G
             update();
         }
 
-        if (mMode == MODE_EDIT_BY_TOUCH)
+        if (mMode == MODE_EDIT_BY_TOUCH) {
+            mDigitizer.finish();
             fillGeometry();
+        }
     }
 
 
@@ -1291,7 +1436,8 @@ public class EditLayerOverlay extends Overlay implements MapViewEventListener, G
 
     @Override
     public void onLayerChanged(int id) {
-
+        mSnapEngine.invalidate();
+        schedulePrepareSnapping();
     }
 
 
@@ -1299,7 +1445,27 @@ public class EditLayerOverlay extends Overlay implements MapViewEventListener, G
     public void onExtentChanged(
             float zoom,
             GeoPoint center) {
+        schedulePrepareSnapping();
+    }
 
+
+    /**
+     * Build the snap index in the background when the extent stays the same for a while, so a
+     * vertex drag does not wait for it
+     */
+    protected void schedulePrepareSnapping() {
+        mMapViewOverlays.removeCallbacks(mPrepareSnapping);
+        if (mMode == MODE_EDIT && null != mFeature)
+            mMapViewOverlays.postDelayed(mPrepareSnapping, SNAP_PREPARE_DELAY);
+    }
+
+
+    protected void prepareSnapping() {
+        if (null == mFeature || (mMode != MODE_EDIT && mMode != MODE_CHANGE))
+            return;
+
+        mSnapEngine.setExcludedFeature(mLayer, mFeature.getId());
+        mSnapEngine.prepare(mMap);
     }
 
 
@@ -1390,6 +1556,7 @@ public class EditLayerOverlay extends Overlay implements MapViewEventListener, G
         public void onReceive(Context context, Intent intent) {
             GeoGeometry geometry = (GeoGeometry) intent.getSerializableExtra(ConstantsUI.KEY_GEOMETRY);
             setGeometryFromWalkEdit(geometry);
+            invalidateCache();
             mMapViewOverlays.postInvalidate();
         }
     }
@@ -1431,5 +1598,7 @@ public class EditLayerOverlay extends Overlay implements MapViewEventListener, G
                 mFeature.setGeometry(multiPolygon);
                 break;
         }
+
+        invalidateDrawItems();
     }
 }
@@ -25,7 +25,6 @@ import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.DashPathEffect;
 import android.graphics.Paint;
-import android.graphics.Path;
 import android.graphics.PointF;
 import android.os.Bundle;
 import android.view.MotionEvent;
@@ -40,6 +39,7 @@ import com.nextgis.maplibui.R;
 import com.nextgis.maplibui.api.DrawItem;
 import com.nextgis.maplibui.api.MapViewEventListener;
 import com.nextgis.maplibui.api.Overlay;
+import com.nextgis.maplibui.api.PointBuffer;
 import com.nextgis.maplibui.mapui.MapViewOverlays;
 import com.nextgis.maplibui.util.ConstantsUI;
 import com.nextgis.maplibui.util.ControlHelper;
@@ -54,6 +54,7 @@ public class RulerOverlay extends Overlay implements MapViewEventListener {
     protected boolean mMeasuring, mIsMoving;
     protected Paint mPaint;
     protected DrawItem mRulerItem;
+    protected DrawItem mGestureItem = new DrawItem();
     protected GeoLineString mRulerString;
     protected GeoPolygon mRulerPolygon;
     protected OnRulerChanged mListener;
@@ -102,6 +103,7 @@ public class RulerOverlay extends Overlay implements MapViewEventListener {
         mRulerPolygon = null;
         mListener = null;
         mMapViewOverlays.removeListener(this);
+        invalidateCache();
         mMapViewOverlays.postInvalidate();
     }
 
@@ -140,6 +142,7 @@ public class RulerOverlay extends Overlay implements MapViewEventListener {
     }
 
     protected void fillGeometry() {
+        invalidateCache();
         mRulerString.clear();
         mRulerPolygon.clear();
         float[] points = mRulerItem.getRing(0);
@@ -170,13 +173,18 @@ public class RulerOverlay extends Overlay implements MapViewEventListener {
         }
     }
 
+    @Override
+    public boolean isCacheable() {
+        return !mIsMoving;
+    }
+
     @Override
     public void drawOnPanning(Canvas canvas, PointF currentMouseOffset) {
         if (isMeasuring()) {
             DrawItem draw = mRulerItem;
 
             if (!mIsMoving)
-                draw = mRulerItem.pan(currentMouseOffset);
+                draw = mRulerItem.panTo(mGestureItem, currentMouseOffset);
 
             draw.drawLines(canvas, true, true, false, false);
             drawClosingLine(canvas, draw);
@@ -186,20 +194,16 @@ public class RulerOverlay extends Overlay implements MapViewEventListener {
     @Override
     public void drawOnZooming(Canvas canvas, PointF currentFocusLocation, float scale) {
         if (isMeasuring()) {
-            DrawItem drawItem = mRulerItem.zoom(currentFocusLocation, scale);
+            DrawItem drawItem = mRulerItem.zoomTo(mGestureItem, currentFocusLocation, scale);
             drawItem.drawLines(canvas, true, true, false, false);
             drawClosingLine(canvas, drawItem);
         }
     }
 
     protected void drawClosingLine(Canvas canvas, DrawItem drawItem) {
-        float[] points = drawItem.getSelectedRing();
-        if (points != null && points.length >= 6) {
-            Path path = new Path();
-            path.moveTo(points[0], points[1]);
-            path.lineTo(points[points.length - 2], points[points.length - 1]);
-            canvas.drawPath(path, mPaint);
-        }
+        PointBuffer points = drawItem.getSelectedRingView();
+        if (points != null && points.size() >= 6)
+            canvas.drawLine(points.get(0), points.get(1), points.get(points.size() - 2), points.get(points.size() - 1), mPaint);
     }
 
     @Override
@@ -247,11 +251,11 @@ public class RulerOverlay extends Overlay implements MapViewEventListener {
                 return;
             }
 
-            if (mRulerItem.getSelectedRing() == null)
+            if (mRulerItem.getSelectedRingView() == null)
                 mRulerItem.addVertices(new float[] {event.getX(), event.getY()});
             else {
                 mRulerItem.addNewPoint(event.getX(), event.getY());
-                mRulerItem.setSelectedPoint(mRulerItem.getSelectedRing().length - 2);
+                mRulerItem.setSelectedPoint(mRulerItem.getSelectedRingView().size() - 2);
             }
 
             fillGeometry();
@@ -0,0 +1,401 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2021 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.nextgis.maplibui.util;
+
+import android.database.Cursor;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.nextgis.maplib.datasource.GeoEnvelope;
+import com.nextgis.maplib.datasource.GeoGeometry;
+import com.nextgis.maplib.datasource.GeoGeometryCollection;
+import com.nextgis.maplib.datasource.GeoGeometryFactory;
+import com.nextgis.maplib.datasource.GeoLineString;
+import com.nextgis.maplib.datasource.GeoLinearRing;
+import com.nextgis.maplib.datasource.GeoMultiLineString;
+import com.nextgis.maplib.datasource.GeoMultiPoint;
+import com.nextgis.maplib.datasource.GeoMultiPolygon;
+import com.nextgis.maplib.datasource.GeoPoint;
+import com.nextgis.maplib.datasource.GeoPolygon;
+import com.nextgis.maplib.map.MapDrawable;
+import com.nextgis.maplib.map.VectorLayer;
+import com.nextgis.maplib.util.Constants;
+import com.nextgis.maplib.util.GeoConstants;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static com.nextgis.maplib.util.Constants.FIELD_GEOM;
+import static com.nextgis.maplib.util.Constants.FIELD_ID;
+
+/**
+ * Finds the features of a layer under a tap. The candidates of the spatial index are loaded in
+ * batches by one query each and ranked by their screen distance to the tap: points first, then
+ * lines, then polygons containing the tap or with the boundary near it. The result holds the
+ * best candidates for disambiguation and the time spent in each step.
+ */
+public class FeatureSelector {
+    public static final int RANK_POINT   = 0;
+    public static final int RANK_LINE    = 1;
+    public static final int RANK_POLYGON = 2;
+
+    public static final int DEFAULT_MAX_CANDIDATES = 5;
+    // a selection taking longer is logged as slow, ms
+    public static final long SLOW_SELECTION = 100;
+
+    // feature ids per geometry query
+    public static final int BATCH_SIZE = 500;
+
+    protected int mMaxCandidates = DEFAULT_MAX_CANDIDATES;
+
+    /**
+     * @param tolerance search radius around the tap in pixels
+     * @return the ranked candidates or null if the tap is outside the map
+     */
+    public Result select(VectorLayer layer, MapDrawable map, float x, float y, float tolerance) {
+        GeoEnvelope screenEnv = new GeoEnvelope(x - tolerance, x + tolerance, y - tolerance, y + tolerance);
+        GeoEnvelope mapEnv = map.screenToMap(screenEnv);
+        if (null == mapEnv || tolerance <= 0)
+            return null;
+
+        Result result = new Result();
+        long start = System.nanoTime();
+        List<Long> ids = layer.query(mapEnv);
+        result.mQueryTime = System.nanoTime() - start;
+        result.mQueriedCount = ids.size();
+
+        // map units per pixel
+        double scale = mapEnv.width() / (2 * tolerance);
+        double mapTolerance = tolerance * scale;
+        GeoPoint point = mapEnv.getCenter();
+        point.setCRS(GeoConstants.CRS_WEB_MERCATOR);
+
+        List<Candidate> candidates = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i += BATCH_SIZE) {
+            List<Long> batch = ids.subList(i, Math.min(i + BATCH_SIZE, ids.size()));
+            Cursor cursor = queryGeometries(layer, batch);
+            if (null == cursor)
+                continue;
+
+            try {
+                int idColumn = cursor.getColumnIndex(FIELD_ID);
+                int geomColumn = cursor.getColumnIndex(FIELD_GEOM);
+                while (cursor.moveToNext()) {
+                    long parseStart = System.nanoTime();
+                    GeoGeometry geometry = toGeometry(cursor.getBlob(geomColumn));
+                    long rankStart = System.nanoTime();
+                    result.mFetchedCount++;
+                    if (null != geometry) {
+                        Candidate candidate = new Candidate(cursor.getLong(idColumn), geometry);
+                        measure(geometry, point, mapTolerance, candidate);
+                        if (candidate.mRank != Integer.MAX_VALUE) {
+                            candidate.mDistance /= scale;
+                            candidates.add(candidate);
+                        }
+                    }
+                    result.mParseTime += rankStart - parseStart;
+                    result.mRankTime += System.nanoTime() - rankStart;
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        long sortStart = System.nanoTime();
+        Collections.sort(candidates, new Comparator<Candidate>() {
+            @Override
+            public int compare(Candidate lhs, Candidate rhs) {
+                if (lhs.mRank != rhs.mRank)
+                    return lhs.mRank < rhs.mRank ? -1 : 1;
+                return Double.compare(lhs.mDistance, rhs.mDistance);
+            }
+        });
+
+        result.mCandidates = candidates.size() > mMaxCandidates ?
+                new ArrayList<>(candidates.subList(0, mMaxCandidates)) : candidates;
+        long end = System.nanoTime();
+        result.mRankTime += end - sortStart;
+        result.mTotalTime = end - start;
+        result.mFetchTime = result.mTotalTime - result.mQueryTime - result.mRankTime;
+
+        if (result.getTotalTime() >= SLOW_SELECTION)
+            Log.w(Constants.TAG, "FeatureSelector: slow selection in " + layer.getName() + ", " + result);
+        else if (Constants.DEBUG_MODE)
+            Log.d(Constants.TAG, "FeatureSelector: " + result);
+
+        return result;
+    }
+
+    /**
+     * @return a cursor with the {@link Constants#FIELD_ID} and {@link Constants#FIELD_GEOM}
+     * columns of the features, use {@link #BATCH_SIZE} ids at most
+     */
+    public static Cursor queryGeometries(VectorLayer layer, List<Long> ids) {
+        return layer.query(new String[]{FIELD_ID, FIELD_GEOM},
+                FIELD_ID + " IN (" + TextUtils.join(",", ids) + ")", null, null, null);
+    }
+
+    public static GeoGeometry toGeometry(byte[] blob) {
+        if (null == blob)
+            return null;
+
+        try {
+            GeoGeometry geometry = GeoGeometryFactory.fromBlob(blob);
+            if (null != geometry)
+                geometry.setCRS(GeoConstants.CRS_WEB_MERCATOR);
+            return geometry;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Keep the best rank and the smallest distance of the geometry parts within the tolerance
+     */
+    protected static void measure(GeoGeometry geometry, GeoPoint point, double tolerance, Candidate candidate) {
+        double x = point.getX(), y = point.getY();
+        switch (geometry.getType()) {
+            case GeoConstants.GTPoint:
+                GeoPoint geoPoint = (GeoPoint) geometry;
+                offer(candidate, RANK_POINT, Math.hypot(geoPoint.getX() - x, geoPoint.getY() - y), tolerance);
+                break;
+            case GeoConstants.GTMultiPoint:
+                GeoMultiPoint multiPoint = (GeoMultiPoint) geometry;
+                for (int i = 0; i < multiPoint.size(); i++)
+                    measure(multiPoint.get(i), point, tolerance, candidate);
+                break;
+            case GeoConstants.GTLineString:
+                offer(candidate, RANK_LINE, getDistance(((GeoLineString) geometry).getPoints(), false, x, y), tolerance);
+                break;
+            case GeoConstants.GTMultiLineString:
+                GeoMultiLineString multiLine = (GeoMultiLineString) geometry;
+                for (int i = 0; i < multiLine.size(); i++)
+                    measure(multiLine.get(i), point, tolerance, candidate);
+                break;
+            case GeoConstants.GTPolygon:
+                GeoPolygon polygon = (GeoPolygon) geometry;
+                double distance = 0;
+                if (!polygon.contains(point)) {
+                    distance = getDistance(polygon.getOuterRing().getPoints(), true, x, y);
+                    for (int i = 0; i < polygon.getInnerRingCount(); i++) {
+                        GeoLinearRing ring = polygon.getInnerRing(i);
+                        distance = Math.min(distance, getDistance(ring.getPoints(), true, x, y));
+                    }
+                }
+                offer(candidate, RANK_POLYGON, distance, tolerance);
+                break;
+            case GeoConstants.GTMultiPolygon:
+                GeoMultiPolygon multiPolygon = (GeoMultiPolygon) geometry;
+                for (int i = 0; i < multiPolygon.size(); i++)
+                    measure(multiPolygon.get(i), point, tolerance, candidate);
+                break;
+            case GeoConstants.GTGeometryCollection:
+                GeoGeometryCollection collection = (GeoGeometryCollection) geometry;
+                for (int i = 0; i < collection.size(); i++)
+                    measure(collection.get(i), point, tolerance, candidate);
+                break;
+        }
+    }
+
+    protected static void offer(Candidate candidate, int rank, double distance, double tolerance) {
+        if (distance > tolerance)
+            return;
+
+        if (rank < candidate.mRank || rank == candidate.mRank && distance < candidate.mDistance) {
+            candidate.mRank = rank;
+            candidate.mDistance = distance;
+        }
+    }
+
+    /**
+     * @return distance from the point to the nearest segment of the line
+     */
+    protected static double getDistance(List<GeoPoint> points, boolean closed, double x, double y) {
+        int count = points.size();
+        if (count == 0)
+            return Double.MAX_VALUE;
+
+        GeoPoint first = points.get(0);
+        double distance = Math.hypot(first.getX() - x, first.getY() - y);
+        int segments = closed ? count : count - 1;
+        for (int i = 0; i < segments; i++) {
+            GeoPoint a = points.get(i), b = points.get((i + 1) % count);
+            distance = Math.min(distance, getSegmentDistance(a.getX(), a.getY(), b.getX(), b.getY(), x, y));
+        }
+
+        return distance;
+    }
+
+    protected static double getSegmentDistance(double ax, double ay, double bx, double by, double x, double y) {
+        double dx = bx - ax, dy = by - ay;
+        double length = dx * dx + dy * dy;
+        double t = length == 0 ? 0 : ((x - ax) * dx + (y - ay) * dy) / length;
+        t = Math.max(0, Math.min(1, t));
+        return Math.hypot(ax + t * dx - x, ay + t * dy - y);
+    }
+
+    public int getMaxCandidates() {
+        return mMaxCandidates;
+    }
+
+    /**
+     * @param maxCandidates number of the best candidates kept for disambiguation
+     */
+    public void setMaxCandidates(int maxCandidates) {
+        mMaxCandidates = Math.max(1, maxCandidates);
+    }
+
+    public static class Candidate {
+        protected final long mId;
+        protected final GeoGeometry mGeometry;
+        protected int mRank = Integer.MAX_VALUE;
+        protected double mDistance = Double.MAX_VALUE;
+
+        protected Candidate(long id, GeoGeometry geometry) {
+            mId = id;
+            mGeometry = geometry;
+        }
+
+        public long getId() {
+            return mId;
+        }
+
+        public GeoGeometry getGeometry() {
+            return mGeometry;
+        }
+
+        /**
+         * @return {@link #RANK_POINT}, {@link #RANK_LINE} or {@link #RANK_POLYGON}
+         */
+        public int getRank() {
+            return mRank;
+        }
+
+        /**
+         * @return distance to the tap in pixels, 0 inside a polygon
+         */
+        public double getDistance() {
+            return mDistance;
+        }
+    }
+
+    public static class Result {
+        protected static final long NANOS_PER_MS = 1000000;
+
+        protected List<Candidate> mCandidates;
+        protected int mQueriedCount, mFetchedCount;
+        // ns
+        protected long mQueryTime, mFetchTime, mParseTime, mRankTime, mTotalTime;
+
+        /**
+         * @return the best candidates, best first
+         */
+        public List<Candidate> getCandidates() {
+            return mCandidates;
+        }
+
+        /**
+         * @return the best candidate which is not the excluded feature or null
+         */
+        public Candidate getBest(long excludedId) {
+            for (Candidate candidate : mCandidates)
+                if (candidate.mId != excludedId)
+                    return candidate;
+
+            return null;
+        }
+
+        /**
+         * @return true if several candidates of the best rank are equally near the tap
+         */
+        public boolean isAmbiguous() {
+            if (mCandidates.size() < 2)
+                return false;
+
+            Candidate first = mCandidates.get(0), second = mCandidates.get(1);
+            return first.mRank == second.mRank && second.mDistance - first.mDistance < 1;
+        }
+
+        /**
+         * @return number of features found by the spatial index
+         */
+        public int getQueriedCount() {
+            return mQueriedCount;
+        }
+
+        /**
+         * @return number of geometries loaded, less than queried if the index is outdated
+         */
+        public int getFetchedCount() {
+            return mFetchedCount;
+        }
+
+        /**
+         * @return spatial index query time in ms
+         */
+        public long getQueryTime() {
+            return mQueryTime / NANOS_PER_MS;
+        }
+
+        /**
+         * @return geometry load time including the parsing in ms
+         */
+        public long getFetchTime() {
+            return mFetchTime / NANOS_PER_MS;
+        }
+
+        /**
+         * @return geometry parsing time in ms
+         */
+        public long getParseTime() {
+            return mParseTime / NANOS_PER_MS;
+        }
+
+        /**
+         * @return distance measuring time in ms
+         */
+        public long getRankTime() {
+            return mRankTime / NANOS_PER_MS;
+        }
+
+        /**
+         * @return selection time in ms
+         */
+        public long getTotalTime() {
+            return mTotalTime / NANOS_PER_MS;
+        }
+
+        @Override
+        public String toString() {
+            return "queried " + mQueriedCount + " in " + getQueryTime() + " ms, fetched " +
+                    mFetchedCount + " in " + getFetchTime() + " ms (parse " + getParseTime() +
+                    " ms), ranked in " + getRankTime() + " ms, candidates " + mCandidates.size();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2021 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextgis.maplibui.util;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.nextgis.maplib.map.MapDrawable;
+import com.nextgis.maplib.util.Constants;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Loads the map and runs other startup work on a background thread. The map object exists at once,
+ * its layers appear when the load is finished. Listeners are called on the main thread when the
+ * map is ready, {@link #await()} blocks for callers which can not wait asynchronously.
+ */
+public class MapInitializer {
+    public interface OnMapReadyListener {
+        void onMapReady(MapDrawable map);
+    }
+
+    protected final MapDrawable mMap;
+    protected final StartupTracer mTracer;
+    protected final ExecutorService mExecutor;
+    protected final Handler mHandler;
+    protected final CountDownLatch mReadyLatch = new CountDownLatch(1);
+    protected final List<OnMapReadyListener> mListeners = new ArrayList<>();
+    protected volatile boolean mIsReady;
+    protected volatile Thread mThread;
+
+    public MapInitializer(MapDrawable map, StartupTracer tracer) {
+        mMap = map;
+        mTracer = tracer;
+        mHandler = new Handler(Looper.getMainLooper());
+        // one thread, the startup tasks run in order after the map load
+        mExecutor = new ThreadPoolExecutor(0, 1, Constants.KEEP_ALIVE_TIME,
+                Constants.KEEP_ALIVE_TIME_UNIT, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        mThread = new Thread(r, "MapInitializer");
+                        return mThread;
+                    }
+                });
+    }
+
+    /**
+     * Start loading the map
+     */
+    public void start() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = mTracer.start();
+                try {
+                    mMap.load();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                } finally {
+                    mTracer.record(StartupTracer.PHASE_MAP_LOAD, start);
+                    long load = mTracer.getDuration(StartupTracer.PHASE_MAP_LOAD);
+                    long layers = Math.max(0, mTracer.getDuration(StartupTracer.PHASE_LAYER_CREATE));
+                    if (load >= 0) {
+                        mTracer.add(StartupTracer.PHASE_MAP_CONFIG, Math.max(0, load - layers));
+                    }
+                    onLoaded();
+                }
+            }
+        });
+    }
+
+    /**
+     * Run a startup task on the background thread after the map load
+     */
+    public void execute(Runnable task) {
+        mExecutor.execute(task);
+    }
+
+    protected void onLoaded() {
+        mIsReady = true;
+        mReadyLatch.countDown();
+        if (Constants.DEBUG_MODE) {
+            Log.d(Constants.TAG, "MapInitializer: the map is loaded");
+        }
+
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                List<OnMapReadyListener> listeners;
+                synchronized (mListeners) {
+                    listeners = new ArrayList<>(mListeners);
+                    mListeners.clear();
+                }
+
+                for (OnMapReadyListener listener : listeners) {
+                    listener.onMapReady(mMap);
+                }
+            }
+        });
+    }
+
+    public boolean isReady() {
+        return mIsReady;
+    }
+
+    /**
+     * @return the map, loaded or not. Until {@link #isReady()} the layers of the map are added on
+     * the loader thread, so the map may be only set to a view or drawn, its layer list must not be
+     * read or changed before an {@link OnMapReadyListener} is called.
+     */
+    public MapDrawable getMap() {
+        return mMap;
+    }
+
+    /**
+     * Block until the map is loaded
+     */
+    public MapDrawable await() {
+        // the map is requested by the load itself or by a later startup task
+        if (mIsReady || Thread.currentThread() == mThread) {
+            return mMap;
+        }
+
+        if (Constants.DEBUG_MODE && Looper.myLooper() == Looper.getMainLooper()) {
+            Log.w(Constants.TAG, "MapInitializer: the main thread waits for the map load");
+        }
+
+        try {
+            mReadyLatch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return mMap;
+    }
+
+    /**
+     * The listener is called once on the main thread when the map is ready, at once if it is ready
+     * already and this is the main thread
+     */
+    public void addOnMapReadyListener(final OnMapReadyListener listener) {
+        if (mIsReady) {
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                listener.onMapReady(mMap);
+            } else {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onMapReady(mMap);
+                    }
+                });
+            }
+            return;
+        }
+
+        synchronized (mListeners) {
+            if (!mIsReady) {
+                mListeners.add(listener);
+                return;
+            }
+        }
+
+        // the map got ready meanwhile
+        addOnMapReadyListener(listener);
+    }
+
+    public void removeOnMapReadyListener(OnMapReadyListener listener) {
+        synchronized (mListeners) {
+            mListeners.remove(listener);
+        }
+    }
+}
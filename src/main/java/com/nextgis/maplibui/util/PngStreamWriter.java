@@ -0,0 +1,177 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2021 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.nextgis.maplibui.util;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes an RGBA PNG image row by row, so an image larger than the memory can be written from
+ * strips. The compressed data is split into IDAT chunks as it is produced.
+ */
+public class PngStreamWriter implements Closeable {
+    protected static final byte[] SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+    protected static final int CHUNK_SIZE = 64 * 1024;
+
+    protected final DataOutputStream mOut;
+    protected final Deflater mDeflater;
+    protected final ChunkStream mChunks;
+    protected final DeflaterOutputStream mData;
+    protected final int mWidth;
+    protected final int mHeight;
+    protected final byte[] mRow;
+    protected int mRowCount;
+
+    public PngStreamWriter(OutputStream out, int width, int height) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Wrong image size " + width + "x" + height);
+        }
+
+        mOut = new DataOutputStream(out);
+        mWidth = width;
+        mHeight = height;
+        // filter type byte and 4 bytes per pixel
+        mRow = new byte[1 + width * 4];
+
+        mOut.write(SIGNATURE);
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = 8; // bit depth
+        header[9] = 6; // color type RGBA
+        writeChunk("IHDR", header, header.length);
+
+        mDeflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        mChunks = new ChunkStream();
+        mData = new DeflaterOutputStream(mChunks, mDeflater, CHUNK_SIZE);
+    }
+
+    /**
+     * @param pixels not premultiplied ARGB colors as returned by Bitmap.getPixels
+     */
+    public void writeRow(int[] pixels, int offset) throws IOException {
+        if (mRowCount >= mHeight) {
+            throw new IOException("All " + mHeight + " rows are written");
+        }
+
+        mRow[0] = 0; // no filter
+        for (int x = 0, i = 1; x < mWidth; x++) {
+            int color = pixels[offset + x];
+            mRow[i++] = (byte) (color >> 16);
+            mRow[i++] = (byte) (color >> 8);
+            mRow[i++] = (byte) color;
+            mRow[i++] = (byte) (color >>> 24);
+        }
+        mData.write(mRow);
+        mRowCount++;
+    }
+
+    public int getRowCount() {
+        return mRowCount;
+    }
+
+    /**
+     * Finish the image, all rows must be written
+     */
+    public void finish() throws IOException {
+        if (mRowCount != mHeight) {
+            throw new IOException("Only " + mRowCount + " of " + mHeight + " rows are written");
+        }
+
+        mData.finish();
+        mChunks.flush();
+        writeChunk("IEND", new byte[0], 0);
+        mOut.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mDeflater.end();
+        mOut.close();
+    }
+
+    protected void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(Charset.forName("US-ASCII"));
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+
+        mOut.writeInt(length);
+        mOut.write(typeBytes);
+        mOut.write(data, 0, length);
+        mOut.writeInt((int) crc.getValue());
+    }
+
+    protected static void putInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Collects the compressed data into IDAT chunks
+     */
+    protected class ChunkStream extends OutputStream {
+        protected final byte[] mBuffer = new byte[CHUNK_SIZE];
+        protected int mSize;
+
+        @Override
+        public void write(int b) throws IOException {
+            mBuffer[mSize++] = (byte) b;
+            if (mSize == CHUNK_SIZE) {
+                flush();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int count = Math.min(len, CHUNK_SIZE - mSize);
+                System.arraycopy(b, off, mBuffer, mSize, count);
+                mSize += count;
+                off += count;
+                len -= count;
+                if (mSize == CHUNK_SIZE) {
+                    flush();
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (mSize > 0) {
+                writeChunk("IDAT", mBuffer, mSize);
+                mSize = 0;
+            }
+        }
+    }
+}
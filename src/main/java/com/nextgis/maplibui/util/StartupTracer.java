@@ -0,0 +1,159 @@
+/*
+ * Project:  NextGIS Mobile
+ * Purpose:  Mobile GIS for Android.
+ * Author:   Dmitry Baryshnikov (aka Bishop), bishop.dev@gmail.com
+ * Author:   NikitaFeodonit, nfeodonit@yandex.com
+ * Author:   Stanislav Petriakov, becomeglory@gmail.com
+ * *****************************************************************************
+ * Copyright (c) 2021 NextGIS, info@nextgis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextgis.maplibui.util;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.nextgis.maplib.util.Constants;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Records how long the application startup phases take. A phase may be recorded several times,
+ * e.g. once per layer, its durations are summed. Recording stops with {@link #finish()}, so the
+ * calls may stay in code which also runs after startup.
+ */
+public class StartupTracer {
+    public static final String PHASE_MAP_CREATE     = "map create";
+    public static final String PHASE_MAP_LOAD       = "map load";
+    public static final String PHASE_MAP_CONFIG     = "map config parse";
+    public static final String PHASE_LAYER_CREATE   = "layer instantiation";
+    public static final String PHASE_ACCOUNT_LOOKUP = "account lookup";
+    public static final String PHASE_SYNC_SETUP     = "sync setup";
+
+    protected final Map<String, Phase> mPhases = new LinkedHashMap<>();
+    protected final long mStartTime;
+    protected volatile boolean mIsRecording = true;
+    protected long mTotalTime = -1;
+
+    public StartupTracer() {
+        mStartTime = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * @return the start timestamp to pass to {@link #record(String, long)} or 0 if the startup is
+     * finished
+     */
+    public long start() {
+        return mIsRecording ? SystemClock.elapsedRealtime() : 0;
+    }
+
+    public void record(String phase, long start) {
+        if (start == 0 || !mIsRecording) {
+            return;
+        }
+
+        add(phase, SystemClock.elapsedRealtime() - start);
+    }
+
+    public synchronized void add(String phase, long duration) {
+        if (!mIsRecording) {
+            return;
+        }
+
+        Phase item = mPhases.get(phase);
+        if (null == item) {
+            item = new Phase();
+            mPhases.put(phase, item);
+        }
+        item.mDuration += duration;
+        item.mCount++;
+    }
+
+    /**
+     * Stop recording and log the phases in debug mode
+     */
+    public void finish() {
+        synchronized (this) {
+            if (!mIsRecording) {
+                return;
+            }
+            mIsRecording = false;
+            mTotalTime = SystemClock.elapsedRealtime() - mStartTime;
+        }
+
+        if (Constants.DEBUG_MODE) {
+            Log.d(Constants.TAG, "Startup: " + toString());
+        }
+    }
+
+    public boolean isRecording() {
+        return mIsRecording;
+    }
+
+    /**
+     * @return summed duration of the phase in ms or -1 if it was not recorded
+     */
+    public synchronized long getDuration(String phase) {
+        Phase item = mPhases.get(phase);
+        return null == item ? -1 : item.mDuration;
+    }
+
+    /**
+     * @return how many times the phase was recorded
+     */
+    public synchronized int getCount(String phase) {
+        Phase item = mPhases.get(phase);
+        return null == item ? 0 : item.mCount;
+    }
+
+    /**
+     * @return phase durations in ms in the order the phases were first recorded
+     */
+    public synchronized Map<String, Long> getDurations() {
+        Map<String, Long> durations = new LinkedHashMap<>();
+        for (Map.Entry<String, Phase> entry : mPhases.entrySet()) {
+            durations.put(entry.getKey(), entry.getValue().mDuration);
+        }
+        return durations;
+    }
+
+    /**
+     * @return time from the tracer creation to {@link #finish()} in ms or -1 if not finished
+     */
+    public synchronized long getTotalTime() {
+        return mTotalTime;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("total ").append(mTotalTime).append(" ms");
+        for (Map.Entry<String, Phase> entry : mPhases.entrySet()) {
+            Phase item = entry.getValue();
+            sb.append(", ").append(entry.getKey()).append(" ").append(item.mDuration).append(" ms");
+            if (item.mCount > 1) {
+                sb.append(" (").append(item.mCount).append(")");
+            }
+        }
+        return sb.toString();
+    }
+
+    protected static class Phase {
+        protected long mDuration;
+        protected int mCount;
+    }
+}